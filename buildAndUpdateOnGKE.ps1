@@ -40,6 +40,10 @@ docker.exe push kurts/ng_hcm_gcp_mgr:$version
 # Store the new build version in the file
 $version | Out-File -FilePath build.version
 
+# Create the composite Datastore indexes the app queries with (no-op if they exist)
+Write-Host "$(Get-Date -Format HH:mm:ss.fff) Creating the Datastore indexes" -ForegroundColor Green
+gcloud datastore indexes create index.yaml --quiet
+
 # Update the container to the newest image on the deployment on GKE
 # deployment name, then container name and finally new image with version tag
 Write-Host "$(Get-Date -Format HH:mm:ss.fff) Updating the container image for the kubernetes deployment" -ForegroundColor Green
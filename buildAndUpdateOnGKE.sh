@@ -36,6 +36,10 @@ docker push kurts/hcm_gcp:$version
 # Store the new build version in the file
 echo $version > build.version
 
+# Create the composite Datastore indexes the app queries with (no-op if they exist)
+echo -e "${GREEN}$(date +%T.%3N) Creating the Datastore indexes${NC}"
+gcloud datastore indexes create index.yaml --quiet
+
 # Update the container to the newest image on the deployment on GKE
 # deployment name, then container name and finally new image with version tag
 echo -e "${GREEN}$(date +%T.%3N) Updating GKE container image to version $version${NC}"
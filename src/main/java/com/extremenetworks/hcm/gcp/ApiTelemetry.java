@@ -0,0 +1,432 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-process statistics on all outbound calls to the Google APIs (Compute,
+ * Cloudbilling and Monitoring): nr. of calls, errors, pages, response bytes and
+ * a latency histogram per API method and per project.
+ *
+ * Background workers open a Run for the import they do, which collects the calls
+ * made by that import per method and zone/region and logs a summary when the
+ * run is closed. The run belongs to the thread that opened it; tasks the import
+ * hands to other threads are wrapped via withCurrentRun() to stay part of it.
+ * Several runs for the same project are kept apart.
+ */
+public class ApiTelemetry {
+
+	private static final Logger logger = LogManager.getLogger(ApiTelemetry.class);
+
+	/* Upper bounds of the latency histogram buckets */
+	public static final long[] LATENCY_BUCKETS_MILLIS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	// Nr. of method / zone combinations listed in a run summary
+	private static final int MAX_RUN_SUMMARY_LINES = 10;
+
+	private final Map<String, CallStats> statsByMethod = new ConcurrentHashMap<String, CallStats>();
+	private final Map<String, CallStats> statsByProject = new ConcurrentHashMap<String, CallStats>();
+
+	// The run the calls made on this thread belong to
+	private static final ThreadLocal<Run> currentRun = new ThreadLocal<Run>();
+
+	/*
+	 * The call whose response body is currently read on this thread. REST response
+	 * bodies are read after the response has been recorded, so their size is
+	 * added separately
+	 */
+	private final ThreadLocal<CallKey> currentCall = new ThreadLocal<CallKey>();
+
+	/**
+	 * Records a finished call.
+	 *
+	 * @param method        API method, e.g. "compute.instances.list"
+	 * @param projectId     Project the call was made for
+	 * @param scope         Zone or region the call was made for, null for global
+	 *                      calls
+	 * @param status        HTTP status code or gRPC status
+	 * @param success       False if the call failed
+	 * @param latencyMillis Time from sending the request until the response
+	 *                      arrived
+	 * @param pages         Nr. of result pages returned by the call
+	 * @param responseBytes Size of the response, if already known
+	 * @param run           Run the call has been made for, null if none
+	 */
+	public void record(String method, String projectId, String scope, String status, boolean success,
+			long latencyMillis, int pages, long responseBytes, Run run) {
+
+		statsByMethod.computeIfAbsent(method, key -> new CallStats()).add(status, success, latencyMillis, pages,
+				responseBytes);
+		statsByProject.computeIfAbsent(String.valueOf(projectId), key -> new CallStats()).add(status, success,
+				latencyMillis, pages, responseBytes);
+
+		if (run != null) {
+			run.record(method, scope, status, success, latencyMillis, pages, responseBytes);
+		}
+	}
+
+	/**
+	 * Marks the given call as the one whose response body is about to be read on
+	 * the current thread.
+	 */
+	public void setCurrentCall(String method, String projectId, String scope, Run run) {
+		currentCall.set(new CallKey(method, projectId, scope, run));
+	}
+
+	/**
+	 * Adds the size of a response body that has been read on the current thread to
+	 * the call marked via setCurrentCall().
+	 */
+	public void addResponseBytes(long responseBytes) {
+
+		CallKey call = currentCall.get();
+		if (call == null) {
+			return;
+		}
+		currentCall.remove();
+
+		statsByMethod.computeIfAbsent(call.method, key -> new CallStats()).addBytes(responseBytes);
+		statsByProject.computeIfAbsent(String.valueOf(call.projectId), key -> new CallStats())
+				.addBytes(responseBytes);
+
+		if (call.run != null) {
+			call.run.addBytes(call.method, call.scope, responseBytes);
+		}
+	}
+
+	/**
+	 * Starts collecting the calls made on the current thread - and by the tasks
+	 * wrapped via withCurrentRun() - until the returned run is closed. Must be
+	 * closed on the same thread.
+	 *
+	 * @param description What the run does, e.g. "Resources import"
+	 * @param projectId   Project the run imports - for logging only
+	 */
+	public Run startRun(String description, String projectId) {
+
+		Run run = new Run(description, projectId, currentRun.get());
+		currentRun.set(run);
+		return run;
+	}
+
+	/**
+	 * @return The run the calls made on the current thread belong to, null if
+	 *         none
+	 */
+	public static Run getCurrentRun() {
+		return currentRun.get();
+	}
+
+	/**
+	 * @return The given task, which runs as part of the current thread's run on
+	 *         whichever thread executes it
+	 */
+	public static Runnable withCurrentRun(Runnable task) {
+
+		Run run = currentRun.get();
+		return () -> {
+			Run previousRun = enter(run);
+			try {
+				task.run();
+			} finally {
+				enter(previousRun);
+			}
+		};
+	}
+
+	/**
+	 * @see #withCurrentRun(Runnable)
+	 */
+	public static <T> Supplier<T> withCurrentRun(Supplier<T> task) {
+
+		Run run = currentRun.get();
+		return () -> {
+			Run previousRun = enter(run);
+			try {
+				return task.get();
+			} finally {
+				enter(previousRun);
+			}
+		};
+	}
+
+	/**
+	 * @see #withCurrentRun(Runnable)
+	 */
+	public static <T> Callable<T> withCurrentRun(Callable<T> task) {
+
+		Run run = currentRun.get();
+		return () -> {
+			Run previousRun = enter(run);
+			try {
+				return task.call();
+			} finally {
+				enter(previousRun);
+			}
+		};
+	}
+
+	/**
+	 * Makes the given run the one of the current thread.
+	 *
+	 * @return The previous run of the current thread
+	 */
+	private static Run enter(Run run) {
+
+		Run previousRun = currentRun.get();
+		if (run != null) {
+			currentRun.set(run);
+		} else {
+			currentRun.remove();
+		}
+		return previousRun;
+	}
+
+	/**
+	 * @return Snapshot of the statistics per API method, sorted by method
+	 */
+	public Map<String, CallStats> getStatsByMethod() {
+		return snapshot(statsByMethod);
+	}
+
+	/**
+	 * @return Snapshot of the statistics per project, sorted by project ID
+	 */
+	public Map<String, CallStats> getStatsByProject() {
+		return snapshot(statsByProject);
+	}
+
+	private static Map<String, CallStats> snapshot(Map<String, CallStats> stats) {
+
+		Map<String, CallStats> snapshot = new TreeMap<String, CallStats>();
+		for (Map.Entry<String, CallStats> entry : stats.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().copy());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * The calls of one background worker run, e.g. the import of one job.
+	 */
+	public class Run implements AutoCloseable {
+
+		private final String description;
+		private final String projectId;
+		private final Run previousRun;
+		private final long startedAt = System.currentTimeMillis();
+
+		// Per "[method] [zone/region]"
+		private final Map<String, CallStats> stats = new ConcurrentHashMap<String, CallStats>();
+
+		/*
+		 * Calls still in flight when the run is closed, e.g. cancelled prefetches,
+		 * don't change the totals of a finished job
+		 */
+		private volatile boolean closed = false;
+
+		Run(String description, String projectId, Run previousRun) {
+			this.description = description;
+			this.projectId = projectId;
+			this.previousRun = previousRun;
+		}
+
+		void record(String method, String scope, String status, boolean success, long latencyMillis, int pages,
+				long responseBytes) {
+
+			if (!closed) {
+				stats.computeIfAbsent(toKey(method, scope), key -> new CallStats()).add(status, success,
+						latencyMillis, pages, responseBytes);
+			}
+		}
+
+		void addBytes(String method, String scope, long responseBytes) {
+
+			if (!closed) {
+				stats.computeIfAbsent(toKey(method, scope), key -> new CallStats()).addBytes(responseBytes);
+			}
+		}
+
+		/**
+		 * @return Totals of all calls of this run so far, or of the whole run once
+		 *         it has been closed
+		 */
+		public CallStats getTotals() {
+
+			CallStats total = new CallStats();
+			for (CallStats callStats : stats.values()) {
+				total.merge(callStats.copy());
+			}
+			return total;
+		}
+
+		/**
+		 * Stops collecting calls and logs a summary of the run: totals and the
+		 * method / zone combinations that took the most time.
+		 */
+		@Override
+		public void close() {
+
+			closed = true;
+			if (currentRun.get() == this) {
+				enter(previousRun);
+			}
+
+			CallStats total = new CallStats();
+			List<Map.Entry<String, CallStats>> entries = new ArrayList<Map.Entry<String, CallStats>>();
+
+			for (Map.Entry<String, CallStats> entry : stats.entrySet()) {
+				CallStats copy = entry.getValue().copy();
+				total.merge(copy);
+				entries.add(new AbstractMap.SimpleEntry<String, CallStats>(entry.getKey(), copy));
+			}
+
+			Collections.sort(entries,
+					(a, b) -> Long.compare(b.getValue().getLatencySumMillis(), a.getValue().getLatencySumMillis()));
+
+			StringBuilder summary = new StringBuilder();
+			summary.append(description).append(" for project ").append(projectId).append(" took ")
+					.append(System.currentTimeMillis() - startedAt).append(" ms - API calls: ").append(total);
+
+			for (int i = 0; i < entries.size() && i < MAX_RUN_SUMMARY_LINES; i++) {
+				summary.append("\n    ").append(entries.get(i).getKey()).append(": ").append(entries.get(i).getValue());
+			}
+
+			logger.info(summary.toString());
+		}
+
+		private String toKey(String method, String scope) {
+			return scope != null ? method + " " + scope : method;
+		}
+	}
+
+	/**
+	 * Counters and latency histogram of a set of calls.
+	 */
+	public static class CallStats {
+
+		private long count = 0;
+		private long errors = 0;
+		private long pages = 0;
+		private long responseBytes = 0;
+		private long latencySumMillis = 0;
+		private long maxLatencyMillis = 0;
+		private final long[] latencyBuckets = new long[LATENCY_BUCKETS_MILLIS.length + 1];
+		private final Map<String, Long> statusCounts = new LinkedHashMap<String, Long>();
+
+		synchronized void add(String status, boolean success, long latencyMillis, int pages, long responseBytes) {
+
+			count++;
+			if (!success) {
+				errors++;
+			}
+			this.pages += pages;
+			this.responseBytes += responseBytes;
+			latencySumMillis += latencyMillis;
+			maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+
+			int bucket = 0;
+			while (bucket < LATENCY_BUCKETS_MILLIS.length && latencyMillis > LATENCY_BUCKETS_MILLIS[bucket]) {
+				bucket++;
+			}
+			latencyBuckets[bucket]++;
+
+			statusCounts.merge(String.valueOf(status), 1L, Long::sum);
+		}
+
+		synchronized void addBytes(long responseBytes) {
+			this.responseBytes += responseBytes;
+		}
+
+		synchronized void merge(CallStats other) {
+
+			count += other.count;
+			errors += other.errors;
+			pages += other.pages;
+			responseBytes += other.responseBytes;
+			latencySumMillis += other.latencySumMillis;
+			maxLatencyMillis = Math.max(maxLatencyMillis, other.maxLatencyMillis);
+			for (int i = 0; i < latencyBuckets.length; i++) {
+				latencyBuckets[i] += other.latencyBuckets[i];
+			}
+			for (Map.Entry<String, Long> status : other.statusCounts.entrySet()) {
+				statusCounts.merge(status.getKey(), status.getValue(), Long::sum);
+			}
+		}
+
+		synchronized CallStats copy() {
+
+			CallStats copy = new CallStats();
+			copy.merge(this);
+			return copy;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getErrors() {
+			return errors;
+		}
+
+		public synchronized long getPages() {
+			return pages;
+		}
+
+		public synchronized long getResponseBytes() {
+			return responseBytes;
+		}
+
+		public synchronized long getLatencySumMillis() {
+			return latencySumMillis;
+		}
+
+		public synchronized long getMaxLatencyMillis() {
+			return maxLatencyMillis;
+		}
+
+		/**
+		 * @return Nr. of calls per latency bucket (not cumulative). The last bucket
+		 *         counts the calls slower than the largest bucket bound
+		 */
+		public synchronized long[] getLatencyBuckets() {
+			return latencyBuckets.clone();
+		}
+
+		public synchronized Map<String, Long> getStatusCounts() {
+			return new LinkedHashMap<String, Long>(statusCounts);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return count + " calls, " + errors + " errors, " + pages + " pages, " + responseBytes + " bytes, avg "
+					+ (count > 0 ? latencySumMillis / count : 0) + " ms, max " + maxLatencyMillis + " ms, total "
+					+ latencySumMillis + " ms, status " + statusCounts;
+		}
+	}
+
+	private static class CallKey {
+
+		private final String method;
+		private final String projectId;
+		private final String scope;
+		private final Run run;
+
+		CallKey(String method, String projectId, String scope, Run run) {
+			this.method = method;
+			this.projectId = projectId;
+			this.scope = scope;
+			this.run = run;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Central configuration of the partial response ("fields=") masks that are
+ * applied to the Compute list calls. Only the listed attributes of each
+ * resource are sent back by GCE, which keeps the response size, JSON parsing
+ * time and heap usage down during large imports.
+ *
+ * The default masks contain everything the resource workers and the firewall
+ * management functions read. Setting the mask of a resource type to null or an
+ * empty string retrieves the full resource objects again.
+ */
+public class ComputeFieldMasks {
+
+	public enum ResourceKind {
+		ZONE, REGION, NETWORK, SUBNETWORK, INSTANCE, FIREWALL
+	}
+
+	private final Map<ResourceKind, String> itemFields = new EnumMap<ResourceKind, String>(ResourceKind.class);
+
+	public ComputeFieldMasks() {
+
+		itemFields.put(ResourceKind.ZONE, "id,name,region,status,selfLink");
+		itemFields.put(ResourceKind.REGION, "id,name,status,zones,selfLink");
+		itemFields.put(ResourceKind.NETWORK,
+				"id,name,description,routingConfig,subnetworks,autoCreateSubnetworks,selfLink");
+		itemFields.put(ResourceKind.SUBNETWORK, "id,name,region,network,gatewayAddress,ipCidrRange,selfLink");
+		itemFields.put(ResourceKind.INSTANCE, "id,name,machineType,zone,status,tags,selfLink,"
+				+ "networkInterfaces(name,network,subnetwork,networkIP,accessConfigs(name,natIP))");
+		itemFields.put(ResourceKind.FIREWALL, "id,name,network,direction,priority,description,disabled,allowed,"
+				+ "denied,sourceRanges,destinationRanges,sourceTags,targetTags,selfLink");
+	}
+
+	/**
+	 * @return The fields of a single resource of the given type that will be
+	 *         retrieved or null if the full resource will be retrieved
+	 */
+	public String getItemFields(ResourceKind kind) {
+		return itemFields.get(kind);
+	}
+
+	/**
+	 * @param fields Comma separated list of resource attributes, in the syntax
+	 *               of the GCE "fields" parameter. Null or empty to retrieve the
+	 *               full resources
+	 */
+	public void setItemFields(ResourceKind kind, String fields) {
+		itemFields.put(kind, fields);
+	}
+
+	/**
+	 * @return The mask for a paged "list" call on the given resource type or null
+	 *         if no mask is configured
+	 */
+	public String forList(ResourceKind kind) {
+
+		String fields = itemFields.get(kind);
+		if (fields == null || fields.isEmpty()) {
+			return null;
+		}
+
+		return "items(" + fields + "),nextPageToken";
+	}
+
+	/**
+	 * @param scopedListName The name of the resource list within each scope, e.g.
+	 *                       "instances" or "subnetworks"
+	 * @return The mask for a paged "aggregatedList" call on the given resource
+	 *         type or null if no mask is configured
+	 */
+	public String forAggregatedList(ResourceKind kind, String scopedListName) {
+
+		String fields = itemFields.get(kind);
+		if (fields == null || fields.isEmpty()) {
+			return null;
+		}
+
+		return "items/*/" + scopedListName + "(" + fields + "),nextPageToken";
+	}
+}
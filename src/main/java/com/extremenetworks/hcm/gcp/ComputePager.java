@@ -0,0 +1,343 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Lazy, typed iterator over the results of a paged GCE list call (zones,
+ * instances, firewalls, etc.). Pages are only requested from GCE once all items
+ * of the previous page have been consumed, so the caller only ever holds a
+ * single page of resources in memory.
+ *
+ * If a prefetch executor is provided, the next page is requested in the
+ * background as soon as its page token is known, while the caller is still
+ * consuming the current page. At most prefetchDepth pages are requested ahead
+ * of the page that is currently being consumed.
+ *
+ * If a page cannot be retrieved the iteration ends early and isFailed() returns
+ * true - callers must check it after the iteration to not treat an incomplete
+ * list as the full list. A pager can only be iterated once. Callers that stop
+ * iterating early should call close() to stop any outstanding prefetches.
+ */
+public class ComputePager<T> implements Iterator<T>, Iterable<T> {
+
+	private static final Logger logger = LogManager.getLogger(ComputePager.class);
+
+	/**
+	 * Retrieves a single page from GCE.
+	 */
+	public interface PageFetcher<T> {
+
+		/**
+		 * @param pageToken The token of the page to retrieve or null for the first
+		 *                  page
+		 * @return The retrieved page or null if GCE didn't return anything
+		 */
+		Page<T> fetch(String pageToken) throws Exception;
+	}
+
+	/**
+	 * A single page of results and the token pointing to the next page.
+	 */
+	public static class Page<T> {
+
+		private final List<T> items;
+		private final String nextPageToken;
+
+		/**
+		 * @param items         The items on this page. Null is treated as an empty
+		 *                      page
+		 * @param nextPageToken Null or empty if this is the last page
+		 */
+		public Page(List<T> items, String nextPageToken) {
+			this.items = items != null ? items : Collections.<T>emptyList();
+			this.nextPageToken = nextPageToken;
+		}
+
+		public List<T> getItems() {
+			return items;
+		}
+
+		public String getNextPageToken() {
+			return nextPageToken;
+		}
+
+		public boolean isLastPage() {
+			return nextPageToken == null || nextPageToken.isEmpty();
+		}
+	}
+
+	// What is being retrieved, e.g. "zones of project xyz" - for logging only
+	private final String description;
+	private final PageFetcher<T> fetcher;
+
+	// Null to fetch every page synchronously within hasNext()
+	private final Executor prefetchExecutor;
+	private final int prefetchDepth;
+
+	private Iterator<T> currentPage = Collections.<T>emptyIterator();
+	private String syncPageToken = null;
+	private boolean started = false;
+	private boolean lastPageReached = false;
+	private boolean failed = false;
+
+	/*
+	 * Prefetch state, guarded by "this": the pages requested in the background
+	 * (in page order, not yet consumed) and the token of the next page that
+	 * hasn't been requested yet. The token is null while the page it comes with
+	 * is still being retrieved
+	 */
+	private final Deque<CompletableFuture<Page<T>>> prefetchedPages = new ArrayDeque<CompletableFuture<Page<T>>>();
+	private String tokenToPrefetch = null;
+	private boolean closed = false;
+
+	// Page polls may run on the prefetch threads
+	private final AtomicInteger nrOfPolls = new AtomicInteger(0);
+	private int nrOfItems = 0;
+
+	public ComputePager(String description, PageFetcher<T> fetcher) {
+		this(description, fetcher, null, 0);
+	}
+
+	/**
+	 * @param prefetchExecutor Runs the background page requests. Must not be an
+	 *                         executor whose threads may wait for this pager,
+	 *                         otherwise all of its threads could end up waiting for
+	 *                         prefetches queued behind them. Null to disable
+	 *                         prefetching
+	 * @param prefetchDepth    Max nr. of pages requested ahead of the page being
+	 *                         consumed. Values less than 1 disable prefetching
+	 */
+	public ComputePager(String description, PageFetcher<T> fetcher, Executor prefetchExecutor, int prefetchDepth) {
+		this.description = description;
+		this.fetcher = fetcher;
+		this.prefetchExecutor = prefetchDepth > 0 ? prefetchExecutor : null;
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		while (!currentPage.hasNext()) {
+
+			if (lastPageReached || failed) {
+				return false;
+			}
+
+			Page<T> page = prefetchExecutor == null ? nextPageSynchronously() : nextPrefetchedPage();
+			if (page == null) {
+				failed = true;
+				close();
+				return false;
+			}
+
+			currentPage = page.getItems().iterator();
+
+			if (page.isLastPage()) {
+				lastPageReached = true;
+				logger.debug("Finished retrieving the full list of " + (nrOfItems + page.getItems().size()) + " "
+						+ description + " using " + nrOfPolls.get() + " page polls");
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public T next() {
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		nrOfItems++;
+		return currentPage.next();
+	}
+
+	/**
+	 * @return This pager - it can only be iterated once
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false);
+	}
+
+	/**
+	 * @return True if a page could not be retrieved. The items returned so far
+	 *         are not the complete list in that case
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public int getNrOfPolls() {
+		return nrOfPolls.get();
+	}
+
+	public int getNrOfItems() {
+		return nrOfItems;
+	}
+
+	/**
+	 * Stops requesting further pages and cancels the prefetches that haven't been
+	 * consumed yet. Page requests that are already running will complete but
+	 * their results are discarded.
+	 */
+	public synchronized void close() {
+
+		closed = true;
+		tokenToPrefetch = null;
+
+		for (CompletableFuture<Page<T>> prefetchedPage : prefetchedPages) {
+			prefetchedPage.cancel(false);
+		}
+		prefetchedPages.clear();
+	}
+
+	private Page<T> nextPageSynchronously() {
+
+		Page<T> page = fetchPage(syncPageToken);
+		if (page != null) {
+			syncPageToken = page.getNextPageToken();
+		}
+
+		return page;
+	}
+
+	/**
+	 * Waits for the oldest outstanding prefetch and requests further pages since
+	 * the consumed page freed up a slot.
+	 */
+	private Page<T> nextPrefetchedPage() {
+
+		CompletableFuture<Page<T>> pageFuture;
+
+		synchronized (this) {
+			if (!started) {
+				started = true;
+				prefetch(null);
+			}
+
+			pageFuture = prefetchedPages.poll();
+		}
+
+		if (pageFuture == null) {
+			// Can only happen after close()
+			return null;
+		}
+
+		try {
+			Page<T> page = pageFuture.get();
+
+			synchronized (this) {
+				prefetchNextPages();
+			}
+
+			return page;
+
+		} catch (InterruptedException ex) {
+			logger.warn("Interrupted while waiting for the next page of " + description);
+			Thread.currentThread().interrupt();
+			return null;
+
+		} catch (Exception ex) {
+			logger.error("Error while waiting for the next page of " + description, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Requests the page with the given token in the background. As soon as that
+	 * page has been received its follow-up page gets requested, as long as the
+	 * prefetch depth allows it. Must be called while holding the lock on this
+	 * pager.
+	 */
+	private void prefetch(String pageToken) {
+
+		CompletableFuture<Page<T>> pageFuture;
+
+		Supplier<Page<T>> fetch = () -> {
+
+			Page<T> page = fetchPage(pageToken);
+
+			/*
+			 * Still part of the background task, so the follow-up request is already
+			 * queued up by the time the consumer sees this page
+			 */
+			synchronized (this) {
+				if (page != null && !page.isLastPage() && !closed) {
+					tokenToPrefetch = page.getNextPageToken();
+					prefetchNextPages();
+				}
+			}
+
+			return page;
+		};
+
+		try {
+			// The page requests count towards the import of the consumer
+			pageFuture = CompletableFuture.supplyAsync(ApiTelemetry.withCurrentRun(fetch), prefetchExecutor);
+
+		} catch (RejectedExecutionException ex) {
+			logger.warn("Cannot request the next page of " + description + " - prefetch executor is shut down");
+			pageFuture = CompletableFuture.completedFuture(null);
+		}
+
+		prefetchedPages.add(pageFuture);
+	}
+
+	/**
+	 * Must be called while holding the lock on this pager.
+	 */
+	private void prefetchNextPages() {
+
+		if (tokenToPrefetch != null && !closed && prefetchedPages.size() < prefetchDepth) {
+
+			String pageToken = tokenToPrefetch;
+			tokenToPrefetch = null;
+			prefetch(pageToken);
+		}
+	}
+
+	protected Page<T> fetchPage(String pageToken) {
+
+		int pollNr = nrOfPolls.incrementAndGet();
+
+		try {
+			Page<T> page = fetcher.fetch(pageToken);
+
+			if (page == null) {
+				logger.warn("Error retrieving " + description + " from GCE on poll page " + pollNr
+						+ " - request returned a null object. Not returning an incomplete list of items!");
+				return null;
+			}
+
+			logger.debug("Received page nr " + pollNr + " with " + page.getItems().size() + " " + description);
+			return page;
+
+		} catch (Exception ex) {
+			logger.error("Error while trying to retrieve " + description + " on poll page " + pollNr, ex);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.extremenetworks.hcm.gcp;
+
+import com.google.api.services.compute.model.Firewall;
+
+/**
+ * A single change to the firewall rules of a project, to be applied together
+ * with other changes via GoogleComputeEngineManager.applyFirewallMutations().
+ */
+public class FirewallMutation {
+
+	public enum Type {
+		// Create a new rule
+		INSERT,
+		// Change the attributes set in the given rule, all others are kept
+		PATCH,
+		// Remove an existing rule
+		DELETE
+	}
+
+	private final Type type;
+	private final String ruleName;
+	private final Firewall rule;
+
+	private FirewallMutation(Type type, String ruleName, Firewall rule) {
+		this.type = type;
+		this.ruleName = ruleName;
+		this.rule = rule;
+	}
+
+	/**
+	 * @param rule The rule to create. Minimal requirements: - name - network -
+	 *             direction - at least one allowed or one denied rule
+	 */
+	public static FirewallMutation insert(Firewall rule) {
+		return new FirewallMutation(Type.INSERT, rule != null ? rule.getName() : null, rule);
+	}
+
+	/**
+	 * @param rule The attributes to change. Must have the name attribute set -->
+	 *             used as identifier to know which rule to patch
+	 */
+	public static FirewallMutation patch(Firewall rule) {
+		return new FirewallMutation(Type.PATCH, rule != null ? rule.getName() : null, rule);
+	}
+
+	public static FirewallMutation delete(String ruleName) {
+		return new FirewallMutation(Type.DELETE, ruleName, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getRuleName() {
+		return ruleName;
+	}
+
+	/**
+	 * @return The rule to create or patch, null for deletions
+	 */
+	public Firewall getRule() {
+		return rule;
+	}
+
+	@Override
+	public String toString() {
+		return "FirewallMutation [type=" + type + ", ruleName=" + ruleName + "]";
+	}
+}
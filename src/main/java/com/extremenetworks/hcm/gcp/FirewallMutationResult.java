@@ -0,0 +1,32 @@
+package com.extremenetworks.hcm.gcp;
+
+/**
+ * Outcome of one FirewallMutation of a batch.
+ */
+public class FirewallMutationResult {
+
+	private final FirewallMutation mutation;
+	private final OperationResult operationResult;
+
+	public FirewallMutationResult(FirewallMutation mutation, OperationResult operationResult) {
+		this.mutation = mutation;
+		this.operationResult = operationResult;
+	}
+
+	public boolean isSuccess() {
+		return operationResult.isSuccess();
+	}
+
+	public FirewallMutation getMutation() {
+		return mutation;
+	}
+
+	public OperationResult getOperationResult() {
+		return operationResult;
+	}
+
+	@Override
+	public String toString() {
+		return "FirewallMutationResult [mutation=" + mutation + ", operationResult=" + operationResult + "]";
+	}
+}
@@ -0,0 +1,427 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.extremenetworks.hcm.gcp.GoogleComputeEngineManager.AreRulesEqualResult;
+import com.google.api.services.compute.model.Firewall;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Brings the managed firewall rules of a project (rules with an
+ * "ExtremePolicyId='...'" tag in their description) in line with a desired set
+ * of rules.
+ *
+ * The current rules are retrieved with a single list call and compared to the
+ * desired rules in memory, keyed by their policy id. Only rules that are
+ * missing, differ or are no longer desired are written, so pushing an
+ * unchanged policy again doesn't modify anything.
+ */
+public class FirewallReconciler {
+
+	private static final Logger logger = LogManager.getLogger(FirewallReconciler.class);
+
+	private static final Pattern POLICY_ID_PATTERN = Pattern.compile("ExtremePolicyId='([^']+)'");
+
+	// GCE defaults for attributes that are not set on a rule
+	private static final String DEFAULT_DIRECTION = "INGRESS";
+	private static final int DEFAULT_PRIORITY = 1000;
+
+	private final GoogleComputeEngineManager computeManager;
+
+	public FirewallReconciler(GoogleComputeEngineManager computeManager) {
+		this.computeManager = computeManager;
+	}
+
+	/**
+	 * Outcome of one reconciliation run.
+	 */
+	public static class Result {
+
+		private boolean currentRulesRetrieved = false;
+		private int nrOfUnchangedRules = 0;
+		private final Map<String, AreRulesEqualResult> differences = new LinkedHashMap<String, AreRulesEqualResult>();
+		private final List<String> invalidRules = new ArrayList<String>();
+		private final List<FirewallMutationResult> mutationResults = new ArrayList<FirewallMutationResult>();
+
+		/**
+		 * @return True if the current rules could be retrieved and all required
+		 *         changes have been applied successfully
+		 */
+		public boolean isSuccess() {
+
+			if (!currentRulesRetrieved || !invalidRules.isEmpty()) {
+				return false;
+			}
+			for (FirewallMutationResult mutationResult : mutationResults) {
+				if (!mutationResult.isSuccess()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public boolean isCurrentRulesRetrieved() {
+			return currentRulesRetrieved;
+		}
+
+		public int getNrOfUnchangedRules() {
+			return nrOfUnchangedRules;
+		}
+
+		/**
+		 * @return Per policy id: why the current rule doesn't match the desired one.
+		 *         Only contains the policies that needed to be changed
+		 */
+		public Map<String, AreRulesEqualResult> getDifferences() {
+			return differences;
+		}
+
+		/**
+		 * @return Names of the desired rules that were skipped since they had no or a
+		 *         duplicate policy id
+		 */
+		public List<String> getInvalidRules() {
+			return invalidRules;
+		}
+
+		public List<FirewallMutationResult> getMutationResults() {
+			return mutationResults;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [currentRulesRetrieved=" + currentRulesRetrieved + ", nrOfUnchangedRules="
+					+ nrOfUnchangedRules + ", differences=" + differences + ", invalidRules=" + invalidRules
+					+ ", nrOfMutations=" + mutationResults.size() + "]";
+		}
+	}
+
+	/**
+	 * Applies the minimal set of creates, patches and deletes to make the managed
+	 * rules of the given project (and VPC network) equal to the desired rules.
+	 *
+	 * @param projectId    Project ID whose managed rules to reconcile
+	 * @param vpcName      Only reconcile the managed rules of this VPC network
+	 *                     (name as it appears on the UI). If null or empty, the
+	 *                     managed rules of all networks are reconciled
+	 * @param desiredRules The complete set of managed rules that should exist. Each
+	 *                     rule must have a unique "ExtremePolicyId='...'" tag in
+	 *                     its description. Managed rules that are not part of this
+	 *                     set are deleted
+	 * @return Summary of the differences found and changes applied
+	 */
+	public Result reconcile(String projectId, String vpcName, List<Firewall> desiredRules) {
+
+		Result result = new Result();
+
+		List<Firewall> currentRules = computeManager.retrieveFirewalls(projectId, vpcName, true);
+		if (currentRules == null) {
+			logger.error("Cannot reconcile the managed firewall rules of project " + projectId + " and VPC network "
+					+ vpcName + " since the current rules could not be retrieved");
+			return result;
+		}
+		result.currentRulesRetrieved = true;
+
+		Map<String, Firewall> desiredByPolicyId = new LinkedHashMap<String, Firewall>();
+		for (Firewall desiredRule : desiredRules != null ? desiredRules : Collections.<Firewall>emptyList()) {
+
+			String policyId = getPolicyId(desiredRule);
+			if (policyId == null || desiredByPolicyId.containsKey(policyId)) {
+				logger.error("Skipping desired firewall rule " + (desiredRule != null ? desiredRule.getName() : null)
+						+ " for project " + projectId + " since it has no or a duplicate policy id: " + policyId);
+				result.invalidRules.add(desiredRule != null ? desiredRule.getName() : null);
+				continue;
+			}
+			desiredByPolicyId.put(policyId, desiredRule);
+		}
+
+		// Rules that have to be deleted before their replacement can be created
+		// under the same name
+		List<FirewallMutation> replacedRules = new ArrayList<FirewallMutation>();
+		List<FirewallMutation> mutations = new ArrayList<FirewallMutation>();
+
+		Map<String, Firewall> currentByPolicyId = new LinkedHashMap<String, Firewall>();
+		for (Firewall currentRule : currentRules) {
+
+			String policyId = getPolicyId(currentRule);
+			if (policyId == null || currentByPolicyId.containsKey(policyId)
+					|| !desiredByPolicyId.containsKey(policyId)) {
+				// No longer desired or a duplicate of another rule of the same policy
+				mutations.add(FirewallMutation.delete(currentRule.getName()));
+				continue;
+			}
+			currentByPolicyId.put(policyId, currentRule);
+		}
+
+		for (Map.Entry<String, Firewall> desired : desiredByPolicyId.entrySet()) {
+
+			String policyId = desired.getKey();
+			Firewall desiredRule = desired.getValue();
+			Firewall currentRule = currentByPolicyId.get(policyId);
+
+			AreRulesEqualResult comparison = compareRules(desiredRule, currentRule);
+
+			switch (comparison) {
+			case EQUAL:
+				result.nrOfUnchangedRules++;
+				continue;
+
+			case NOT_EQUAL_NULL:
+				// Not created yet
+				mutations.add(FirewallMutation.insert(desiredRule));
+				break;
+
+			case NOT_EQUAL_NAME:
+				// Different names --> the new rule can be created while the old one is
+				// deleted
+				mutations.add(FirewallMutation.delete(currentRule.getName()));
+				mutations.add(FirewallMutation.insert(desiredRule));
+				break;
+
+			case NOT_EQUAL_NETWORK:
+			case NOT_EQUAL_DIRECTION:
+				// Network and direction of an existing rule cannot be changed
+				replacedRules.add(FirewallMutation.delete(currentRule.getName()));
+				mutations.add(FirewallMutation.insert(desiredRule));
+				break;
+
+			default:
+				Firewall patch = toPatch(desiredRule, currentRule);
+
+				if (compareRules(desiredRule, applyPatch(currentRule, patch)) == AreRulesEqualResult.EQUAL) {
+					mutations.add(FirewallMutation.patch(patch));
+
+				} else {
+					// Patching would not converge - replace the rule instead
+					logger.warn("Patch for firewall rule " + currentRule.getName() + " of project " + projectId
+							+ " would not make it equal to the desired rule - replacing the rule instead");
+					replacedRules.add(FirewallMutation.delete(currentRule.getName()));
+					mutations.add(FirewallMutation.insert(desiredRule));
+				}
+			}
+
+			result.differences.put(policyId, comparison);
+		}
+
+		if (replacedRules.isEmpty() && mutations.isEmpty()) {
+			logger.info("All " + result.nrOfUnchangedRules + " managed firewall rules of project " + projectId
+					+ " and VPC network " + vpcName + " are up to date");
+			return result;
+		}
+
+		logger.info("Reconciling the managed firewall rules of project " + projectId + " and VPC network " + vpcName
+				+ ": " + result.nrOfUnchangedRules + " unchanged, " + (replacedRules.size() + mutations.size())
+				+ " changes: " + result.differences);
+
+		if (!replacedRules.isEmpty()) {
+			result.mutationResults.addAll(computeManager.applyFirewallMutations(projectId, replacedRules));
+		}
+		result.mutationResults.addAll(computeManager.applyFirewallMutations(projectId, mutations));
+
+		return result;
+	}
+
+	/**
+	 * @return The value of the "ExtremePolicyId='...'" tag in the rule's
+	 *         description or null if the rule isn't a managed rule
+	 */
+	public static String getPolicyId(Firewall rule) {
+
+		if (rule == null || rule.getDescription() == null) {
+			return null;
+		}
+
+		Matcher matcher = POLICY_ID_PATTERN.matcher(rule.getDescription());
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * Compares the attributes of two firewall rules that GCE takes into account.
+	 * The order of list attributes (ranges, tags, protocols and ports) doesn't
+	 * matter, networks are compared by their name and unset attributes equal their
+	 * GCE default values.
+	 *
+	 * @return EQUAL or the first attribute found to be different
+	 */
+	public static AreRulesEqualResult compareRules(Firewall desiredRule, Firewall currentRule) {
+
+		if (desiredRule == null || currentRule == null) {
+			return AreRulesEqualResult.NOT_EQUAL_NULL;
+		}
+
+		try {
+			RuleFingerprint desired = new RuleFingerprint(desiredRule);
+			RuleFingerprint current = new RuleFingerprint(currentRule);
+
+			if (desired.hash == current.hash && desired.attributes.equals(current.attributes)) {
+				return AreRulesEqualResult.EQUAL;
+			}
+
+			for (Map.Entry<AreRulesEqualResult, String> attribute : desired.attributes.entrySet()) {
+				if (!attribute.getValue().equals(current.attributes.get(attribute.getKey()))) {
+					return attribute.getKey();
+				}
+			}
+
+			return AreRulesEqualResult.EQUAL;
+
+		} catch (Exception ex) {
+			logger.error("Error while comparing firewall rules " + desiredRule.getName() + " and "
+					+ currentRule.getName(), ex);
+			return AreRulesEqualResult.NOT_EQUAL_ERROR;
+		}
+	}
+
+	/**
+	 * Builds the patch that turns the current rule into the desired one. List
+	 * attributes that are set on the current rule but not on the desired one are
+	 * cleared explicitly since a patch keeps all attributes it doesn't contain.
+	 * Priority and disabled are always set, with their GCE defaults if the desired
+	 * rule doesn't set them.
+	 */
+	private static Firewall toPatch(Firewall desiredRule, Firewall currentRule) {
+
+		Firewall patch = desiredRule.clone();
+		patch.setName(currentRule.getName());
+		patch.setNetwork(null);
+		patch.setDirection(null);
+
+		patch.setPriority(desiredRule.getPriority() != null ? desiredRule.getPriority() : DEFAULT_PRIORITY);
+		patch.setDisabled(Boolean.TRUE.equals(desiredRule.getDisabled()));
+
+		if (patch.getAllowed() == null && currentRule.getAllowed() != null) {
+			patch.setAllowed(new ArrayList<Firewall.Allowed>());
+		}
+		if (patch.getDenied() == null && currentRule.getDenied() != null) {
+			patch.setDenied(new ArrayList<Firewall.Denied>());
+		}
+		if (patch.getSourceRanges() == null && currentRule.getSourceRanges() != null) {
+			patch.setSourceRanges(new ArrayList<String>());
+		}
+		if (patch.getDestinationRanges() == null && currentRule.getDestinationRanges() != null) {
+			patch.setDestinationRanges(new ArrayList<String>());
+		}
+		if (patch.getSourceTags() == null && currentRule.getSourceTags() != null) {
+			patch.setSourceTags(new ArrayList<String>());
+		}
+		if (patch.getTargetTags() == null && currentRule.getTargetTags() != null) {
+			patch.setTargetTags(new ArrayList<String>());
+		}
+
+		return patch;
+	}
+
+	/**
+	 * @return The rule GCE ends up with when the given patch is applied to the
+	 *         current rule: the attributes the patch contains replace the current
+	 *         ones
+	 */
+	private static Firewall applyPatch(Firewall currentRule, Firewall patch) {
+
+		Firewall patched = currentRule.clone();
+
+		if (patch.getDescription() != null) {
+			patched.setDescription(patch.getDescription());
+		}
+		if (patch.getPriority() != null) {
+			patched.setPriority(patch.getPriority());
+		}
+		if (patch.getDisabled() != null) {
+			patched.setDisabled(patch.getDisabled());
+		}
+		if (patch.getAllowed() != null) {
+			patched.setAllowed(patch.getAllowed());
+		}
+		if (patch.getDenied() != null) {
+			patched.setDenied(patch.getDenied());
+		}
+		if (patch.getSourceRanges() != null) {
+			patched.setSourceRanges(patch.getSourceRanges());
+		}
+		if (patch.getDestinationRanges() != null) {
+			patched.setDestinationRanges(patch.getDestinationRanges());
+		}
+		if (patch.getSourceTags() != null) {
+			patched.setSourceTags(patch.getSourceTags());
+		}
+		if (patch.getTargetTags() != null) {
+			patched.setTargetTags(patch.getTargetTags());
+		}
+
+		return patched;
+	}
+
+	/**
+	 * Normalized attributes of a rule, in the order in which differences are
+	 * reported, plus a hash over all of them for the quick equality check.
+	 */
+	private static class RuleFingerprint {
+
+		private final Map<AreRulesEqualResult, String> attributes = new EnumMap<AreRulesEqualResult, String>(
+				AreRulesEqualResult.class);
+		private final int hash;
+
+		RuleFingerprint(Firewall rule) {
+
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_NAME, String.valueOf(rule.getName()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_NETWORK, lastPathSegment(rule.getNetwork()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_DIRECTION,
+					rule.getDirection() != null ? rule.getDirection().toUpperCase() : DEFAULT_DIRECTION);
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_PRIORITY,
+					String.valueOf(rule.getPriority() != null ? rule.getPriority() : DEFAULT_PRIORITY));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_DISABLED,
+					String.valueOf(Boolean.TRUE.equals(rule.getDisabled())));
+
+			TreeSet<String> allowed = new TreeSet<String>();
+			if (rule.getAllowed() != null) {
+				for (Firewall.Allowed filter : rule.getAllowed()) {
+					allowed.add(normalizeFilter(filter.getIPProtocol(), filter.getPorts()));
+				}
+			}
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_ALLOWED_FILTERS, allowed.toString());
+
+			TreeSet<String> denied = new TreeSet<String>();
+			if (rule.getDenied() != null) {
+				for (Firewall.Denied filter : rule.getDenied()) {
+					denied.add(normalizeFilter(filter.getIPProtocol(), filter.getPorts()));
+				}
+			}
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_DENIED_FILTERS, denied.toString());
+
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_SOURCE_RANGES, normalizeList(rule.getSourceRanges()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_DESTINATON_RANGES,
+					normalizeList(rule.getDestinationRanges()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_SOURCE_TAGS, normalizeList(rule.getSourceTags()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_TARGET_TAGS, normalizeList(rule.getTargetTags()));
+			attributes.put(AreRulesEqualResult.NOT_EQUAL_DESCRIPTION, String.valueOf(rule.getDescription()));
+
+			hash = attributes.hashCode();
+		}
+
+		private static String lastPathSegment(String network) {
+
+			if (network == null) {
+				return "null";
+			}
+			return network.substring(network.lastIndexOf('/') + 1);
+		}
+
+		private static String normalizeFilter(String protocol, List<String> ports) {
+			return (protocol != null ? protocol.toLowerCase() : "all") + ":" + normalizeList(ports);
+		}
+
+		private static String normalizeList(List<String> values) {
+			return values != null ? new TreeSet<String>(values).toString() : "[]";
+		}
+	}
+}
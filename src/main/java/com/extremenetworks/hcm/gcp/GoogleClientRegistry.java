@@ -0,0 +1,392 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProxySelector;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.extremenetworks.hcm.gcp.QuotaRateLimiter.QuotaCategory;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.services.cloudbilling.Cloudbilling;
+import com.google.api.services.cloudbilling.CloudbillingScopes;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.ComputeScopes;
+import com.google.api.services.monitoring.v3.MonitoringScopes;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.monitoring.v3.MetricServiceClient;
+import com.google.cloud.monitoring.v3.MetricServiceSettings;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Application-scoped cache of the GCP API clients (Compute, Cloudbilling and
+ * Monitoring) per customer project. All REST clients share one pooled HTTP
+ * transport that keeps its connections to the Google APIs alive between calls,
+ * so repeated imports for the same project neither parse the credentials again
+ * nor do another TLS handshake.
+ *
+ * Compute requests are limited per project to the Compute API quotas and all
+ * REST requests are retried with backoff on rate limit and server errors, see
+ * RetryingRequestInitializer.
+ *
+ * Clients are keyed by project ID and a hash of the credentials JSON, so
+ * updated credentials for a project result in new clients. Clients that haven't
+ * been used for Main.CLIENT_IDLE_TIMEOUT_MINUTES are evicted and closed.
+ */
+public class GoogleClientRegistry {
+
+	private static final Logger logger = LogManager.getLogger(GoogleClientRegistry.class);
+
+	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+	private static final String COMPUTE_APPLICATION_NAME = "Connect/1.0";
+	private static final String BILLING_APPLICATION_NAME = "Extreme Networks Hybrid Cloud Manager";
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final HttpTransport httpTransport;
+	private final QuotaRateLimiter computeRateLimiter;
+	private final ApiTelemetry telemetry = new ApiTelemetry();
+
+	private final Map<String, ProjectClients> clients = new ConcurrentHashMap<String, ProjectClients>();
+	private final ScheduledExecutorService evictionScheduler;
+	private final long maxIdleMillis;
+
+	public GoogleClientRegistry() {
+
+		connectionManager = new PoolingHttpClientConnectionManager(Main.HTTP_CONNECTION_TTL_SECONDS,
+				TimeUnit.SECONDS);
+		connectionManager.setMaxTotal(Main.HTTP_MAX_CONNECTIONS);
+		// Nearly all requests go to the same host (www.googleapis.com)
+		connectionManager.setDefaultMaxPerRoute(Main.HTTP_MAX_CONNECTIONS);
+
+		// Redirects and retries are handled by the Google API client itself. Response
+		// bodies are counted as they are read, for the API telemetry
+		httpTransport = new ApacheHttpTransport(HttpClientBuilder.create().setConnectionManager(connectionManager)
+				.setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault())).disableRedirectHandling()
+				.disableAutomaticRetries().addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+					if (response.getEntity() != null) {
+						response.setEntity(new CountingEntity(response.getEntity()));
+					}
+				}).build());
+
+		// Shared by all clients of the same project, so it keeps working when a
+		// project's clients are recreated
+		Map<QuotaCategory, Double> computeQuotas = new EnumMap<QuotaCategory, Double>(QuotaCategory.class);
+		computeQuotas.put(QuotaCategory.READ, Main.COMPUTE_READ_REQUESTS_PER_SECOND);
+		computeQuotas.put(QuotaCategory.LIST, Main.COMPUTE_LIST_REQUESTS_PER_SECOND);
+		computeQuotas.put(QuotaCategory.OPERATION_READ, Main.COMPUTE_OPERATION_READ_REQUESTS_PER_SECOND);
+		computeQuotas.put(QuotaCategory.WRITE, Main.COMPUTE_WRITE_REQUESTS_PER_SECOND);
+		computeRateLimiter = new QuotaRateLimiter(computeQuotas);
+
+		maxIdleMillis = TimeUnit.MINUTES.toMillis(Main.CLIENT_IDLE_TIMEOUT_MINUTES);
+
+		evictionScheduler = Executors
+				.newSingleThreadScheduledExecutor(new ServiceContext.NamedThreadFactory("hcm-client-eviction"));
+		evictionScheduler.scheduleWithFixedDelay(this::evictIdleClients, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Returns the cached clients for the given project or creates them if there
+	 * are none for these credentials yet.
+	 *
+	 * @param projectId       The customer's GCP project ID
+	 * @param authFileContent Content of the service account's JSON credentials
+	 *                        file
+	 * @return The clients or null if the credentials could not be loaded
+	 */
+	public ProjectClients getClients(String projectId, String authFileContent) {
+
+		String clientKey;
+		try {
+			clientKey = projectId + "/" + hash(authFileContent);
+		} catch (Exception ex) {
+			logger.error("Error hashing the credentials of project " + projectId, ex);
+			return null;
+		}
+
+		ProjectClients projectClients = clients.computeIfAbsent(clientKey,
+				key -> createClients(projectId, authFileContent));
+
+		if (projectClients != null) {
+			projectClients.touch();
+		}
+
+		return projectClients;
+	}
+
+	/**
+	 * Closes and removes all cached clients of the given project, e.g. after its
+	 * credentials have been changed.
+	 */
+	public void invalidate(String projectId) {
+
+		Iterator<Map.Entry<String, ProjectClients>> it = clients.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, ProjectClients> entry = it.next();
+			if (entry.getValue().getProjectId().equals(projectId)) {
+				it.remove();
+				entry.getValue().close();
+			}
+		}
+	}
+
+	/**
+	 * Closes all cached clients and the shared HTTP transport.
+	 */
+	public void close() {
+
+		evictionScheduler.shutdownNow();
+
+		for (ProjectClients projectClients : clients.values()) {
+			projectClients.close();
+		}
+		clients.clear();
+
+		try {
+			httpTransport.shutdown();
+		} catch (Exception ex) {
+			logger.warn("Error shutting down the shared HTTP transport", ex);
+		}
+	}
+
+	private ProjectClients createClients(String projectId, String authFileContent) {
+
+		logger.debug("Creating new GCP API clients for project " + projectId);
+
+		try {
+			List<String> authScopes = new ArrayList<String>();
+			authScopes.add(ComputeScopes.COMPUTE);
+			authScopes.add(CloudbillingScopes.CLOUD_PLATFORM);
+			authScopes.add(MonitoringScopes.MONITORING_READ);
+
+			// Parsed once and used by all clients - REST and gRPC
+			GoogleCredentials credentials = GoogleCredentials
+					.fromStream(new ByteArrayInputStream(authFileContent.getBytes(StandardCharsets.UTF_8)))
+					.createScoped(authScopes);
+			HttpCredentialsAdapter credentialsAdapter = new HttpCredentialsAdapter(credentials);
+
+			// Compute requests wait for the project's quota, all requests are retried
+			// on rate limit and server errors and recorded in the telemetry
+			Compute compute = new Compute.Builder(httpTransport, JSON_FACTORY,
+					new TelemetryRequestInitializer(
+							new RetryingRequestInitializer(credentialsAdapter, computeRateLimiter, projectId),
+							telemetry, projectId)).setApplicationName(COMPUTE_APPLICATION_NAME).build();
+
+			Cloudbilling billing = new Cloudbilling.Builder(httpTransport, JSON_FACTORY,
+					new TelemetryRequestInitializer(new RetryingRequestInitializer(credentialsAdapter, null, projectId),
+							telemetry, projectId)).setApplicationName(BILLING_APPLICATION_NAME).build();
+
+			return new ProjectClients(projectId, credentials, compute, billing, telemetry);
+
+		} catch (Exception ex) {
+			logger.error("Error loading the credentials JSON file content for authorizing against the GCP project "
+					+ projectId, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * @return Statistics on all calls made by the clients of this registry
+	 */
+	public ApiTelemetry getTelemetry() {
+		return telemetry;
+	}
+
+	private void evictIdleClients() {
+
+		try {
+			long now = System.currentTimeMillis();
+
+			Iterator<ProjectClients> it = clients.values().iterator();
+			while (it.hasNext()) {
+				ProjectClients projectClients = it.next();
+				if (now - projectClients.getLastUsed() > maxIdleMillis) {
+					logger.debug("Evicting idle GCP API clients of project " + projectClients.getProjectId());
+					it.remove();
+					projectClients.close();
+				}
+			}
+
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(Main.HTTP_CONNECTION_TTL_SECONDS, TimeUnit.SECONDS);
+
+		} catch (Exception ex) {
+			logger.warn("Error evicting idle GCP API clients", ex);
+		}
+	}
+
+	private static String hash(String content) throws Exception {
+
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+
+		return hex.toString();
+	}
+
+	/**
+	 * Counts the bytes of a response body while it is read and adds them to the
+	 * telemetry of the call once the body has been read completely or closed.
+	 */
+	private class CountingEntity extends HttpEntityWrapper {
+
+		CountingEntity(HttpEntity wrappedEntity) {
+			super(wrappedEntity);
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+
+			return new FilterInputStream(super.getContent()) {
+
+				private long count = 0;
+				private boolean reported = false;
+
+				@Override
+				public int read() throws IOException {
+
+					int b = super.read();
+					if (b >= 0) {
+						count++;
+					} else {
+						report();
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+
+					int n = super.read(buffer, offset, length);
+					if (n > 0) {
+						count += n;
+					} else if (n < 0) {
+						report();
+					}
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+
+					report();
+					super.close();
+				}
+
+				private void report() {
+
+					if (!reported) {
+						reported = true;
+						telemetry.addResponseBytes(count);
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * The API clients of a single project. The gRPC based Monitoring client is
+	 * only created on first use since it opens its own channel.
+	 */
+	public static class ProjectClients {
+
+		private final String projectId;
+		private final GoogleCredentials credentials;
+		private final Compute compute;
+		private final Cloudbilling billing;
+		private final ApiTelemetry telemetry;
+		private MetricServiceClient metrics;
+
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		ProjectClients(String projectId, GoogleCredentials credentials, Compute compute, Cloudbilling billing,
+				ApiTelemetry telemetry) {
+			this.projectId = projectId;
+			this.credentials = credentials;
+			this.compute = compute;
+			this.billing = billing;
+			this.telemetry = telemetry;
+		}
+
+		public String getProjectId() {
+			return projectId;
+		}
+
+		public Compute getCompute() {
+			return compute;
+		}
+
+		public Cloudbilling getBilling() {
+			return billing;
+		}
+
+		/**
+		 * @return The Monitoring client or null if it could not be created
+		 */
+		public synchronized MetricServiceClient getMetrics() {
+
+			if (metrics == null) {
+				try {
+					TelemetryGrpcInterceptor interceptor = new TelemetryGrpcInterceptor(telemetry, projectId);
+
+					metrics = MetricServiceClient.create(MetricServiceSettings.newBuilder()
+							.setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+							.setTransportChannelProvider(MetricServiceSettings.defaultGrpcTransportProviderBuilder()
+									.setInterceptorProvider(() -> Collections.singletonList(interceptor)).build())
+							.build());
+				} catch (Exception ex) {
+					logger.error("Error while trying to setup the metrics connection for project " + projectId, ex);
+				}
+			}
+
+			return metrics;
+		}
+
+		long getLastUsed() {
+			return lastUsed;
+		}
+
+		void touch() {
+			lastUsed = System.currentTimeMillis();
+		}
+
+		synchronized void close() {
+
+			if (metrics != null) {
+				try {
+					metrics.close();
+				} catch (Exception ex) {
+					logger.debug("Error closing the metrics connection for project " + projectId, ex);
+				}
+				metrics = null;
+			}
+		}
+	}
+}
@@ -1,156 +1,402 @@
-package com.extremenetworks.hcm.gcp;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.services.cloudbilling.model.ProjectBillingInfo;
-import com.google.api.services.compute.model.Firewall;
-import com.google.cloud.monitoring.v3.MetricServiceClient.ListTimeSeriesPagedResponse;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-public class GoogleComputeEngineManager {
-
-	private static final Logger logger = LogManager.getLogger(GoogleComputeEngineManager.class);
-
-	ObjectMapper jsonMapper = new ObjectMapper();
-
-	private GoogleComputeEngineApi computeApi;
-
-	public enum AreRulesEqualResult {
-		EQUAL, NOT_EQUAL_NAME, NOT_EQUAL_NETWORK, NOT_EQUAL_DIRECTION, NOT_EQUAL_ALLOWED_FILTERS,
-		NOT_EQUAL_DENIED_FILTERS, NOT_EQUAL_SOURCE_RANGES, NOT_EQUAL_DESTINATON_RANGES, NOT_EQUAL_NULL, NOT_EQUAL_ERROR
-	}
-
-	public GoogleComputeEngineManager() {
-
-		computeApi = new GoogleComputeEngineApi();
-	}
-
-	public boolean createComputeConnection(String projectId, String authFileContent) {
-		return computeApi.createComputeConnection(projectId, authFileContent);
-	}
-
-	public List<Object> retrieveAllZones(String projectId) {
-		return computeApi.retrieveAllZones(projectId);
-	}
-
-	public List<Object> retrieveAllRegions(String projectId) {
-		return computeApi.retrieveAllRegions(projectId);
-	}
-
-	public List<Object> retrieveAllNetworks(String projectId) {
-		return computeApi.retrieveAllNetworks(projectId);
-	}
-
-	public List<Object> retrieveInstancesForZone(String projectId, String zoneName) {
-		return computeApi.retrieveInstancesForZone(projectId, zoneName);
-	}
-
-	public List<Object> retrieveSubnetworksForRegion(String projectId, String regionName) {
-		return computeApi.retrieveSubnetworksForRegion(projectId, regionName);
-	}
-
-	public ProjectBillingInfo retrieveBillingInfo(String projectId) {
-		return computeApi.retrieveBillingInfo(projectId);
-	}
-
-	public ListTimeSeriesPagedResponse retrieveMetrics(String projectId) {
-		return computeApi.retrieveMetrics(projectId);
-	}
-
-	/**
-	 * Retrieves a list of firewalls from GCE.
-	 * 
-	 * @param projectId                The project ID to connect to
-	 * @param vpcName                  The name of the VPC network to filter for.
-	 *                                 The name must be given as it appears on the
-	 *                                 UI. For example, to filter for a network with
-	 *                                 ID
-	 *                                 "https://www.googleapis.com/compute/v1/projects/snappy-bucksaw-168120/global/networks/datalab-network"
-	 *                                 you specify "datalab-network" (only the last
-	 *                                 part after the last slash). If no vpcName is
-	 *                                 provided, all firewalls will be retrieved.
-	 * @param onlyRetrieveManagedRules If set to true: will add an additional filter
-	 *                                 to the query to only retrieve firewall rules
-	 *                                 that contain the 'ExtremePolicyId=' tag
-	 *                                 within the rule's description --> managed
-	 *                                 rules. If set to false: will retrieve all
-	 *                                 rules (managed or not)
-	 * @return
-	 */
-	public List<Object> retrieveFirewalls(String projectId, String vpcName, boolean onlyRetrieveManagedRules) {
-		return computeApi.retrieveFirewalls(projectId, vpcName, onlyRetrieveManagedRules);
-	}
-
-	/**
-	 * Tries to create a new firewall rule on the GCE cloud.
-	 * 
-	 * @param projectId Project ID where to create the new firewall rule
-	 * @param fwRule    The actual rule to create. Minimal requirements: - name -
-	 *                  network - direction - at least one allowed or one denied
-	 *                  rule
-	 * @return True on success, false on any error
-	 */
-	public boolean createFirewallRule(String projectId, Firewall fwRule) {
-		return computeApi.createFirewallRule(projectId, fwRule);
-	}
-
-	/**
-	 * Tries to update an existing firewall rule on the GCE cloud.
-	 * 
-	 * @param projectId Project ID where to update the provided firewall rule
-	 * @param fwRule    The actual rule to update. Must have the name attribute set
-	 *                  --> used as identifier to know which rule to update. Cannot
-	 *                  update/modify the associated network nor direction!
-	 * @return True on success, false on any error
-	 */
-	public boolean updateFirewallRule(String projectId, Firewall fwRule) {
-		return computeApi.updateFirewallRule(projectId, fwRule);
-	}
-
-	/**
-	 * Tries to delete an existing firewall rule from the GCE cloud.
-	 * 
-	 * @param projectId  Project ID where to delete the firewall rule from
-	 * @param fwRuleName The firewall rule name is used to identify the firewall
-	 *                   rule to delete
-	 * @return True on success, false on any error
-	 */
-	public boolean deleteFirewallRule(String projectId, String fwRuleName) {
-		return computeApi.deleteFirewallRule(projectId, fwRuleName);
-	}
-
-	/**
-	 * Tries to set the network tags for a given instance on the GCE cloud. This
-	 * will overwrite any existing tags on that instance. If an empty list of tags
-	 * is provided, any existing tags on the given instance will be removed.
-	 * 
-	 * @param projectId    Project ID where to find the instance to modify
-	 * @param zone         Zone which contains the instance to modify
-	 * @param instanceName Name of the instance to modify
-	 * @param tags         List of tags to set for the instance
-	 * @return True on success, false on any error
-	 */
-	public boolean setInstanceTags(String projectId, String zone, String instanceName, ArrayList<String> tags) {
-		return computeApi.setInstanceTags(projectId, zone, instanceName, tags);
-	}
-
-	public Long getMaxQueryResults() {
-		return computeApi.getMaxQueryResults();
-	}
-
-	public void setMaxQueryResults(Long maxQueryResults) {
-		computeApi.setMaxQueryResults(maxQueryResults);
-	}
-
-	public int getTimeoutForFwOperations() {
-		return computeApi.getTimeoutForFwOperations();
-	}
-
-	public void setTimeoutForFwOperations(int timeoutForFwOperations) {
-		computeApi.setTimeoutForFwOperations(timeoutForFwOperations);
-	}
-}
+package com.extremenetworks.hcm.gcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.cloudbilling.model.ProjectBillingInfo;
+import com.google.api.services.compute.model.Firewall;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Network;
+import com.google.api.services.compute.model.Region;
+import com.google.api.services.compute.model.Subnetwork;
+import com.google.api.services.compute.model.Zone;
+import com.google.cloud.monitoring.v3.MetricServiceClient.ListTimeSeriesPagedResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class GoogleComputeEngineManager {
+
+	private static final Logger logger = LogManager.getLogger(GoogleComputeEngineManager.class);
+
+	ObjectMapper jsonMapper = new ObjectMapper();
+
+	private GoogleComputeEngineApi computeApi;
+
+	public enum AreRulesEqualResult {
+		EQUAL, NOT_EQUAL_NAME, NOT_EQUAL_NETWORK, NOT_EQUAL_DIRECTION, NOT_EQUAL_ALLOWED_FILTERS,
+		NOT_EQUAL_DENIED_FILTERS, NOT_EQUAL_SOURCE_RANGES, NOT_EQUAL_DESTINATON_RANGES, NOT_EQUAL_NULL, NOT_EQUAL_ERROR,
+		NOT_EQUAL_PRIORITY, NOT_EQUAL_DISABLED, NOT_EQUAL_SOURCE_TAGS, NOT_EQUAL_TARGET_TAGS, NOT_EQUAL_DESCRIPTION
+	}
+
+	/**
+	 * @param clientRegistry    Shared cache of the API clients per project, see
+	 *                          ServiceContext
+	 * @param operationWatcher  Shared watcher for pending GCE operations, see
+	 *                          ServiceContext
+	 * @param operationThrottle Shared limit of concurrent GCE operations per
+	 *                          project, see ServiceContext
+	 */
+	public GoogleComputeEngineManager(GoogleClientRegistry clientRegistry, OperationWatcher operationWatcher,
+			OperationThrottle operationThrottle) {
+
+		computeApi = new GoogleComputeEngineApi(clientRegistry, operationWatcher, operationThrottle);
+	}
+
+	public boolean createComputeConnection(String projectId, String authFileContent) {
+		return computeApi.createComputeConnection(projectId, authFileContent);
+	}
+
+	public List<Zone> retrieveAllZones(String projectId) {
+		return computeApi.retrieveAllZones(projectId);
+	}
+
+	public List<Region> retrieveAllRegions(String projectId) {
+		return computeApi.retrieveAllRegions(projectId);
+	}
+
+	public List<Network> retrieveAllNetworks(String projectId) {
+		return computeApi.retrieveAllNetworks(projectId);
+	}
+
+	public List<Instance> retrieveInstancesForZone(String projectId, String zoneName) {
+		return computeApi.retrieveInstancesForZone(projectId, zoneName);
+	}
+
+	public List<Subnetwork> retrieveSubnetworksForRegion(String projectId, String regionName) {
+		return computeApi.retrieveSubnetworksForRegion(projectId, regionName);
+	}
+
+	/**
+	 * Retrieves the instances of all zones with a single (paginated) aggregated
+	 * list call instead of one list call per zone.
+	 * 
+	 * @param projectId The project ID to connect to
+	 * @return The list of all instances or null on any error
+	 */
+	public List<Instance> retrieveAllInstances(String projectId) {
+		return computeApi.retrieveAllInstances(projectId);
+	}
+
+	/**
+	 * Retrieves the subnetworks of all regions with a single (paginated)
+	 * aggregated list call instead of one list call per region.
+	 * 
+	 * @param projectId The project ID to connect to
+	 * @return The list of all subnetworks or null on any error
+	 */
+	public List<Subnetwork> retrieveAllSubnetworks(String projectId) {
+		return computeApi.retrieveAllSubnetworks(projectId);
+	}
+
+	/**
+	 * Lazy, page by page alternatives to the retrieve* methods above. Only one
+	 * page of resources is held in memory at a time. Callers must check
+	 * isFailed() on the returned pager once they finished iterating.
+	 * 
+	 * @return The pager or null if there is no connection for the given project
+	 */
+	public ComputePager<Zone> streamZones(String projectId) {
+		return computeApi.streamZones(projectId);
+	}
+
+	public ComputePager<Region> streamRegions(String projectId) {
+		return computeApi.streamRegions(projectId);
+	}
+
+	public ComputePager<Network> streamNetworks(String projectId) {
+		return computeApi.streamNetworks(projectId);
+	}
+
+	public ComputePager<Instance> streamInstancesForZone(String projectId, String zoneName) {
+		return computeApi.streamInstancesForZone(projectId, zoneName);
+	}
+
+	public ComputePager<Subnetwork> streamSubnetworksForRegion(String projectId, String regionName) {
+		return computeApi.streamSubnetworksForRegion(projectId, regionName);
+	}
+
+	public ComputePager<Instance> streamAllInstances(String projectId) {
+		return computeApi.streamAllInstances(projectId);
+	}
+
+	public ComputePager<Subnetwork> streamAllSubnetworks(String projectId) {
+		return computeApi.streamAllSubnetworks(projectId);
+	}
+
+	public ComputePager<Firewall> streamFirewalls(String projectId, String vpcName, boolean onlyRetrieveManagedRules) {
+		return computeApi.streamFirewalls(projectId, vpcName, onlyRetrieveManagedRules);
+	}
+
+	public ProjectBillingInfo retrieveBillingInfo(String projectId) {
+		return computeApi.retrieveBillingInfo(projectId);
+	}
+
+	public ListTimeSeriesPagedResponse retrieveMetrics(String projectId) {
+		return computeApi.retrieveMetrics(projectId);
+	}
+
+	/**
+	 * Retrieves a list of firewalls from GCE.
+	 * 
+	 * @param projectId                The project ID to connect to
+	 * @param vpcName                  The name of the VPC network to filter for.
+	 *                                 The name must be given as it appears on the
+	 *                                 UI. For example, to filter for a network with
+	 *                                 ID
+	 *                                 "https://www.googleapis.com/compute/v1/projects/snappy-bucksaw-168120/global/networks/datalab-network"
+	 *                                 you specify "datalab-network" (only the last
+	 *                                 part after the last slash). If no vpcName is
+	 *                                 provided, all firewalls will be retrieved.
+	 * @param onlyRetrieveManagedRules If set to true: will add an additional filter
+	 *                                 to the query to only retrieve firewall rules
+	 *                                 that contain the 'ExtremePolicyId=' tag
+	 *                                 within the rule's description --> managed
+	 *                                 rules. If set to false: will retrieve all
+	 *                                 rules (managed or not)
+	 * @return
+	 */
+	public List<Firewall> retrieveFirewalls(String projectId, String vpcName, boolean onlyRetrieveManagedRules) {
+		return computeApi.retrieveFirewalls(projectId, vpcName, onlyRetrieveManagedRules);
+	}
+
+	/**
+	 * Tries to create a new firewall rule on the GCE cloud.
+	 * 
+	 * @param projectId Project ID where to create the new firewall rule
+	 * @param fwRule    The actual rule to create. Minimal requirements: - name -
+	 *                  network - direction - at least one allowed or one denied
+	 *                  rule
+	 * @return True on success, false on any error
+	 */
+	public boolean createFirewallRule(String projectId, Firewall fwRule) {
+		return computeApi.createFirewallRule(projectId, fwRule);
+	}
+
+	/**
+	 * Requests the creation of a new firewall rule on the GCE cloud without
+	 * waiting for the operation to finish.
+	 * 
+	 * @param projectId Project ID where to create the new firewall rule
+	 * @param fwRule    The actual rule to create. Minimal requirements: - name -
+	 *                  network - direction - at least one allowed or one denied
+	 *                  rule
+	 * @return Future that completes with the final result of the operation. Never
+	 *         completes exceptionally
+	 */
+	public CompletableFuture<OperationResult> createFirewallRuleAsync(String projectId, Firewall fwRule) {
+		return computeApi.createFirewallRuleAsync(projectId, fwRule);
+	}
+
+	/**
+	 * Tries to update an existing firewall rule on the GCE cloud.
+	 * 
+	 * @param projectId Project ID where to update the provided firewall rule
+	 * @param fwRule    The actual rule to update. Must have the name attribute set
+	 *                  --> used as identifier to know which rule to update. Cannot
+	 *                  update/modify the associated network nor direction!
+	 * @return True on success, false on any error
+	 */
+	public boolean updateFirewallRule(String projectId, Firewall fwRule) {
+		return computeApi.updateFirewallRule(projectId, fwRule);
+	}
+
+	/**
+	 * Requests the update of an existing firewall rule on the GCE cloud without
+	 * waiting for the operation to finish.
+	 * 
+	 * @param projectId Project ID where to update the provided firewall rule
+	 * @param fwRule    The actual rule to update. Must have the name attribute set
+	 *                  --> used as identifier to know which rule to update. Cannot
+	 *                  update/modify the associated network nor direction!
+	 * @return Future that completes with the final result of the operation. Never
+	 *         completes exceptionally
+	 */
+	public CompletableFuture<OperationResult> updateFirewallRuleAsync(String projectId, Firewall fwRule) {
+		return computeApi.updateFirewallRuleAsync(projectId, fwRule);
+	}
+
+	/**
+	 * Requests changing the given attributes of an existing firewall rule on the
+	 * GCE cloud without waiting for the operation to finish. Attributes that are
+	 * not set in the given rule are kept.
+	 * 
+	 * @param projectId Project ID where to patch the provided firewall rule
+	 * @param fwRule    The attributes to change. Must have the name attribute set
+	 *                  --> used as identifier to know which rule to patch
+	 * @return Future that completes with the final result of the operation. Never
+	 *         completes exceptionally
+	 */
+	public CompletableFuture<OperationResult> patchFirewallRuleAsync(String projectId, Firewall fwRule) {
+		return computeApi.patchFirewallRuleAsync(projectId, fwRule);
+	}
+
+	/**
+	 * Tries to delete an existing firewall rule from the GCE cloud.
+	 * 
+	 * @param projectId  Project ID where to delete the firewall rule from
+	 * @param fwRuleName The firewall rule name is used to identify the firewall
+	 *                   rule to delete
+	 * @return True on success, false on any error
+	 */
+	public boolean deleteFirewallRule(String projectId, String fwRuleName) {
+		return computeApi.deleteFirewallRule(projectId, fwRuleName);
+	}
+
+	/**
+	 * Requests the deletion of an existing firewall rule from the GCE cloud
+	 * without waiting for the operation to finish.
+	 * 
+	 * @param projectId  Project ID where to delete the firewall rule from
+	 * @param fwRuleName The firewall rule name is used to identify the firewall
+	 *                   rule to delete
+	 * @return Future that completes with the final result of the operation. Never
+	 *         completes exceptionally
+	 */
+	public CompletableFuture<OperationResult> deleteFirewallRuleAsync(String projectId, String fwRuleName) {
+		return computeApi.deleteFirewallRuleAsync(projectId, fwRuleName);
+	}
+
+	/**
+	 * Applies a batch of firewall rule changes to the given project and waits for
+	 * all of them to finish. The changes are applied concurrently, up to the
+	 * per-project limit of concurrent operations.
+	 * 
+	 * @param projectId Project ID where to apply the changes
+	 * @param mutations Inserts, patches and deletes. Must not contain more than
+	 *                  one mutation per rule
+	 * @return One result per mutation, in the order of the given list
+	 */
+	public List<FirewallMutationResult> applyFirewallMutations(String projectId, List<FirewallMutation> mutations) {
+		return computeApi.applyFirewallMutationsAsync(projectId, mutations).join();
+	}
+
+	/**
+	 * Applies a batch of firewall rule changes to the given project without
+	 * waiting for them to finish.
+	 * 
+	 * @param projectId Project ID where to apply the changes
+	 * @param mutations Inserts, patches and deletes. Must not contain more than
+	 *                  one mutation per rule
+	 * @return Future that completes with one result per mutation, in the order of
+	 *         the given list. Never completes exceptionally
+	 */
+	public CompletableFuture<List<FirewallMutationResult>> applyFirewallMutationsAsync(String projectId,
+			List<FirewallMutation> mutations) {
+		return computeApi.applyFirewallMutationsAsync(projectId, mutations);
+	}
+
+	/**
+	 * Compares two firewall rules by the attributes GCE takes into account.
+	 * 
+	 * @return EQUAL or the first attribute found to be different
+	 */
+	public AreRulesEqualResult areRulesEqual(Firewall desiredRule, Firewall currentRule) {
+		return FirewallReconciler.compareRules(desiredRule, currentRule);
+	}
+
+	/**
+	 * Makes the managed firewall rules of a project (rules with an
+	 * "ExtremePolicyId='...'" tag in their description) equal to the given set of
+	 * rules. Retrieves the current rules once and only creates, patches or deletes
+	 * the rules that differ.
+	 * 
+	 * @param projectId    Project ID whose managed rules to reconcile
+	 * @param vpcName      Only reconcile the managed rules of this VPC network. If
+	 *                     null or empty, the rules of all networks are reconciled
+	 * @param desiredRules All managed rules that should exist, each with a unique
+	 *                     policy id
+	 * @return Summary of the differences found and changes applied
+	 */
+	public FirewallReconciler.Result reconcileFirewallRules(String projectId, String vpcName,
+			List<Firewall> desiredRules) {
+		return new FirewallReconciler(this).reconcile(projectId, vpcName, desiredRules);
+	}
+
+	/**
+	 * Tries to set the network tags for a given instance on the GCE cloud. This
+	 * will overwrite any existing tags on that instance. If an empty list of tags
+	 * is provided, any existing tags on the given instance will be removed.
+	 * 
+	 * @param projectId    Project ID where to find the instance to modify
+	 * @param zone         Zone which contains the instance to modify
+	 * @param instanceName Name of the instance to modify
+	 * @param tags         List of tags to set for the instance
+	 * @return True on success, false on any error
+	 */
+	public boolean setInstanceTags(String projectId, String zone, String instanceName, ArrayList<String> tags) {
+		return computeApi.setInstanceTags(projectId, zone, instanceName, tags);
+	}
+
+	/**
+	 * Requests setting the network tags for a given instance on the GCE cloud
+	 * without waiting for the operation to finish. This will overwrite any
+	 * existing tags on that instance.
+	 * 
+	 * @param projectId    Project ID where to find the instance to modify
+	 * @param zone         Zone which contains the instance to modify
+	 * @param instanceName Name of the instance to modify
+	 * @param tags         List of tags to set for the instance
+	 * @return Future that completes with the final result of the operation. Never
+	 *         completes exceptionally
+	 */
+	public CompletableFuture<OperationResult> setInstanceTagsAsync(String projectId, String zone,
+			String instanceName, List<String> tags) {
+		return computeApi.setInstanceTagsAsync(projectId, zone, instanceName, tags);
+	}
+
+	/**
+	 * Applies a batch of tag changes to the instances of the given project. All
+	 * changes for the same instance are merged into a single write, the writes run
+	 * concurrently (limited per project) and writes rejected due to concurrent tag changes are
+	 * retried with the latest fingerprints.
+	 * 
+	 * @param projectId Project ID where to find the instances to modify
+	 * @param changes   Tags to add, remove or replace per instance
+	 * @return One result per instance, null if the current tags could not be
+	 *         retrieved
+	 */
+	public List<InstanceTagResult> applyInstanceTagChanges(String projectId, List<InstanceTagChange> changes) {
+		return computeApi.applyInstanceTagChanges(projectId, changes);
+	}
+
+	public Long getMaxQueryResults() {
+		return computeApi.getMaxQueryResults();
+	}
+
+	public void setMaxQueryResults(Long maxQueryResults) {
+		computeApi.setMaxQueryResults(maxQueryResults);
+	}
+
+	/**
+	 * Enables requesting the next page of every list call in the background while
+	 * the current page is being processed.
+	 * 
+	 * @param prefetchExecutor Dedicated executor for the page requests. Null to
+	 *                         disable prefetching
+	 * @param prefetchDepth    Max nr. of pages requested ahead of the page being
+	 *                         processed
+	 */
+	public void setPrefetch(Executor prefetchExecutor, int prefetchDepth) {
+		computeApi.setPrefetch(prefetchExecutor, prefetchDepth);
+	}
+
+	public ComputeFieldMasks getFieldMasks() {
+		return computeApi.getFieldMasks();
+	}
+
+	public void setFieldMasks(ComputeFieldMasks fieldMasks) {
+		computeApi.setFieldMasks(fieldMasks);
+	}
+
+	public int getTimeoutForFwOperations() {
+		return computeApi.getTimeoutForFwOperations();
+	}
+
+	public void setTimeoutForFwOperations(int timeoutForFwOperations) {
+		computeApi.setTimeoutForFwOperations(timeoutForFwOperations);
+	}
+}
@@ -0,0 +1,139 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A pending change to the network tags of a single instance, to be applied
+ * together with other changes via
+ * GoogleComputeEngineManager.applyInstanceTagChanges().
+ *
+ * Several changes for the same instance are merged in the order they were given
+ * and written at once.
+ */
+public class InstanceTagChange {
+
+	public enum Type {
+		// Add the tags, keep all others
+		ADD,
+		// Remove the tags, keep all others
+		REMOVE,
+		// Replace all current tags with the given ones
+		REPLACE
+	}
+
+	private final Type type;
+	private final String zone;
+	private final String instanceName;
+	private final List<String> tags;
+
+	private InstanceTagChange(Type type, String zone, String instanceName, Collection<String> tags) {
+		this.type = type;
+		this.zone = zone;
+		this.instanceName = instanceName;
+		this.tags = tags != null ? new ArrayList<String>(tags) : new ArrayList<String>();
+	}
+
+	public static InstanceTagChange add(String zone, String instanceName, Collection<String> tags) {
+		return new InstanceTagChange(Type.ADD, zone, instanceName, tags);
+	}
+
+	public static InstanceTagChange remove(String zone, String instanceName, Collection<String> tags) {
+		return new InstanceTagChange(Type.REMOVE, zone, instanceName, tags);
+	}
+
+	public static InstanceTagChange replace(String zone, String instanceName, Collection<String> tags) {
+		return new InstanceTagChange(Type.REPLACE, zone, instanceName, tags);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getZone() {
+		return zone;
+	}
+
+	public String getInstanceName() {
+		return instanceName;
+	}
+
+	public List<String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public String toString() {
+		return "InstanceTagChange [type=" + type + ", zone=" + zone + ", instanceName=" + instanceName + ", tags="
+				+ tags + "]";
+	}
+
+	/**
+	 * All changes for one instance, merged into a single write. Kept as deltas so
+	 * they can be applied again to the latest tags after a fingerprint conflict.
+	 */
+	static class Merged {
+
+		private final String zone;
+		private final String instanceName;
+
+		// Null unless one of the changes replaced all tags
+		private Set<String> replacement = null;
+		private final Set<String> tagsToAdd = new LinkedHashSet<String>();
+		private final Set<String> tagsToRemove = new LinkedHashSet<String>();
+
+		Merged(String zone, String instanceName) {
+			this.zone = zone;
+			this.instanceName = instanceName;
+		}
+
+		void merge(InstanceTagChange change) {
+
+			switch (change.getType()) {
+			case REPLACE:
+				replacement = new LinkedHashSet<String>(change.getTags());
+				tagsToAdd.clear();
+				tagsToRemove.clear();
+				break;
+			case ADD:
+				tagsToAdd.addAll(change.getTags());
+				tagsToRemove.removeAll(change.getTags());
+				break;
+			case REMOVE:
+				tagsToRemove.addAll(change.getTags());
+				tagsToAdd.removeAll(change.getTags());
+				break;
+			}
+		}
+
+		/**
+		 * @param currentTags The instance's current tags, null if it has none
+		 * @return The tags the instance should have after applying all changes
+		 */
+		List<String> applyTo(List<String> currentTags) {
+
+			Set<String> newTags = new LinkedHashSet<String>();
+			if (replacement != null) {
+				newTags.addAll(replacement);
+			} else if (currentTags != null) {
+				newTags.addAll(currentTags);
+			}
+
+			newTags.addAll(tagsToAdd);
+			newTags.removeAll(tagsToRemove);
+
+			return new ArrayList<String>(newTags);
+		}
+
+		String getZone() {
+			return zone;
+		}
+
+		String getInstanceName() {
+			return instanceName;
+		}
+	}
+}
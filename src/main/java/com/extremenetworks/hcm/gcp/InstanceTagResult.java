@@ -0,0 +1,62 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.List;
+
+/**
+ * Outcome of the merged tag changes for one instance of a batch.
+ */
+public class InstanceTagResult {
+
+	private final String zone;
+	private final String instanceName;
+	private final List<String> tags;
+	private final OperationResult operationResult;
+	private final int nrOfAttempts;
+
+	public InstanceTagResult(String zone, String instanceName, List<String> tags, OperationResult operationResult,
+			int nrOfAttempts) {
+		this.zone = zone;
+		this.instanceName = instanceName;
+		this.tags = tags;
+		this.operationResult = operationResult;
+		this.nrOfAttempts = nrOfAttempts;
+	}
+
+	public boolean isSuccess() {
+		return operationResult.isSuccess();
+	}
+
+	public String getZone() {
+		return zone;
+	}
+
+	public String getInstanceName() {
+		return instanceName;
+	}
+
+	/**
+	 * @return The tags written in the last attempt, null if the instance could not
+	 *         be found
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	public OperationResult getOperationResult() {
+		return operationResult;
+	}
+
+	/**
+	 * @return Nr. of writes tried. More than one after fingerprint conflicts, 0 if
+	 *         the instance already had the requested tags
+	 */
+	public int getNrOfAttempts() {
+		return nrOfAttempts;
+	}
+
+	@Override
+	public String toString() {
+		return "InstanceTagResult [zone=" + zone + ", instanceName=" + instanceName + ", tags=" + tags
+				+ ", operationResult=" + operationResult + ", nrOfAttempts=" + nrOfAttempts + "]";
+	}
+}
@@ -1,49 +1,158 @@
-package com.extremenetworks.hcm.gcp;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-import org.eclipse.jetty.servlet.ServletHolder;
-import org.glassfish.jersey.servlet.ServletContainer;
-
-public class Main {
-
-    private static final Logger logger = LogManager.getLogger(Main.class);
-
-    // Rabbit MQ config
-    public static final String RABBIT_SERVER = "rabbit-mq";
-    public static final String RABBIT_QUEUE_POSTFIX_RESOURCES = ".gcp.data.resources";
-    public static final String RABBIT_QUEUE_POSTFIX_BILLING = ".gcp.data.billing";
-
-    // GCP Datastore config
-    public static final String DS_ENTITY_KIND_DATA_RESOURCES = "Gcp_Data_Resources";
-    public static final String DS_ENTITY_KIND_DATA_BILLING = "Gcp_Data_Billing";
-    public static final String DS_ENTITY_KIND_CONFIG_ACCOUNT = "Gcp_Config_Account";
-    public static final String SRC_SYS_TYPE = "gcp";
-
-    public static void main(String[] args) {
-
-        Server server = new Server(80);
-
-        ServletContextHandler ctx = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
-
-        ctx.setContextPath("/");
-        server.setHandler(ctx);
-
-        ServletHolder serHol = ctx.addServlet(ServletContainer.class, "/gcp/*");
-        serHol.setInitOrder(1);
-        serHol.setInitParameter("jersey.config.server.provider.packages", "com.extremenetworks.hcm.gcp");
-
-        try {
-            server.start();
-            server.join();
-        } catch (Exception ex) {
-            logger.error(ex);
-        } finally {
-
-            server.destroy();
-        }
-    }
-
-}
+package com.extremenetworks.hcm.gcp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+public class Main {
+
+    private static final Logger logger = LogManager.getLogger(Main.class);
+
+    // Rabbit MQ config
+    public static final String RABBIT_SERVER = "rabbit-mq";
+    public static final String RABBIT_QUEUE_POSTFIX_RESOURCES = ".gcp.data.resources";
+    public static final String RABBIT_QUEUE_POSTFIX_BILLING = ".gcp.data.billing";
+    public static final int RABBIT_CHANNEL_POOL_SIZE = 8;
+
+    // GCP Datastore config
+    public static final String DS_ENTITY_KIND_DATA_RESOURCES = "Gcp_Data_Resources";
+    public static final String DS_ENTITY_KIND_DATA_RESOURCES_CHUNK = "Gcp_Data_Resources_Chunk";
+    public static final String DS_ENTITY_KIND_DATA_RESOURCE = "Gcp_Data_Resource";
+    public static final String DS_ENTITY_KIND_DATA_RESOURCE_HASHES = "Gcp_Data_Resource_Hashes";
+    public static final String DS_ENTITY_KIND_DATA_BILLING = "Gcp_Data_Billing";
+    public static final String DS_ENTITY_KIND_CONFIG_ACCOUNT = "Gcp_Config_Account";
+    public static final String SRC_SYS_TYPE = "gcp";
+
+    // Codec the resource and billing data is stored with: "gzip" (compressed
+    // blobs) or "none" (plain JSON strings). Data stored with either codec is
+    // read regardless of this setting
+    public static final String DS_DATA_CODEC = "gzip";
+
+    // Resource data of a resource type larger than this (in characters, or bytes
+    // once compressed) is split into chunk entities of at most this size.
+    // Datastore entities are limited to ~1 MB - with up to 3 bytes per character
+    // in UTF-8, chunks of 256k characters always fit. Larger chunks mean fewer
+    // entities per import
+    public static final int DS_RESOURCE_DATA_CHUNK_SIZE = 256 * 1024;
+
+    // Additionally store every single resource (VM, firewall, etc.) as its own
+    // entity with indexed zone, region, network, status and tag properties, which
+    // /resources/query looks up and filters. Imports only write the resources that
+    // have changed. Off by default: each resource entity is an entity group of its
+    // own, so an import writing more than a few resources exceeds the 25 groups of
+    // a transaction - its commit is then made with non-transactional calls and
+    // readers may see a mix of old and new data while it runs
+    public static final boolean DS_RESOURCE_ENTITIES_ENABLED = false;
+
+    // Background workers config: max nr. of workers running in parallel and max
+    // nr. of triggered workers waiting for a free thread
+    public static final int WORKER_POOL_SIZE = 16;
+    public static final int WORKER_QUEUE_CAPACITY = 256;
+    public static final int SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    // Max nr. of GCP API calls (zones, instances per zone, subnets per region, etc.)
+    // running in parallel across all background workers
+    public static final int DISCOVERY_POOL_SIZE = 32;
+
+    // Paged GCP list calls request up to this many pages ahead of the page that is
+    // currently being processed, using their own pool of threads
+    public static final int PREFETCH_POOL_SIZE = 16;
+    public static final int PREFETCH_DEPTH = 2;
+
+    // Shared HTTP connection pool for all GCP REST API clients and the time after
+    // which unused per-project API clients are closed
+    public static final int HTTP_MAX_CONNECTIONS = 64;
+    public static final int HTTP_CONNECTION_TTL_SECONDS = 300;
+    public static final int CLIENT_IDLE_TIMEOUT_MINUTES = 30;
+
+    // Account configs read from Datastore are cached for this long
+    public static final int ACCOUNT_CONFIG_CACHE_SIZE = 1000;
+    public static final int ACCOUNT_CONFIG_CACHE_TTL_SECONDS = 300;
+
+    // The accounts' resource data served by /resources/all is cached in memory up
+    // to these (estimated) sizes, in total and per tenant
+    public static final long RESOURCE_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    public static final long RESOURCE_CACHE_MAX_BYTES_PER_TENANT = 64L * 1024 * 1024;
+    public static final int RESOURCE_CACHE_TTL_SECONDS = 3600;
+
+    // Nr. of background update jobs (running and finished) kept for /jobs/{id}
+    public static final int JOB_HISTORY_SIZE = 1000;
+
+    // Pending GCE operations (firewall rules, instance tags) are polled by a few
+    // shared threads, starting with a short interval that grows with every poll
+    public static final int OPERATION_WATCHER_POOL_SIZE = 4;
+    public static final long OPERATION_POLL_INITIAL_DELAY_MILLIS = 250;
+    public static final long OPERATION_POLL_MAX_DELAY_MILLIS = 5000;
+    public static final double OPERATION_POLL_DELAY_MULTIPLIER = 1.5;
+
+    // Batches of GCE operations (e.g. firewall rule changes) are started by a few
+    // shared threads, with at most this many operations in flight per project
+    public static final int OPERATION_POOL_SIZE = 8;
+    public static final int MAX_OPERATIONS_PER_PROJECT = 20;
+
+    // Requests per second and project for each Compute API quota category. GCE's
+    // default quotas are 2000 read/list/operation read and 1200 write requests
+    // per 100 seconds
+    public static final double COMPUTE_READ_REQUESTS_PER_SECOND = 20;
+    public static final double COMPUTE_LIST_REQUESTS_PER_SECOND = 20;
+    public static final double COMPUTE_OPERATION_READ_REQUESTS_PER_SECOND = 20;
+    public static final double COMPUTE_WRITE_REQUESTS_PER_SECOND = 12;
+
+    // Retries of GCP REST API requests on rate limit, server and I/O errors
+    public static final int RETRY_INITIAL_INTERVAL_MILLIS = 500;
+    public static final int RETRY_MAX_INTERVAL_MILLIS = 16000;
+    public static final int RETRY_MAX_ELAPSED_MILLIS = 60000;
+
+    public static void main(String[] args) {
+
+        Server server = new Server(80);
+
+        ServletContextHandler ctx = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+
+        ctx.setContextPath("/");
+        server.setHandler(ctx);
+
+        // Shared Rabbit MQ connection, worker threads and Datastore client - made
+        // available to all Jersey resources via injection
+        final ServiceContext serviceContext = new ServiceContext();
+
+        ResourceConfig resourceConfig = new ResourceConfig().packages("com.extremenetworks.hcm.gcp")
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(serviceContext).to(ServiceContext.class);
+                    }
+                });
+
+        ServletHolder serHol = new ServletHolder(new ServletContainer(resourceConfig));
+        serHol.setInitOrder(1);
+        ctx.addServlet(serHol, "/gcp/*");
+
+        // Release the shared resources once Jetty has stopped (incl. on SIGTERM)
+        server.setStopAtShutdown(true);
+        server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStopped(LifeCycle event) {
+                serviceContext.close();
+            }
+        });
+
+        try {
+            server.start();
+            server.join();
+        } catch (Exception ex) {
+            logger.error(ex);
+        } finally {
+
+            server.destroy();
+        }
+    }
+
+}
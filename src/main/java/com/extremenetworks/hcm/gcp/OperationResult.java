@@ -0,0 +1,110 @@
+package com.extremenetworks.hcm.gcp;
+
+import com.google.api.services.compute.model.Operation;
+
+/**
+ * Final outcome of a GCE operation (firewall insert/update/delete, setting
+ * instance tags, etc.) as reported by the OperationWatcher.
+ */
+public class OperationResult {
+
+	public enum Status {
+		// The operation finished without errors
+		DONE,
+		// The operation finished but GCE reported errors
+		FAILED,
+		// The operation didn't finish within the configured timeout
+		TIMEOUT,
+		// The operation could not be started or its status could not be retrieved
+		ERROR,
+		// The operation was rejected since the resource had been changed in the
+		// meantime (fingerprint mismatch)
+		CONFLICT
+	}
+
+	private final Status status;
+	private final String operationName;
+	private final Operation operation;
+	private final String errorMessage;
+	private final long durationMillis;
+
+	private OperationResult(Status status, String operationName, Operation operation, String errorMessage,
+			long durationMillis) {
+
+		this.status = status;
+		this.operationName = operationName;
+		this.operation = operation;
+		this.errorMessage = errorMessage;
+		this.durationMillis = durationMillis;
+	}
+
+	public static OperationResult done(Operation operation, long durationMillis) {
+		return new OperationResult(Status.DONE, operation.getName(), operation, null, durationMillis);
+	}
+
+	public static OperationResult failed(Operation operation, String errorMessage, long durationMillis) {
+		return new OperationResult(Status.FAILED, operation.getName(), operation, errorMessage, durationMillis);
+	}
+
+	public static OperationResult timeout(String operationName, long durationMillis) {
+		return new OperationResult(Status.TIMEOUT, operationName, null, "Operation didn't finish in time",
+				durationMillis);
+	}
+
+	public static OperationResult error(String operationName, String errorMessage) {
+		return new OperationResult(Status.ERROR, operationName, null, errorMessage, 0);
+	}
+
+	public static OperationResult conflict(String errorMessage) {
+		return new OperationResult(Status.CONFLICT, null, null, errorMessage, 0);
+	}
+
+	/**
+	 * @return Successful result for a change that didn't need to be applied since
+	 *         the resource was already in the requested state
+	 */
+	public static OperationResult notRequired() {
+		return new OperationResult(Status.DONE, null, null, null, 0);
+	}
+
+	public boolean isSuccess() {
+		return status == Status.DONE;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The name of the GCE operation or null if the operation could not be
+	 *         started
+	 */
+	public String getOperationName() {
+		return operationName;
+	}
+
+	/**
+	 * @return The last known state of the operation or null if it is not known
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return Time from starting to watch the operation until its final state was
+	 *         known
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "OperationResult [status=" + status + ", operationName=" + operationName + ", errorMessage="
+				+ errorMessage + ", durationMillis=" + durationMillis + "]";
+	}
+}
@@ -0,0 +1,188 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Starts GCE operations (firewall inserts, patches, deletes, etc.) on a few
+ * shared threads while limiting the nr. of operations that are in flight per
+ * project at the same time. An operation counts as in flight from the request
+ * that starts it until its final state is known.
+ *
+ * Operations beyond the limit are queued per project and started as soon as
+ * one of the project's pending operations has finished, so a large batch for
+ * one project doesn't block the threads for the other projects.
+ */
+public class OperationThrottle {
+
+	private static final Logger logger = LogManager.getLogger(OperationThrottle.class);
+
+	private final ThreadPoolExecutor executor;
+	private final int maxOperationsPerProject;
+
+	private final Map<String, ProjectLane> lanes = new ConcurrentHashMap<String, ProjectLane>();
+
+	public OperationThrottle(int nrOfThreads, int maxOperationsPerProject) {
+
+		this.maxOperationsPerProject = maxOperationsPerProject;
+
+		executor = new ThreadPoolExecutor(nrOfThreads, nrOfThreads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ServiceContext.NamedThreadFactory("hcm-operation"));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues an operation for the given project.
+	 *
+	 * @param projectId Project the operation modifies
+	 * @param operation Starts the operation and returns the future of its final
+	 *                  result, e.g. createFirewallRuleAsync()
+	 * @return Future that completes with the final result. It never completes
+	 *         exceptionally
+	 */
+	public CompletableFuture<OperationResult> submit(String projectId,
+			Supplier<CompletableFuture<OperationResult>> operation) {
+
+		ProjectLane lane = lanes.computeIfAbsent(projectId, id -> new ProjectLane());
+
+		// Started on one of the shared threads, but still part of the caller's import
+		QueuedOperation queuedOperation = new QueuedOperation(ApiTelemetry.withCurrentRun(operation));
+		lane.add(queuedOperation);
+
+		return queuedOperation.result;
+	}
+
+	/**
+	 * @return Nr. of operations waiting for a free slot of their project
+	 */
+	public int getNrOfQueuedOperations() {
+
+		int nrOfQueuedOperations = 0;
+		for (ProjectLane lane : lanes.values()) {
+			nrOfQueuedOperations += lane.getNrOfQueuedOperations();
+		}
+		return nrOfQueuedOperations;
+	}
+
+	/**
+	 * @return Nr. of operations that have been started and are not done yet
+	 */
+	public int getNrOfOperationsInFlight() {
+
+		int nrOfOperationsInFlight = 0;
+		for (ProjectLane lane : lanes.values()) {
+			nrOfOperationsInFlight += lane.getNrOfOperationsInFlight();
+		}
+		return nrOfOperationsInFlight;
+	}
+
+	/**
+	 * Stops starting new operations. Queued operations are completed with an
+	 * error result.
+	 */
+	public void close() {
+
+		executor.shutdownNow();
+
+		for (ProjectLane lane : lanes.values()) {
+			lane.cancelQueued();
+		}
+	}
+
+	private static class QueuedOperation {
+
+		private final Supplier<CompletableFuture<OperationResult>> starter;
+		private final CompletableFuture<OperationResult> result = new CompletableFuture<OperationResult>();
+
+		QueuedOperation(Supplier<CompletableFuture<OperationResult>> starter) {
+			this.starter = starter;
+		}
+	}
+
+	private class ProjectLane {
+
+		private final Queue<QueuedOperation> queue = new ArrayDeque<QueuedOperation>();
+		private int nrOfOperationsInFlight = 0;
+
+		synchronized void add(QueuedOperation queuedOperation) {
+
+			queue.add(queuedOperation);
+			startNext();
+		}
+
+		synchronized void finished() {
+
+			nrOfOperationsInFlight--;
+			startNext();
+		}
+
+		synchronized int getNrOfQueuedOperations() {
+			return queue.size();
+		}
+
+		synchronized int getNrOfOperationsInFlight() {
+			return nrOfOperationsInFlight;
+		}
+
+		synchronized void cancelQueued() {
+
+			QueuedOperation queuedOperation;
+			while ((queuedOperation = queue.poll()) != null) {
+				queuedOperation.result.complete(OperationResult.error(null, "Service is shutting down"));
+			}
+		}
+
+		/* Callers must hold the lock of this lane */
+		private void startNext() {
+
+			while (nrOfOperationsInFlight < maxOperationsPerProject && !queue.isEmpty()) {
+
+				QueuedOperation queuedOperation = queue.poll();
+				nrOfOperationsInFlight++;
+
+				try {
+					executor.execute(() -> start(queuedOperation));
+
+				} catch (RejectedExecutionException ex) {
+					nrOfOperationsInFlight--;
+					queuedOperation.result.complete(OperationResult.error(null, "Service is shutting down"));
+				}
+			}
+		}
+
+		private void start(QueuedOperation queuedOperation) {
+
+			CompletableFuture<OperationResult> operationResult;
+
+			try {
+				operationResult = queuedOperation.starter.get();
+
+			} catch (Exception ex) {
+				logger.error("Error while trying to start an operation", ex);
+				operationResult = CompletableFuture.completedFuture(OperationResult.error(null, ex.getMessage()));
+			}
+
+			operationResult.whenComplete((result, ex) -> {
+
+				finished();
+
+				if (ex != null) {
+					queuedOperation.result.complete(OperationResult.error(null, ex.getMessage()));
+				} else {
+					queuedOperation.result.complete(result);
+				}
+			});
+		}
+	}
+}
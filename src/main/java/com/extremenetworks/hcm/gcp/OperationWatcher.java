@@ -0,0 +1,205 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.services.compute.model.Operation;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches pending GCE operations until they are done, failed or timed out and
+ * completes a future with the final OperationResult. All operations of the
+ * service share the few threads of this watcher instead of each blocking a
+ * thread in a sleep loop.
+ *
+ * The compute API revision in use doesn't offer the operations "wait" call, so
+ * each operation is polled with its "get" call. The poll interval starts short,
+ * since most firewall and tag operations finish within a few hundred
+ * milliseconds, and grows with every poll up to a maximum.
+ */
+public class OperationWatcher {
+
+	private static final Logger logger = LogManager.getLogger(OperationWatcher.class);
+
+	/**
+	 * Retrieves the current state of an operation, e.g. via
+	 * globalOperations().get() or zoneOperations().get().
+	 */
+	public interface OperationPoller {
+
+		/**
+		 * @return The current state of the operation or null if it could not be
+		 *         retrieved
+		 */
+		Operation poll(String operationName) throws Exception;
+	}
+
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final long initialPollDelayMillis;
+	private final long maxPollDelayMillis;
+	private final double pollDelayMultiplier;
+
+	// Operations being watched, until their future has been completed
+	private final Set<PendingOperation> pendingOperations = ConcurrentHashMap.newKeySet();
+
+	public OperationWatcher(int nrOfThreads, long initialPollDelayMillis, long maxPollDelayMillis,
+			double pollDelayMultiplier) {
+
+		this.initialPollDelayMillis = initialPollDelayMillis;
+		this.maxPollDelayMillis = maxPollDelayMillis;
+		this.pollDelayMultiplier = pollDelayMultiplier;
+
+		scheduler = new ScheduledThreadPoolExecutor(nrOfThreads,
+				new ServiceContext.NamedThreadFactory("hcm-operation-watcher"));
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Starts watching the given operation.
+	 *
+	 * @param description      What the operation does - for logging only
+	 * @param operation        The operation as returned by the call that started it
+	 * @param poller           Retrieves the current state of the operation
+	 * @param timeoutInSeconds Max time to wait for the operation to finish
+	 * @return Future that completes with the final result. It never completes
+	 *         exceptionally
+	 */
+	public CompletableFuture<OperationResult> watch(String description, Operation operation, OperationPoller poller,
+			int timeoutInSeconds) {
+
+		PendingOperation pendingOperation = new PendingOperation(description, operation.getName(), poller,
+				System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutInSeconds));
+
+		pendingOperations.add(pendingOperation);
+		pendingOperation.result.whenComplete((result, ex) -> pendingOperations.remove(pendingOperation));
+
+		// Operations sometimes are already done by the time the initial call returns
+		if (!pendingOperation.evaluate(operation)) {
+			pendingOperation.scheduleNextPoll();
+		}
+
+		return pendingOperation.result;
+	}
+
+	/**
+	 * @return Nr. of operations that are currently being watched
+	 */
+	public int getNrOfPendingOperations() {
+		return pendingOperations.size();
+	}
+
+	/**
+	 * Stops watching. Futures of operations that are still pending are completed
+	 * with an error result.
+	 */
+	public void close() {
+
+		// The scheduler only knows its own wrappers of the polls, not the operations
+		for (PendingOperation pendingOperation : pendingOperations) {
+			pendingOperation.completeWithError("Service is shutting down");
+		}
+		scheduler.shutdownNow();
+	}
+
+	private class PendingOperation implements Runnable {
+
+		private final String description;
+		private final String operationName;
+		private final OperationPoller poller;
+		private final long deadline;
+		private final long startedAt = System.currentTimeMillis();
+
+		private final CompletableFuture<OperationResult> result = new CompletableFuture<OperationResult>();
+		private long pollDelayMillis = initialPollDelayMillis;
+
+		PendingOperation(String description, String operationName, OperationPoller poller, long deadline) {
+			this.description = description;
+			this.operationName = operationName;
+			this.poller = poller;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				Operation operation = poller.poll(operationName);
+				if (operation == null) {
+					completeWithError("Request for the current status of the operation returned null");
+					return;
+				}
+
+				if (!evaluate(operation)) {
+					scheduleNextPoll();
+				}
+
+			} catch (Exception ex) {
+				logger.error("Error while requesting the current status of the operation to " + description, ex);
+				completeWithError("Error while requesting the current status of the operation: " + ex.getMessage());
+			}
+		}
+
+		/**
+		 * Completes the result future if the given operation has reached a final
+		 * state.
+		 *
+		 * @return True if the operation has reached a final state
+		 */
+		boolean evaluate(Operation operation) {
+
+			if (!"DONE".equals(operation.getStatus())) {
+				return false;
+			}
+
+			long duration = System.currentTimeMillis() - startedAt;
+
+			if (operation.getError() != null && operation.getError().getErrors() != null
+					&& !operation.getError().getErrors().isEmpty()) {
+
+				StringBuilder errorMessage = new StringBuilder();
+				for (Operation.Error.Errors error : operation.getError().getErrors()) {
+					if (errorMessage.length() > 0) {
+						errorMessage.append("; ");
+					}
+					errorMessage.append(error.getCode()).append(": ").append(error.getMessage());
+				}
+
+				result.complete(OperationResult.failed(operation, errorMessage.toString(), duration));
+
+			} else {
+				result.complete(OperationResult.done(operation, duration));
+			}
+
+			return true;
+		}
+
+		void scheduleNextPoll() {
+
+			long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				result.complete(OperationResult.timeout(operationName, now - startedAt));
+				return;
+			}
+
+			long delay = Math.min(pollDelayMillis, deadline - now);
+			pollDelayMillis = Math.min((long) (pollDelayMillis * pollDelayMultiplier), maxPollDelayMillis);
+
+			try {
+				// The polls count towards the import that started the operation
+				scheduler.schedule(ApiTelemetry.withCurrentRun(this), delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ex) {
+				completeWithError("Service is shutting down");
+			}
+		}
+
+		void completeWithError(String errorMessage) {
+			result.complete(OperationResult.error(operationName, errorMessage));
+		}
+	}
+}
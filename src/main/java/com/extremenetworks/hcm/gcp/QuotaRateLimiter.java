@@ -0,0 +1,169 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Token bucket rate limiter for the requests to the Compute API, with one bucket
+ * per project and quota category. GCE enforces separate per-project quotas for
+ * read, list, operation read and write requests, so a burst of list calls
+ * during an import doesn't slow down the operation polling of a firewall
+ * update and vice versa.
+ *
+ * Callers block until their request fits into the quota. Buckets are emptied
+ * whenever GCE reports the quota as exceeded anyway, e.g. because other clients
+ * use the same project.
+ */
+public class QuotaRateLimiter {
+
+	private static final Logger logger = LogManager.getLogger(QuotaRateLimiter.class);
+
+	public enum QuotaCategory {
+		// GET of a single resource
+		READ,
+		// GET of a collection: list and aggregatedList calls
+		LIST,
+		// GET of a global, regional or zonal operation
+		OPERATION_READ,
+		// Any POST, PUT, PATCH or DELETE
+		WRITE
+	}
+
+	private final Map<QuotaCategory, Double> requestsPerSecond;
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+	/**
+	 * @param requestsPerSecond Allowed requests per second and project for each
+	 *                          quota category. Categories without a rate are not
+	 *                          limited
+	 */
+	public QuotaRateLimiter(Map<QuotaCategory, Double> requestsPerSecond) {
+		this.requestsPerSecond = requestsPerSecond;
+	}
+
+	/**
+	 * Blocks until one more request of the given category may be sent for the
+	 * given project.
+	 */
+	public void acquire(String projectId, QuotaCategory category) throws InterruptedException {
+
+		TokenBucket bucket = getBucket(projectId, category);
+		if (bucket == null) {
+			return;
+		}
+
+		long waitNanos = bucket.reserve();
+		if (waitNanos > 0) {
+			logger.trace("Delaying " + category + " request for project " + projectId + " by "
+					+ TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Called when GCE rejected a request since the quota was exceeded - the next
+	 * requests of this category have to wait for new tokens.
+	 */
+	public void onQuotaExceeded(String projectId, QuotaCategory category) {
+
+		TokenBucket bucket = getBucket(projectId, category);
+		if (bucket != null) {
+			logger.debug(category + " quota exceeded for project " + projectId);
+			bucket.drain();
+		}
+	}
+
+	/**
+	 * Derives the quota category of a Compute API request from its HTTP method and
+	 * URL path, e.g. "/compute/v1/projects/p1/zones/z1/instances" is a list
+	 * request, "/compute/v1/projects/p1/zones/z1/instances/vm1" a read request.
+	 */
+	public static QuotaCategory categorize(String requestMethod, String path) {
+
+		if (!"GET".equalsIgnoreCase(requestMethod)) {
+			return QuotaCategory.WRITE;
+		}
+
+		String[] segments = path != null ? path.split("/") : new String[0];
+
+		int start = 0;
+		while (start < segments.length && !segments[start].equals("projects")) {
+			start++;
+		}
+
+		int nrOfSegments = 0;
+		for (int i = start; i < segments.length; i++) {
+
+			if (segments[i].equals("operations")) {
+				return QuotaCategory.OPERATION_READ;
+			}
+			// Scopes without their own id
+			if (!segments[i].isEmpty() && !segments[i].equals("global") && !segments[i].equals("aggregated")) {
+				nrOfSegments++;
+			}
+		}
+
+		// Collections and their resources alternate: "projects/p1/zones/z1/instances"
+		// ends with a collection, "projects/p1/zones/z1/instances/vm1" with a
+		// resource
+		return nrOfSegments % 2 == 1 ? QuotaCategory.LIST : QuotaCategory.READ;
+	}
+
+	private TokenBucket getBucket(String projectId, QuotaCategory category) {
+
+		Double rate = requestsPerSecond.get(category);
+		if (rate == null || rate <= 0) {
+			return null;
+		}
+
+		return buckets.computeIfAbsent(projectId + "/" + category, key -> new TokenBucket(rate));
+	}
+
+	/**
+	 * Refills at the configured rate up to one second worth of requests.
+	 * Reservations may take the bucket below zero - the caller then waits until
+	 * the tokens it took have been refilled.
+	 */
+	private static class TokenBucket {
+
+		private final double tokensPerNano;
+		private final double capacity;
+
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+
+		TokenBucket(double tokensPerSecond) {
+			this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = Math.max(1, tokensPerSecond);
+			this.tokens = capacity;
+		}
+
+		/**
+		 * @return Nanoseconds the caller has to wait before sending its request
+		 */
+		synchronized long reserve() {
+
+			refill();
+			tokens -= 1;
+
+			return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+		}
+
+		synchronized void drain() {
+
+			refill();
+			tokens = Math.min(tokens, 0);
+		}
+
+		private void refill() {
+
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+		}
+	}
+}
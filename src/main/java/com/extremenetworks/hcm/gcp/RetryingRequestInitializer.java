@@ -0,0 +1,227 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import com.extremenetworks.hcm.gcp.QuotaRateLimiter.QuotaCategory;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.BackOffUtils;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.Sleeper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sets up every request of a GCP REST API client to
+ * <ul>
+ * <li>be authorized by the wrapped initializer (e.g. the credentials
+ * adapter)</li>
+ * <li>wait for the project's Compute quota before it is sent, if a rate limiter
+ * is configured</li>
+ * <li>be retried with exponential backoff and jitter on rate limit errors (429
+ * or 403 rateLimitExceeded), server errors (500, 502, 503, 504) and I/O
+ * errors</li>
+ * </ul>
+ * Each retry waits for the quota again, so retries don't add to a burst.
+ *
+ * Server errors are only retried for requests that can safely be sent twice:
+ * reads and Compute mutations, which get a "requestId" so GCE ignores a repeated
+ * request instead of e.g. creating a firewall rule twice.
+ */
+public class RetryingRequestInitializer implements HttpRequestInitializer {
+
+	private static final Logger logger = LogManager.getLogger(RetryingRequestInitializer.class);
+
+	private static final String REQUEST_ID = "requestId";
+
+	private final HttpRequestInitializer delegate;
+	private final QuotaRateLimiter rateLimiter;
+	private final String projectId;
+
+	/**
+	 * @param delegate    Initializer that authorizes the requests
+	 * @param rateLimiter Shared rate limiter or null to not limit the requests
+	 * @param projectId   Project the requests are sent for
+	 */
+	public RetryingRequestInitializer(HttpRequestInitializer delegate, QuotaRateLimiter rateLimiter,
+			String projectId) {
+		this.delegate = delegate;
+		this.rateLimiter = rateLimiter;
+		this.projectId = projectId;
+	}
+
+	@Override
+	public void initialize(HttpRequest request) throws IOException {
+
+		delegate.initialize(request);
+
+		// The request method and URL are set after the initializer has run - the
+		// interceptor and handler below read them when the request is sent
+		BackOff backOff = new ExponentialBackOff.Builder()
+				.setInitialIntervalMillis(Main.RETRY_INITIAL_INTERVAL_MILLIS)
+				.setMaxIntervalMillis(Main.RETRY_MAX_INTERVAL_MILLIS)
+				.setMaxElapsedTimeMillis(Main.RETRY_MAX_ELAPSED_MILLIS).setMultiplier(2)
+				.setRandomizationFactor(0.5).build();
+
+		HttpExecuteInterceptor authInterceptor = request.getInterceptor();
+		request.setInterceptor(new QuotaInterceptor(authInterceptor));
+
+		HttpUnsuccessfulResponseHandler authHandler = request.getUnsuccessfulResponseHandler();
+		request.setUnsuccessfulResponseHandler(new RetryHandler(authHandler, backOff));
+
+		request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(backOff));
+	}
+
+	private static boolean isRead(HttpRequest request) {
+		return HttpMethods.GET.equals(request.getRequestMethod())
+				|| HttpMethods.HEAD.equals(request.getRequestMethod());
+	}
+
+	private static QuotaCategory categorize(HttpRequest request) {
+		return QuotaRateLimiter.categorize(request.getRequestMethod(), request.getUrl().getRawPath());
+	}
+
+	private class QuotaInterceptor implements HttpExecuteInterceptor {
+
+		private final HttpExecuteInterceptor authInterceptor;
+
+		QuotaInterceptor(HttpExecuteInterceptor authInterceptor) {
+			this.authInterceptor = authInterceptor;
+		}
+
+		@Override
+		public void intercept(HttpRequest request) throws IOException {
+
+			if (authInterceptor != null) {
+				authInterceptor.intercept(request);
+			}
+
+			// Set on the first attempt, the retries send the same id
+			if (!isRead(request) && request.getUrl().getRawPath().contains("/compute/")
+					&& request.getUrl().get(REQUEST_ID) == null) {
+				request.getUrl().set(REQUEST_ID, UUID.randomUUID().toString());
+			}
+
+			if (rateLimiter != null) {
+				try {
+					rateLimiter.acquire(projectId, categorize(request));
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the request quota of project " + projectId);
+				}
+			}
+		}
+	}
+
+	private class RetryHandler implements HttpUnsuccessfulResponseHandler {
+
+		private final HttpUnsuccessfulResponseHandler authHandler;
+		private final BackOff backOff;
+
+		RetryHandler(HttpUnsuccessfulResponseHandler authHandler, BackOff backOff) {
+			this.authHandler = authHandler;
+			this.backOff = backOff;
+		}
+
+		@Override
+		public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+				throws IOException {
+
+			// E.g. refreshes an expired access token on 401
+			if (authHandler != null && authHandler.handleResponse(request, response, supportsRetry)) {
+				return true;
+			}
+
+			if (!supportsRetry) {
+				return false;
+			}
+
+			int statusCode = response.getStatusCode();
+			boolean rateLimited = statusCode == 429;
+
+			// 403 is also returned for missing permissions, which must not be retried.
+			// Rate limit errors are told apart by the reason in the error details,
+			// which can only be read once
+			String errorContent = null;
+			if (statusCode == 403) {
+				errorContent = readContent(response);
+				rateLimited = errorContent != null && (errorContent.contains("rateLimitExceeded")
+						|| errorContent.contains("userRateLimitExceeded"));
+			}
+
+			boolean serverError = statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+
+			if (!rateLimited && !(serverError && (isRead(request) || request.getUrl().get(REQUEST_ID) != null))) {
+				return giveUp(response, errorContent);
+			}
+
+			if (rateLimited && rateLimiter != null) {
+				rateLimiter.onQuotaExceeded(projectId, categorize(request));
+			}
+
+			try {
+				if (BackOffUtils.next(Sleeper.DEFAULT, backOff)) {
+					logger.debug("Retrying " + request.getRequestMethod() + " " + request.getUrl().getRawPath()
+							+ " for project " + projectId + " after HTTP " + statusCode);
+					return true;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+
+			logger.warn("Giving up on " + request.getRequestMethod() + " " + request.getUrl().getRawPath()
+					+ " for project " + projectId + " after HTTP " + statusCode);
+			return giveUp(response, errorContent);
+		}
+
+		private String readContent(HttpResponse response) {
+
+			try {
+				return response.parseAsString();
+			} catch (Exception ex) {
+				return null;
+			}
+		}
+
+		/**
+		 * Lets the request fail. If the error content has been read already, the
+		 * client can't parse it from the response anymore - it is thrown with the
+		 * exception the client would have thrown instead.
+		 */
+		private boolean giveUp(HttpResponse response, String errorContent) throws IOException {
+
+			if (errorContent == null) {
+				return false;
+			}
+
+			GoogleJsonError details = null;
+			try {
+				details = JacksonFactory.getDefaultInstance().fromString(errorContent, GoogleJsonErrorContainer.class)
+						.getError();
+			} catch (Exception ex) {
+				// Not a JSON error - the content is part of the message
+			}
+
+			StringBuilder message = HttpResponseException.computeMessageBuffer(response);
+			message.append(System.lineSeparator()).append(details != null ? details.toPrettyString() : errorContent);
+
+			throw new GoogleJsonResponseException(new HttpResponseException.Builder(response.getStatusCode(),
+					response.getStatusMessage(), response.getHeaders()).setMessage(message.toString())
+							.setContent(errorContent),
+					details);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.extremenetworks.hcm.gcp.jobs.JobRegistry;
+import com.extremenetworks.hcm.gcp.utils.AccountConfigCache;
+import com.extremenetworks.hcm.gcp.utils.InstrumentedDatastore;
+import com.extremenetworks.hcm.gcp.utils.RabbitChannelPool;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache;
+import com.extremenetworks.hcm.gcp.utils.ServiceMetrics;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreOptions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Connections, thread pools and caches shared by all REST resources and their
+ * background workers. Created once by Main, injected into the Jersey resources
+ * and closed when the Jetty server stops.
+ */
+public class ServiceContext {
+
+	private static final Logger logger = LogManager.getLogger(ServiceContext.class);
+
+	private final ServiceMetrics serviceMetrics;
+	private final RabbitChannelPool rabbitChannels;
+	private final ThreadPoolExecutor workerExecutor;
+	private final ThreadPoolExecutor discoveryExecutor;
+	private final ThreadPoolExecutor prefetchExecutor;
+	private final Datastore datastore;
+	private final GoogleClientRegistry clientRegistry;
+	private final AccountConfigCache accountConfigCache;
+	private final ResourceSnapshotCache resourceSnapshotCache;
+	private final OperationWatcher operationWatcher;
+	private final OperationThrottle operationThrottle;
+	private final JobRegistry jobRegistry;
+	private final UpdateCoalescer updateCoalescer;
+
+	public ServiceContext() {
+
+		// Latency and payload sizes of the REST requests, Rabbit MQ and Datastore
+		// calls
+		serviceMetrics = new ServiceMetrics();
+
+		rabbitChannels = new RabbitChannelPool(Main.RABBIT_SERVER, Main.RABBIT_CHANNEL_POOL_SIZE, serviceMetrics);
+
+		// For long running background threads that pull data from customers' GCP
+		// accounts
+		workerExecutor = new ThreadPoolExecutor(Main.WORKER_POOL_SIZE, Main.WORKER_POOL_SIZE, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Main.WORKER_QUEUE_CAPACITY), new NamedThreadFactory("hcm-worker"));
+		workerExecutor.allowCoreThreadTimeOut(true);
+
+		// At most one running (and one queued) background worker per account and
+		// data type, each tracked as a job
+		jobRegistry = new JobRegistry(Main.JOB_HISTORY_SIZE);
+		updateCoalescer = new UpdateCoalescer(workerExecutor, jobRegistry);
+
+		// For the individual GCP API calls (per zone, per region, etc.) the
+		// background workers fan out to. Callers wait for these tasks, so they queue
+		// up instead of being rejected
+		discoveryExecutor = new ThreadPoolExecutor(Main.DISCOVERY_POOL_SIZE, Main.DISCOVERY_POOL_SIZE, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("hcm-discovery"));
+		discoveryExecutor.allowCoreThreadTimeOut(true);
+
+		// For requesting the next page of paged GCP list calls in the background.
+		// Separate from the discovery executor since discovery tasks wait for these
+		// page requests
+		prefetchExecutor = new ThreadPoolExecutor(Main.PREFETCH_POOL_SIZE, Main.PREFETCH_POOL_SIZE, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("hcm-prefetch"));
+		prefetchExecutor.allowCoreThreadTimeOut(true);
+
+		// Extreme Networks' GCP datastore
+		datastore = InstrumentedDatastore.wrap(DatastoreOptions.getDefaultInstance().getService(), serviceMetrics);
+
+		// Customers' GCP API clients, reused across imports
+		clientRegistry = new GoogleClientRegistry();
+
+		// Customers' account configs, read from the Datastore
+		accountConfigCache = new AccountConfigCache(Main.ACCOUNT_CONFIG_CACHE_SIZE,
+				TimeUnit.SECONDS.toMillis(Main.ACCOUNT_CONFIG_CACHE_TTL_SECONDS));
+
+		// Customers' resource data, read from and written to the Datastore
+		resourceSnapshotCache = new ResourceSnapshotCache(Main.RESOURCE_CACHE_MAX_BYTES,
+				Main.RESOURCE_CACHE_MAX_BYTES_PER_TENANT, TimeUnit.SECONDS.toMillis(Main.RESOURCE_CACHE_TTL_SECONDS));
+
+		// Pending firewall and instance tag operations on the customers' projects
+		operationWatcher = new OperationWatcher(Main.OPERATION_WATCHER_POOL_SIZE,
+				Main.OPERATION_POLL_INITIAL_DELAY_MILLIS, Main.OPERATION_POLL_MAX_DELAY_MILLIS,
+				Main.OPERATION_POLL_DELAY_MULTIPLIER);
+
+		// Batches of firewall rule changes, limited per customer project
+		operationThrottle = new OperationThrottle(Main.OPERATION_POOL_SIZE, Main.MAX_OPERATIONS_PER_PROJECT);
+	}
+
+	public ServiceMetrics getServiceMetrics() {
+		return serviceMetrics;
+	}
+
+	public RabbitChannelPool getRabbitChannels() {
+		return rabbitChannels;
+	}
+
+	public ThreadPoolExecutor getWorkerExecutor() {
+		return workerExecutor;
+	}
+
+	public JobRegistry getJobRegistry() {
+		return jobRegistry;
+	}
+
+	public UpdateCoalescer getUpdateCoalescer() {
+		return updateCoalescer;
+	}
+
+	public ThreadPoolExecutor getDiscoveryExecutor() {
+		return discoveryExecutor;
+	}
+
+	public ThreadPoolExecutor getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	public Datastore getDatastore() {
+		return datastore;
+	}
+
+	public GoogleClientRegistry getClientRegistry() {
+		return clientRegistry;
+	}
+
+	public AccountConfigCache getAccountConfigCache() {
+		return accountConfigCache;
+	}
+
+	public ResourceSnapshotCache getResourceSnapshotCache() {
+		return resourceSnapshotCache;
+	}
+
+	public OperationWatcher getOperationWatcher() {
+		return operationWatcher;
+	}
+
+	public OperationThrottle getOperationThrottle() {
+		return operationThrottle;
+	}
+
+	/**
+	 * Stops accepting new background workers, gives the running ones some time to
+	 * finish and closes the Rabbit MQ connection and GCP API clients afterwards.
+	 */
+	public void close() {
+
+		logger.info("Shutting down shared service resources");
+
+		workerExecutor.shutdown();
+
+		try {
+			if (!workerExecutor.awaitTermination(Main.SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warn("Background workers didn't finish within " + Main.SHUTDOWN_TIMEOUT_SECONDS
+						+ " seconds - interrupting them");
+				workerExecutor.shutdownNow();
+			}
+		} catch (InterruptedException ex) {
+			workerExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		discoveryExecutor.shutdownNow();
+		prefetchExecutor.shutdownNow();
+		operationThrottle.close();
+		operationWatcher.close();
+		clientRegistry.close();
+		rabbitChannels.close();
+	}
+
+	/**
+	 * Creates daemon threads named "[prefix]-[nr]" so the threads of the shared
+	 * pools are easy to spot in thread dumps and log output.
+	 */
+	public static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger threadNr = new AtomicInteger(1);
+
+		public NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, prefix + "-" + threadNr.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
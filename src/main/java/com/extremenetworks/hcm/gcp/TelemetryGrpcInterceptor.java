@@ -0,0 +1,74 @@
+package com.extremenetworks.hcm.gcp;
+
+import com.google.protobuf.MessageLite;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Records every call of a gRPC based GCP API client (Monitoring) in the
+ * ApiTelemetry: method, project, gRPC status, latency, nr. of response messages
+ * (pages) and their size. Calls count towards the ApiTelemetry run of the thread
+ * that started them.
+ */
+public class TelemetryGrpcInterceptor implements ClientInterceptor {
+
+	private final ApiTelemetry telemetry;
+	private final String projectId;
+
+	public TelemetryGrpcInterceptor(ApiTelemetry telemetry, String projectId) {
+		this.telemetry = telemetry;
+		this.projectId = projectId;
+	}
+
+	@Override
+	public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+			CallOptions callOptions, Channel next) {
+
+		// E.g. "google.monitoring.v3.MetricService/ListTimeSeries"
+		String methodName = "grpc." + method.getFullMethodName();
+
+		// The call is closed on one of the gRPC threads
+		ApiTelemetry.Run run = ApiTelemetry.getCurrentRun();
+
+		return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+
+			@Override
+			public void start(Listener<RespT> responseListener, Metadata headers) {
+
+				long startedAt = System.currentTimeMillis();
+
+				super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+
+					private int nrOfMessages = 0;
+					private long responseBytes = 0;
+
+					@Override
+					public void onMessage(RespT message) {
+
+						nrOfMessages++;
+						if (message instanceof MessageLite) {
+							responseBytes += ((MessageLite) message).getSerializedSize();
+						}
+						super.onMessage(message);
+					}
+
+					@Override
+					public void onClose(Status status, Metadata trailers) {
+
+						telemetry.record(methodName, projectId, null, status.getCode().name(), status.isOk(),
+								System.currentTimeMillis() - startedAt, nrOfMessages, responseBytes, run);
+						super.onClose(status, trailers);
+					}
+				}, headers);
+			}
+		};
+	}
+}
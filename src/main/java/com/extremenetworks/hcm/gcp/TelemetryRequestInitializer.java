@@ -0,0 +1,189 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+
+/**
+ * Records every attempt of a GCP REST API request (Compute, Cloudbilling) in the
+ * ApiTelemetry: method, project, zone/region, HTTP status and latency. The
+ * latency is measured from sending the request - after waiting for the quota -
+ * until the response headers arrived. Calls count towards the ApiTelemetry run
+ * of the thread that built the request.
+ */
+public class TelemetryRequestInitializer implements HttpRequestInitializer {
+
+	private final HttpRequestInitializer delegate;
+	private final ApiTelemetry telemetry;
+	private final String projectId;
+
+	/**
+	 * @param delegate  Initializer that authorizes, rate limits and retries the
+	 *                  requests
+	 * @param telemetry Shared telemetry
+	 * @param projectId Project the requests are sent for
+	 */
+	public TelemetryRequestInitializer(HttpRequestInitializer delegate, ApiTelemetry telemetry, String projectId) {
+		this.delegate = delegate;
+		this.telemetry = telemetry;
+		this.projectId = projectId;
+	}
+
+	@Override
+	public void initialize(HttpRequest request) throws IOException {
+
+		delegate.initialize(request);
+
+		CallTimer timer = new CallTimer(request.getInterceptor(), request.getResponseInterceptor(),
+				ApiTelemetry.getCurrentRun());
+		request.setInterceptor(timer);
+		request.setResponseInterceptor(timer);
+	}
+
+	/**
+	 * Describes a REST request as "[api].[collection].[method]", e.g.
+	 * "compute.instances.list", "compute.instances.setTags" or
+	 * "compute.zoneOperations.get".
+	 */
+	static String describeMethod(String host, String requestMethod, List<String> pathParts) {
+
+		List<String> parts = new ArrayList<String>();
+		for (String part : pathParts != null ? pathParts : new ArrayList<String>()) {
+			if (part != null && !part.isEmpty()) {
+				parts.add(part);
+			}
+		}
+
+		// "https://compute.googleapis.com/compute/v1/..." or
+		// "https://www.googleapis.com/compute/v1/..." or
+		// "https://cloudbilling.googleapis.com/v1/..."
+		String api = null;
+		if (host != null && !host.startsWith("www.") && host.indexOf('.') > 0) {
+			api = host.substring(0, host.indexOf('.'));
+		}
+		if (!parts.isEmpty() && !parts.get(0).matches("v\\d.*")) {
+			api = parts.remove(0);
+		}
+		if (!parts.isEmpty() && parts.get(0).matches("v\\d.*")) {
+			parts.remove(0);
+		}
+
+		// Drop "projects/[id]" and the scope of the resource
+		String scopePrefix = "global";
+		if (parts.size() >= 2 && parts.get(0).equals("projects")) {
+			parts = parts.subList(2, parts.size());
+		}
+		if (!parts.isEmpty() && (parts.get(0).equals("global") || parts.get(0).equals("aggregated"))) {
+			scopePrefix = parts.get(0);
+			parts = parts.subList(1, parts.size());
+		} else if (parts.size() >= 3 && Arrays.asList("zones", "regions").contains(parts.get(0))) {
+			scopePrefix = parts.get(0).equals("zones") ? "zone" : "region";
+			parts = parts.subList(2, parts.size());
+		}
+
+		if (parts.isEmpty()) {
+			return api + "." + requestMethod.toLowerCase();
+		}
+
+		String collection = parts.get(0);
+		if (collection.equals("operations")) {
+			collection = scopePrefix + "Operations";
+		}
+
+		String method;
+		if (parts.size() == 1) {
+			if (scopePrefix.equals("aggregated")) {
+				method = "aggregatedList";
+			} else {
+				method = "GET".equals(requestMethod) ? "list" : "insert";
+			}
+		} else if (parts.size() == 2) {
+			switch (requestMethod) {
+			case "GET":
+				method = "get";
+				break;
+			case "PUT":
+				method = "update";
+				break;
+			default:
+				method = requestMethod.toLowerCase();
+			}
+		} else {
+			// Custom methods, e.g. "instances/[name]/setTags"
+			method = parts.get(parts.size() - 1);
+		}
+
+		return api + "." + collection + "." + method;
+	}
+
+	/**
+	 * @return The zone or region of the request, null for global requests
+	 */
+	static String describeScope(List<String> pathParts) {
+
+		if (pathParts == null) {
+			return null;
+		}
+		for (int i = 0; i < pathParts.size() - 1; i++) {
+			if ("zones".equals(pathParts.get(i)) || "regions".equals(pathParts.get(i))) {
+				return pathParts.get(i + 1);
+			}
+		}
+		return null;
+	}
+
+	private class CallTimer implements HttpExecuteInterceptor, HttpResponseInterceptor {
+
+		private final HttpExecuteInterceptor innerInterceptor;
+		private final HttpResponseInterceptor innerResponseInterceptor;
+		private final ApiTelemetry.Run run;
+		private long sentAt;
+
+		CallTimer(HttpExecuteInterceptor innerInterceptor, HttpResponseInterceptor innerResponseInterceptor,
+				ApiTelemetry.Run run) {
+			this.innerInterceptor = innerInterceptor;
+			this.innerResponseInterceptor = innerResponseInterceptor;
+			this.run = run;
+		}
+
+		@Override
+		public void intercept(HttpRequest request) throws IOException {
+
+			if (innerInterceptor != null) {
+				innerInterceptor.intercept(request);
+			}
+			sentAt = System.currentTimeMillis();
+		}
+
+		@Override
+		public void interceptResponse(HttpResponse response) throws IOException {
+
+			HttpRequest request = response.getRequest();
+			String method = describeMethod(request.getUrl().getHost(), request.getRequestMethod(),
+					request.getUrl().getPathParts());
+			String scope = describeScope(request.getUrl().getPathParts());
+			int status = response.getStatusCode();
+
+			// List calls return one page per call
+			int pages = (method.endsWith(".list") || method.endsWith(".aggregatedList"))
+					&& response.isSuccessStatusCode() ? 1 : 0;
+
+			telemetry.record(method, projectId, scope, String.valueOf(status), response.isSuccessStatusCode(),
+					System.currentTimeMillis() - sentAt, pages, 0, run);
+
+			// The response body is read after this interceptor on the same thread
+			telemetry.setCurrentCall(method, projectId, scope, run);
+
+			if (innerResponseInterceptor != null) {
+				innerResponseInterceptor.interceptResponse(response);
+			}
+		}
+	}
+}
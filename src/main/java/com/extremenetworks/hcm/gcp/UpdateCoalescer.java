@@ -0,0 +1,178 @@
+package com.extremenetworks.hcm.gcp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import com.extremenetworks.hcm.gcp.jobs.Job;
+import com.extremenetworks.hcm.gcp.jobs.JobRegistry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs at most one background update per tenant, account and data type at a
+ * time. A trigger for an update that is already running doesn't start another
+ * full import right away but queues a single follow-up update, which starts
+ * once the running one is done, so changes made in the meantime are picked up.
+ * Further triggers while a follow-up is queued are merged into that follow-up.
+ *
+ * Every update is tracked as a job in the job registry, so callers can follow
+ * its progress. Merged triggers share the job of the queued follow-up.
+ */
+public class UpdateCoalescer {
+
+	private static final Logger logger = LogManager.getLogger(UpdateCoalescer.class);
+
+	public enum Outcome {
+		// No update was running - the new one has been started
+		STARTED,
+		// An update is running - the new one will start once it is done
+		QUEUED,
+		// An update is running and another one is queued already - the new one
+		// replaces the queued one
+		COALESCED
+	}
+
+	private final Executor executor;
+	private final JobRegistry jobRegistry;
+
+	// Updates that are running, by "[data type]/[tenant id]/[account id]"
+	private final Map<String, InFlightUpdate> inFlightUpdates = new HashMap<String, InFlightUpdate>();
+
+	/**
+	 * @param executor    Runs the updates, e.g. the worker executor
+	 * @param jobRegistry Tracks the started and queued updates
+	 */
+	public UpdateCoalescer(Executor executor, JobRegistry jobRegistry) {
+		this.executor = executor;
+		this.jobRegistry = jobRegistry;
+	}
+
+	/**
+	 * Starts the given update unless an update of the same data is already
+	 * running.
+	 *
+	 * @param dataType  E.g. "resources" or "billing"
+	 * @param tenantId  Extreme Networks configured tenant id
+	 * @param accountId Extreme Networks configured account id
+	 * @param worker    Creates the update to run, which reports its progress to
+	 *                  the given job
+	 * @throws RejectedExecutionException If the update had to be started but the
+	 *                                    executor is full
+	 */
+	public synchronized Result trigger(String dataType, String tenantId, String accountId,
+			Function<Job, Runnable> worker) {
+
+		String key = dataType + "/" + tenantId + "/" + accountId;
+		InFlightUpdate inFlightUpdate = inFlightUpdates.get(key);
+
+		if (inFlightUpdate == null) {
+			Job job = jobRegistry.create(dataType, tenantId, accountId);
+			inFlightUpdate = new InFlightUpdate(key);
+			try {
+				start(inFlightUpdate, job, worker.apply(job));
+			} catch (RejectedExecutionException ex) {
+				job.fail("Too many background updates pending");
+				job.finished();
+				throw ex;
+			}
+			inFlightUpdates.put(key, inFlightUpdate);
+			return new Result(Outcome.STARTED, job);
+		}
+
+		Outcome outcome = inFlightUpdate.followUpJob == null ? Outcome.QUEUED : Outcome.COALESCED;
+		if (outcome == Outcome.QUEUED) {
+			inFlightUpdate.followUpJob = jobRegistry.create(dataType, tenantId, accountId);
+		}
+		inFlightUpdate.followUp = worker.apply(inFlightUpdate.followUpJob);
+
+		logger.debug("Update of " + key + " is already running - " + (outcome == Outcome.QUEUED
+				? "queued a follow-up update" : "merged into the queued follow-up update"));
+		return new Result(outcome, inFlightUpdate.followUpJob);
+	}
+
+	/**
+	 * @return Nr. of tenants, accounts and data types an update is running for
+	 */
+	public synchronized int getNrOfInFlightUpdates() {
+		return inFlightUpdates.size();
+	}
+
+	/* Callers must hold the lock of this coalescer */
+	private void start(InFlightUpdate inFlightUpdate, Job job, Runnable worker) {
+
+		executor.execute(() -> {
+			job.started();
+			try {
+				worker.run();
+			} finally {
+				job.finished();
+				finished(inFlightUpdate);
+			}
+		});
+	}
+
+	private synchronized void finished(InFlightUpdate inFlightUpdate) {
+
+		Runnable followUp = inFlightUpdate.followUp;
+		Job followUpJob = inFlightUpdate.followUpJob;
+		inFlightUpdate.followUp = null;
+		inFlightUpdate.followUpJob = null;
+
+		if (followUp == null) {
+			inFlightUpdates.remove(inFlightUpdate.key);
+			return;
+		}
+
+		try {
+			logger.debug("Starting the follow-up update of " + inFlightUpdate.key);
+			start(inFlightUpdate, followUpJob, followUp);
+
+		} catch (RejectedExecutionException ex) {
+			logger.warn("Too many background updates pending - dropping the follow-up update of "
+					+ inFlightUpdate.key);
+			followUpJob.fail("Too many background updates pending");
+			followUpJob.finished();
+			inFlightUpdates.remove(inFlightUpdate.key);
+		}
+	}
+
+	/**
+	 * What happened to a trigger and the job that tracks the update it started,
+	 * queued or was merged into.
+	 */
+	public static class Result {
+
+		private final Outcome outcome;
+		private final Job job;
+
+		Result(Outcome outcome, Job job) {
+			this.outcome = outcome;
+			this.job = job;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		public Job getJob() {
+			return job;
+		}
+	}
+
+	private static class InFlightUpdate {
+
+		private final String key;
+
+		// The update to run once the running one is done and its job
+		private Runnable followUp;
+		private Job followUpJob;
+
+		InFlightUpdate(String key) {
+			this.key = key;
+		}
+	}
+}
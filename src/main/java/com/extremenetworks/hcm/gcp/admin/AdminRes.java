@@ -0,0 +1,304 @@
+package com.extremenetworks.hcm.gcp.admin;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import com.extremenetworks.hcm.gcp.ApiTelemetry;
+import com.extremenetworks.hcm.gcp.OperationThrottle;
+import com.extremenetworks.hcm.gcp.OperationWatcher;
+import com.extremenetworks.hcm.gcp.ServiceContext;
+import com.extremenetworks.hcm.gcp.UpdateCoalescer;
+import com.extremenetworks.hcm.gcp.utils.AccountConfigCache;
+import com.extremenetworks.hcm.gcp.utils.PrometheusTextWriter;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache;
+import com.extremenetworks.hcm.gcp.utils.ServiceMetrics;
+import com.extremenetworks.hcm.gcp.utils.WebResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Maintenance functions of this service, e.g. for the services that manage the
+ * account configs, and its metrics for monitoring.
+ */
+@Path("admin")
+public class AdminRes {
+
+	private static final Logger logger = LogManager.getLogger(AdminRes.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+
+	private final AccountConfigCache accountConfigCache;
+	private final ResourceSnapshotCache resourceSnapshotCache;
+	private final ServiceMetrics serviceMetrics;
+	private final ApiTelemetry apiTelemetry;
+	private final OperationWatcher operationWatcher;
+	private final OperationThrottle operationThrottle;
+	private final UpdateCoalescer updateCoalescer;
+
+	// Shared executors by the name of their threads
+	private final Map<String, ThreadPoolExecutor> executors = new LinkedHashMap<String, ThreadPoolExecutor>();
+
+	@Inject
+	public AdminRes(ServiceContext serviceContext) {
+
+		this.accountConfigCache = serviceContext.getAccountConfigCache();
+		this.resourceSnapshotCache = serviceContext.getResourceSnapshotCache();
+		this.serviceMetrics = serviceContext.getServiceMetrics();
+		this.apiTelemetry = serviceContext.getClientRegistry().getTelemetry();
+		this.operationWatcher = serviceContext.getOperationWatcher();
+		this.operationThrottle = serviceContext.getOperationThrottle();
+		this.updateCoalescer = serviceContext.getUpdateCoalescer();
+
+		executors.put("hcm-worker", serviceContext.getWorkerExecutor());
+		executors.put("hcm-discovery", serviceContext.getDiscoveryExecutor());
+		executors.put("hcm-prefetch", serviceContext.getPrefetchExecutor());
+	}
+
+	/**
+	 * Metrics of this service in the Prometheus text format, to be scraped by
+	 * Prometheus:
+	 * <ul>
+	 * <li>Latency of the REST requests per resource method</li>
+	 * <li>Queue size and active threads of the shared executors and the nr. of
+	 * pending GCE operations</li>
+	 * <li>Latency and message sizes of the Rabbit MQ publishes</li>
+	 * <li>Latency and payload sizes of the Datastore calls</li>
+	 * <li>Size, hits, misses and evictions of the resource data cache</li>
+	 * <li>Calls, errors, response bytes and latency of the Google API calls per
+	 * API method</li>
+	 * <li>JVM heap, garbage collection and threads</li>
+	 * </ul>
+	 *
+	 * @return
+	 */
+	@GET
+	@Path("metrics")
+	@Produces(PrometheusTextWriter.CONTENT_TYPE)
+	public String metrics() {
+
+		PrometheusTextWriter writer = new PrometheusTextWriter();
+
+		try {
+			serviceMetrics.writeTo(writer);
+			writeExecutorMetrics(writer);
+			writeCacheMetrics(writer);
+			writeApiMetrics(writer);
+			writeJvmMetrics(writer);
+
+		} catch (Exception ex) {
+			// Return what has been collected so far rather than no metrics at all
+			logger.error("Error while collecting the service metrics", ex);
+		}
+
+		return writer.toString();
+	}
+
+	/**
+	 * Drops cached account configs so the next request reads them from Datastore
+	 * again. Should be called whenever an account config has been changed or
+	 * deleted.
+	 *
+	 * @param tenantId  Extreme Networks configured tenant id. If not provided, the
+	 *                  cached configs of all tenants are dropped
+	 * @param accountId Extreme Networks configured account id. If not provided,
+	 *                  the cached configs of all accounts of the given tenant are
+	 *                  dropped
+	 * @return
+	 */
+	@GET
+	@Path("invalidateAccountConfig")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String invalidateAccountConfig(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId) {
+
+		try {
+			String msg;
+
+			if (tenantId == null || tenantId.isEmpty()) {
+				accountConfigCache.invalidateAll();
+				msg = "Invalidated all cached account configs";
+
+			} else if (accountId == null || accountId.isEmpty()) {
+				accountConfigCache.invalidateTenant(tenantId);
+				msg = "Invalidated all cached account configs for tenant id " + tenantId;
+
+			} else {
+				accountConfigCache.invalidate(tenantId, accountId);
+				msg = "Invalidated cached account config for tenant id " + tenantId + " and account id " + accountId;
+			}
+
+			logger.info(msg);
+			return jsonMapper.writeValueAsString(new WebResponse(0, msg));
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(1, msg));
+				return returnValue;
+			} catch (Exception ex2) {
+				return msg;
+			}
+		}
+	}
+
+	private void writeExecutorMetrics(PrometheusTextWriter writer) {
+
+		writer.writeHeader("hcm_gcp_executor_queue_size", "gauge", "Tasks waiting for a thread of the executor");
+		for (Map.Entry<String, ThreadPoolExecutor> executor : executors.entrySet()) {
+			writer.writeSample("hcm_gcp_executor_queue_size", "executor", executor.getKey(),
+					executor.getValue().getQueue().size());
+		}
+
+		writer.writeHeader("hcm_gcp_executor_active_threads", "gauge", "Threads of the executor running a task");
+		for (Map.Entry<String, ThreadPoolExecutor> executor : executors.entrySet()) {
+			writer.writeSample("hcm_gcp_executor_active_threads", "executor", executor.getKey(),
+					executor.getValue().getActiveCount());
+		}
+
+		writer.writeHeader("hcm_gcp_executor_pool_size", "gauge", "Current nr. of threads of the executor");
+		for (Map.Entry<String, ThreadPoolExecutor> executor : executors.entrySet()) {
+			writer.writeSample("hcm_gcp_executor_pool_size", "executor", executor.getKey(),
+					executor.getValue().getPoolSize());
+		}
+
+		writer.writeHeader("hcm_gcp_executor_completed_tasks_total", "counter", "Tasks completed by the executor");
+		for (Map.Entry<String, ThreadPoolExecutor> executor : executors.entrySet()) {
+			writer.writeSample("hcm_gcp_executor_completed_tasks_total", "executor", executor.getKey(),
+					executor.getValue().getCompletedTaskCount());
+		}
+
+		writer.writeHeader("hcm_gcp_updates_in_flight", "gauge",
+				"Accounts and data types a background update is running for");
+		writer.writeSample("hcm_gcp_updates_in_flight", updateCoalescer.getNrOfInFlightUpdates());
+
+		writer.writeHeader("hcm_gcp_operations_queued", "gauge",
+				"GCE operations waiting for a free slot of their project");
+		writer.writeSample("hcm_gcp_operations_queued", operationThrottle.getNrOfQueuedOperations());
+
+		writer.writeHeader("hcm_gcp_operations_in_flight", "gauge", "GCE operations started and not done yet");
+		writer.writeSample("hcm_gcp_operations_in_flight", operationThrottle.getNrOfOperationsInFlight());
+
+		writer.writeHeader("hcm_gcp_operations_watched", "gauge", "GCE operations polled for their final state");
+		writer.writeSample("hcm_gcp_operations_watched", operationWatcher.getNrOfPendingOperations());
+
+		writer.writeHeader("hcm_gcp_account_config_cache_size", "gauge", "Account configs in the cache");
+		writer.writeSample("hcm_gcp_account_config_cache_size", accountConfigCache.size());
+	}
+
+	private void writeCacheMetrics(PrometheusTextWriter writer) {
+
+		writer.writeHeader("hcm_gcp_resource_cache_entries", "gauge", "Accounts with cached resource data");
+		writer.writeSample("hcm_gcp_resource_cache_entries", resourceSnapshotCache.size());
+
+		writer.writeHeader("hcm_gcp_resource_cache_bytes", "gauge",
+				"Estimated memory used by the cached resource data");
+		writer.writeSample("hcm_gcp_resource_cache_bytes", resourceSnapshotCache.getBytes());
+
+		writer.writeHeader("hcm_gcp_resource_cache_hits_total", "counter", "Reads served from the resource data cache");
+		writer.writeSample("hcm_gcp_resource_cache_hits_total", resourceSnapshotCache.getHits());
+
+		writer.writeHeader("hcm_gcp_resource_cache_misses_total", "counter",
+				"Reads of resource data that wasn't cached");
+		writer.writeSample("hcm_gcp_resource_cache_misses_total", resourceSnapshotCache.getMisses());
+
+		writer.writeHeader("hcm_gcp_resource_cache_evictions_total", "counter",
+				"Accounts evicted from the resource data cache to stay within its memory limits");
+		writer.writeSample("hcm_gcp_resource_cache_evictions_total", resourceSnapshotCache.getEvictions());
+	}
+
+	private void writeApiMetrics(PrometheusTextWriter writer) {
+
+		Map<String, ApiTelemetry.CallStats> statsByMethod = apiTelemetry.getStatsByMethod();
+
+		writer.writeHeader("hcm_gcp_api_calls_total", "counter", "Calls to the Google APIs per API method");
+		for (Map.Entry<String, ApiTelemetry.CallStats> stats : statsByMethod.entrySet()) {
+			writer.writeSample("hcm_gcp_api_calls_total", "api_method", stats.getKey(), stats.getValue().getCount());
+		}
+
+		writer.writeHeader("hcm_gcp_api_errors_total", "counter", "Failed calls to the Google APIs per API method");
+		for (Map.Entry<String, ApiTelemetry.CallStats> stats : statsByMethod.entrySet()) {
+			writer.writeSample("hcm_gcp_api_errors_total", "api_method", stats.getKey(), stats.getValue().getErrors());
+		}
+
+		writer.writeHeader("hcm_gcp_api_response_bytes_total", "counter",
+				"Size of the Google API responses per API method");
+		for (Map.Entry<String, ApiTelemetry.CallStats> stats : statsByMethod.entrySet()) {
+			writer.writeSample("hcm_gcp_api_response_bytes_total", "api_method", stats.getKey(),
+					stats.getValue().getResponseBytes());
+		}
+
+		String histogram = "hcm_gcp_api_call_duration_seconds";
+		String[] labelNames = { "api_method" };
+		writer.writeHeader(histogram, "histogram", "Latency of the calls to the Google APIs per API method");
+
+		for (Map.Entry<String, ApiTelemetry.CallStats> stats : statsByMethod.entrySet()) {
+
+			String[] labelValues = { stats.getKey() };
+			long[] buckets = stats.getValue().getLatencyBuckets();
+
+			long cumulativeCount = 0;
+			for (int i = 0; i < ApiTelemetry.LATENCY_BUCKETS_MILLIS.length; i++) {
+				cumulativeCount += buckets[i];
+				writer.writeSample(histogram + "_bucket", labelNames, labelValues, "le",
+						PrometheusTextWriter.formatValue(ApiTelemetry.LATENCY_BUCKETS_MILLIS[i] / 1000.0),
+						cumulativeCount);
+			}
+			cumulativeCount += buckets[ApiTelemetry.LATENCY_BUCKETS_MILLIS.length];
+			writer.writeSample(histogram + "_bucket", labelNames, labelValues, "le", "+Inf", cumulativeCount);
+
+			writer.writeSample(histogram + "_sum", labelNames, labelValues,
+					stats.getValue().getLatencySumMillis() / 1000.0);
+			writer.writeSample(histogram + "_count", labelNames, labelValues, cumulativeCount);
+		}
+	}
+
+	private void writeJvmMetrics(PrometheusTextWriter writer) {
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		MemoryUsage heap = memory.getHeapMemoryUsage();
+		MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+
+		writer.writeHeader("jvm_memory_bytes_used", "gauge", "Used bytes of the given JVM memory area");
+		writer.writeSample("jvm_memory_bytes_used", "area", "heap", heap.getUsed());
+		writer.writeSample("jvm_memory_bytes_used", "area", "nonheap", nonHeap.getUsed());
+
+		writer.writeHeader("jvm_memory_bytes_committed", "gauge", "Committed bytes of the given JVM memory area");
+		writer.writeSample("jvm_memory_bytes_committed", "area", "heap", heap.getCommitted());
+		writer.writeSample("jvm_memory_bytes_committed", "area", "nonheap", nonHeap.getCommitted());
+
+		writer.writeHeader("jvm_memory_bytes_max", "gauge", "Max bytes of the given JVM memory area");
+		writer.writeSample("jvm_memory_bytes_max", "area", "heap", heap.getMax());
+		writer.writeSample("jvm_memory_bytes_max", "area", "nonheap", nonHeap.getMax());
+
+		writer.writeHeader("jvm_gc_collection_seconds_count", "counter", "Nr. of collections of the garbage collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			writer.writeSample("jvm_gc_collection_seconds_count", "gc", gc.getName(), gc.getCollectionCount());
+		}
+
+		writer.writeHeader("jvm_gc_collection_seconds_sum", "counter", "Time spent in the garbage collector");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			writer.writeSample("jvm_gc_collection_seconds_sum", "gc", gc.getName(), gc.getCollectionTime() / 1000.0);
+		}
+
+		writer.writeHeader("jvm_threads_current", "gauge", "Current nr. of JVM threads");
+		writer.writeSample("jvm_threads_current", ManagementFactory.getThreadMXBean().getThreadCount());
+
+		writer.writeHeader("process_uptime_seconds", "gauge", "Time since the JVM has been started");
+		writer.writeSample("process_uptime_seconds", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+	}
+}
@@ -0,0 +1,73 @@
+package com.extremenetworks.hcm.gcp.admin;
+
+import java.lang.reflect.Method;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import com.extremenetworks.hcm.gcp.ServiceContext;
+import com.extremenetworks.hcm.gcp.utils.ServiceMetrics;
+
+/**
+ * Records the latency of every REST request in the service metrics, labeled
+ * with the resource method that served it, e.g. "ResourcesRes.getAll". The
+ * time is taken before the request is matched to a resource, so unknown paths
+ * are recorded as well.
+ *
+ * Responses that are streamed to the client are recorded once the response
+ * headers are written - the time to stream the body isn't included.
+ */
+@Provider
+@PreMatching
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+	private static final String START_TIME_PROPERTY = RequestMetricsFilter.class.getName() + ".startTime";
+
+	private final ServiceMetrics serviceMetrics;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Inject
+	public RequestMetricsFilter(ServiceContext serviceContext) {
+		this.serviceMetrics = serviceContext.getServiceMetrics();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		requestContext.setProperty(START_TIME_PROPERTY, System.nanoTime());
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+
+		Object startTime = requestContext.getProperty(START_TIME_PROPERTY);
+		if (!(startTime instanceof Long)) {
+			return;
+		}
+
+		serviceMetrics.observeHttpRequest(getResourceName(), requestContext.getMethod(), responseContext.getStatus(),
+				System.nanoTime() - (Long) startTime);
+	}
+
+	/**
+	 * @return "[resource class].[method]" or "unmatched" for requests that no
+	 *         resource method was found for, e.g. 404s. The request path isn't used
+	 *         since it contains IDs
+	 */
+	private String getResourceName() {
+
+		Method method = resourceInfo != null ? resourceInfo.getResourceMethod() : null;
+		if (method == null) {
+			return "unmatched";
+		}
+		return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+	}
+}
@@ -1,231 +1,295 @@
-package com.extremenetworks.hcm.gcp.billing;
-
-import java.io.ByteArrayOutputStream;
-import java.text.SimpleDateFormat;
-import java.util.HashSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import javax.ws.rs.GET;
-import javax.ws.rs.Path;
-import javax.ws.rs.Produces;
-import javax.ws.rs.QueryParam;
-import javax.ws.rs.core.MediaType;
-
-import com.extremenetworks.hcm.gcp.AccountConfig;
-import com.extremenetworks.hcm.gcp.Main;
-import com.extremenetworks.hcm.gcp.utils.Utilities;
-import com.extremenetworks.hcm.gcp.utils.WebResponse;
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.cloud.datastore.Datastore;
-import com.google.cloud.datastore.DatastoreOptions;
-import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Query;
-import com.google.cloud.datastore.QueryResults;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-@Path("billing")
-public class BillingRes {
-
-	private static final Logger logger = LogManager.getLogger(BillingRes.class);
-	private static ObjectMapper jsonMapper = new ObjectMapper();
-	private static final JsonFactory jsonFactory = new JsonFactory();
-
-	private static Channel rabbitChannel;
-	private HashSet<String> declaredRabbitQueues = new HashSet<String>();
-
-	// Datastore connection
-	private Datastore datastore;
-
-	private ExecutorService executor;
-
-	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-	public BillingRes() {
-
-		try {
-			ConnectionFactory factory = new ConnectionFactory();
-			factory.setHost(Main.RABBIT_SERVER);
-
-			Connection connection = factory.newConnection();
-			rabbitChannel = connection.createChannel();
-
-			executor = Executors.newCachedThreadPool();
-
-			datastore = DatastoreOptions.getDefaultInstance().getService();
-
-		} catch (Exception ex) {
-			logger.error("Error setting up the 'Resources' resource", ex);
-		}
-	}
-
-	/**
-	 * Retrieves all billing data for the given tenant and account from the DB.
-	 * Generate a JSON-formated string.
-	 * 
-	 * @param tenantId
-	 * @param accountId
-	 * @return
-	 */
-	@GET
-	@Produces(MediaType.APPLICATION_JSON)
-	@Path("all")
-	public String retrieveAllBilling(@QueryParam("tenantId") String tenantId,
-			@QueryParam("accountId") String accountId) {
-
-		try {
-			/* Retrieve the config for the given tenant & account from Datastore */
-			AccountConfig accountConfig = new AccountConfig();
-			String accountValidationMsg = Utilities.retrieveAccountConfigFromDb(tenantId, accountId, accountConfig,
-					datastore, Main.DS_ENTITY_KIND_CONFIG_ACCOUNT);
-
-			if (!accountValidationMsg.isEmpty()) {
-				return accountValidationMsg;
-			}
-
-			logger.debug("Retrieving all billing data for tenant " + tenantId + " and configured AWS account "
-					+ accountId + " from GCP Datastore");
-
-			// Retrieve all types of billing data from GCP Datastore - daily costs, etc.
-			Query<Entity> queryBilling = Query.newEntityQueryBuilder().setNamespace(tenantId)
-					.setKind(Main.DS_ENTITY_KIND_DATA_BILLING).build();
-
-			QueryResults<Entity> queryBillingResults = datastore.run(queryBilling);
-
-			/*
-			 * Start building the JSON string which contains some meta data. Example:
-			 * 
-			 * "dataType": "billing", "sourceSystemType": "aws", "sourceSystemAccountId":
-			 * "418454969983",
-			 */
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
-
-			jsonGen.writeStartObject();
-
-			jsonGen.writeStringField("dataType", "billing");
-			jsonGen.writeStringField("sourceSystemType", Main.SRC_SYS_TYPE);
-			jsonGen.writeStringField("sourceSystemTenantId", tenantId);
-			jsonGen.writeStringField("sourceSystemAccountId", accountId);
-
-			/*
-			 * The "data" field will contain an array of objects. Each object will contain
-			 * all data on a particular billing type
-			 */
-			jsonGen.writeArrayFieldStart("data");
-
-			while (queryBillingResults.hasNext()) {
-
-				Entity billingDataEntity = queryBillingResults.next();
-				String billingType = billingDataEntity.getString("billingType");
-
-				if (billingType != null && !billingType.isEmpty()) {
-
-					jsonGen.writeStartObject();
-
-					/*
-					 * Per billing type, the following meta data will be written (example):
-					 * "lastUpdated": "2019-04-05 15:22:38", "billingType": "Subnet", "billingData":
-					 * [ ... list of subnets ... ]
-					 */
-					jsonGen.writeStringField("lastUpdated",
-							dateFormatter.format(billingDataEntity.getTimestamp("lastUpdated").toDate()));
-					jsonGen.writeStringField("billingType", billingDataEntity.getString("billingType"));
-
-					// The list of subnets is already stored as a JSON string in the DB
-					jsonGen.writeFieldName("billingData");
-					jsonGen.writeRawValue(billingDataEntity.getString("billingData"));
-
-					jsonGen.writeEndObject();
-				}
-
-			}
-
-			// Finalize the JSON string and output stream
-			jsonGen.writeEndArray();
-			jsonGen.writeEndObject();
-
-			jsonGen.close();
-			outputStream.close();
-
-			return outputStream.toString();
-
-		} catch (Exception ex) {
-			String msg = "General Error";
-			logger.error(msg, ex);
-			String returnValue;
-			try {
-				returnValue = jsonMapper.writeValueAsString(new WebResponse(6, msg));
-				return returnValue;
-			} catch (Exception ex2) {
-				return msg;
-			}
-		}
-	}
-
-	/**
-	 * Starts a background worker that pulls all resources from the given account.
-	 * This is a non-blocking REST call that just starts that worker in a separate
-	 * thread and immediately responds to the caller. Once the background worker is
-	 * done retrieving all data from AWS it will - update the DB - publish the data
-	 * to RabbitMQ
-	 * 
-	 * @param accountId
-	 * @param accessKeyId
-	 * @param accessKeySecret
-	 * @return
-	 */
-	@GET
-	@Produces(MediaType.APPLICATION_JSON)
-	@Path("triggerUpdate")
-	public String triggerUpdateAll(@QueryParam("tenantId") String tenantId, @QueryParam("accountId") String accountId,
-			@QueryParam("startDate") String startDate, @QueryParam("endDate") String endDate) {
-
-		try {
-			/* Retrieve the config for the given tenant & account from Datastore */
-			AccountConfig accountConfig = new AccountConfig();
-			String accountValidationMsg = Utilities.retrieveAccountConfigFromDb(tenantId, accountId, accountConfig,
-					datastore, Main.DS_ENTITY_KIND_CONFIG_ACCOUNT);
-
-			if (!accountValidationMsg.isEmpty()) {
-				return accountValidationMsg;
-			}
-
-			String rabbitQueueName = tenantId + Main.RABBIT_QUEUE_POSTFIX_BILLING;
-			if (!declaredRabbitQueues.contains(rabbitQueueName)) {
-				logger.info("Declaring new Rabbit MQ queue name: " + rabbitQueueName);
-				rabbitChannel.queueDeclare(rabbitQueueName, false, false, false, null);
-				declaredRabbitQueues.add(rabbitQueueName);
-			}
-
-			if (startDate == null || startDate.isEmpty() || endDate == null || endDate.isEmpty()) {
-				String msg = "Missing startDate and / or endDate parameters";
-				logger.warn(msg);
-				return jsonMapper.writeValueAsString(new WebResponse(1, msg));
-			}
-
-			/* Config and start the background worker */
-			logger.debug(
-					"Creating background worker to import billing data from AWS account: " + accountConfig.toString());
-
-			executor.execute(
-					new BillingWorker(accountConfig, startDate, endDate, rabbitQueueName, rabbitChannel, datastore));
-
-			return jsonMapper
-					.writeValueAsString(new WebResponse(0, "Successfully triggered an update of all billing data"));
-
-		} catch (Exception ex) {
-			logger.error("General error triggering billing data update", ex);
-			return "";
-		}
-	}
-
+package com.extremenetworks.hcm.gcp.billing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.extremenetworks.hcm.gcp.AccountConfig;
+import com.extremenetworks.hcm.gcp.GoogleClientRegistry;
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.OperationThrottle;
+import com.extremenetworks.hcm.gcp.OperationWatcher;
+import com.extremenetworks.hcm.gcp.ServiceContext;
+import com.extremenetworks.hcm.gcp.UpdateCoalescer;
+import com.extremenetworks.hcm.gcp.utils.AccountConfigCache;
+import com.extremenetworks.hcm.gcp.utils.DataCodec;
+import com.extremenetworks.hcm.gcp.utils.DataVersion;
+import com.extremenetworks.hcm.gcp.utils.RabbitChannelPool;
+import com.extremenetworks.hcm.gcp.utils.TriggerResponse;
+import com.extremenetworks.hcm.gcp.utils.Utilities;
+import com.extremenetworks.hcm.gcp.utils.WebResponse;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+@Path("billing")
+public class BillingRes {
+
+	private static final Logger logger = LogManager.getLogger(BillingRes.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	// Shared Rabbit MQ channels and background worker threads
+	private final RabbitChannelPool rabbitChannels;
+	private final UpdateCoalescer updateCoalescer;
+	private final GoogleClientRegistry clientRegistry;
+	private final OperationWatcher operationWatcher;
+	private final OperationThrottle operationThrottle;
+
+	// Datastore connection
+	private final Datastore datastore;
+	private final AccountConfigCache accountConfigCache;
+
+	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	@Inject
+	public BillingRes(ServiceContext serviceContext) {
+
+		this.rabbitChannels = serviceContext.getRabbitChannels();
+		this.updateCoalescer = serviceContext.getUpdateCoalescer();
+		this.clientRegistry = serviceContext.getClientRegistry();
+		this.operationWatcher = serviceContext.getOperationWatcher();
+		this.operationThrottle = serviceContext.getOperationThrottle();
+		this.datastore = serviceContext.getDatastore();
+		this.accountConfigCache = serviceContext.getAccountConfigCache();
+	}
+
+	/**
+	 * Retrieves all billing data for the given tenant and account from the DB.
+	 * Generate a JSON-formated string, which is streamed to the client while the
+	 * Datastore results are read.
+	 * 
+	 * Supports conditional requests via ETag / If-None-Match and Last-Modified /
+	 * If-Modified-Since, see ResourcesRes.retrieveAllResources().
+	 * 
+	 * @param tenantId
+	 * @param accountId
+	 * @return
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("all")
+	public Response retrieveAllBilling(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId, @Context Request request) {
+
+		try {
+			/* Retrieve the config for the given tenant & account from Datastore */
+			AccountConfig accountConfig = new AccountConfig();
+			String accountValidationMsg = Utilities.retrieveAccountConfigFromDb(tenantId, accountId, accountConfig,
+					datastore, Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountConfigCache);
+
+			if (!accountValidationMsg.isEmpty()) {
+				return Response.ok(accountValidationMsg).build();
+			}
+
+			logger.debug("Retrieving all billing data for tenant " + tenantId + " and configured AWS account "
+					+ accountId + " from GCP Datastore");
+
+			DataVersion dataVersion = DataVersion.retrieve(datastore, tenantId, Main.DS_ENTITY_KIND_DATA_BILLING,
+					null);
+
+			if (dataVersion != null) {
+				Response notModified = dataVersion.evaluatePreconditions(request);
+				if (notModified != null) {
+					logger.debug("Billing data for tenant " + tenantId + " and account " + accountId
+							+ " hasn't changed - responding with 304");
+					return notModified;
+				}
+			}
+
+			// Retrieve all types of billing data from GCP Datastore - daily costs, etc.
+			Query<Entity> queryBilling = Query.newEntityQueryBuilder().setNamespace(tenantId)
+					.setKind(Main.DS_ENTITY_KIND_DATA_BILLING).build();
+
+			// Runs the query and reads the first batch of results. Errors up to here are
+			// still reported as a JSON error response
+			QueryResults<Entity> queryBillingResults = datastore.run(queryBilling);
+
+			StreamingOutput responseBody = outputStream -> {
+				try {
+					writeBilling(outputStream, tenantId, accountId, queryBillingResults);
+
+				} catch (Exception ex) {
+					// The response has already been started - all that's left is aborting it
+					logger.error("Error while streaming the billing data for tenant " + tenantId + " and account "
+							+ accountId, ex);
+					throw new WebApplicationException(ex);
+				}
+			};
+
+			ResponseBuilder response = Response.ok(responseBody);
+			if (dataVersion != null) {
+				dataVersion.addValidators(response);
+			}
+			return response.build();
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(6, msg));
+				return Response.ok(returnValue).build();
+			} catch (Exception ex2) {
+				return Response.ok(msg).build();
+			}
+		}
+	}
+
+	/**
+	 * Writes the JSON document of retrieveAllBilling() to the given stream, one
+	 * billing type at a time as the query results are read.
+	 */
+	private void writeBilling(OutputStream outputStream, String tenantId, String accountId,
+			QueryResults<Entity> queryBillingResults) throws IOException {
+
+		/*
+		 * Start building the JSON string which contains some meta data. Example:
+		 * 
+		 * "dataType": "billing", "sourceSystemType": "aws", "sourceSystemAccountId":
+		 * "418454969983",
+		 */
+		JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
+
+		// The servlet output stream is closed by Jersey
+		jsonGen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		jsonGen.writeStartObject();
+
+		jsonGen.writeStringField("dataType", "billing");
+		jsonGen.writeStringField("sourceSystemType", Main.SRC_SYS_TYPE);
+		jsonGen.writeStringField("sourceSystemTenantId", tenantId);
+		jsonGen.writeStringField("sourceSystemAccountId", accountId);
+
+		/*
+		 * The "data" field will contain an array of objects. Each object will contain
+		 * all data on a particular billing type
+		 */
+		jsonGen.writeArrayFieldStart("data");
+
+		while (queryBillingResults.hasNext()) {
+
+			Entity billingDataEntity = queryBillingResults.next();
+			String billingType = billingDataEntity.getString("billingType");
+
+			if (billingType != null && !billingType.isEmpty()) {
+
+				jsonGen.writeStartObject();
+
+				/*
+				 * Per billing type, the following meta data will be written (example):
+				 * "lastUpdated": "2019-04-05 15:22:38", "billingType": "Subnet", "billingData":
+				 * [ ... list of subnets ... ]
+				 */
+				jsonGen.writeStringField("lastUpdated",
+						dateFormatter.format(billingDataEntity.getTimestamp("lastUpdated").toDate()));
+				jsonGen.writeStringField("billingType", billingDataEntity.getString("billingType"));
+
+				// The billing data is already stored as a (possibly compressed) JSON string in
+				// the DB
+				jsonGen.writeFieldName("billingData");
+				jsonGen.writeRawValue(DataCodec.decode(billingDataEntity, "billingData"));
+
+				jsonGen.writeEndObject();
+			}
+
+		}
+
+		// Finalize the JSON string
+		jsonGen.writeEndArray();
+		jsonGen.writeEndObject();
+
+		jsonGen.close();
+	}
+
+	/**
+	 * Starts a background worker that pulls all resources from the given account.
+	 * This is a non-blocking REST call that just starts that worker in a separate
+	 * thread and immediately responds to the caller. Once the background worker is
+	 * done retrieving all data from AWS it will - update the DB - publish the data
+	 * to RabbitMQ
+	 * 
+	 * @param accountId
+	 * @param accessKeyId
+	 * @param accessKeySecret
+	 * @return
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("triggerUpdate")
+	public Response triggerUpdateAll(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId, @QueryParam("startDate") String startDate,
+			@QueryParam("endDate") String endDate) {
+
+		try {
+			/* Retrieve the config for the given tenant & account from Datastore */
+			AccountConfig accountConfig = new AccountConfig();
+			String accountValidationMsg = Utilities.retrieveAccountConfigFromDb(tenantId, accountId, accountConfig,
+					datastore, Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountConfigCache);
+
+			if (!accountValidationMsg.isEmpty()) {
+				return Response.ok(accountValidationMsg).build();
+			}
+
+			String rabbitQueueName = tenantId + Main.RABBIT_QUEUE_POSTFIX_BILLING;
+			rabbitChannels.declareQueue(rabbitQueueName, false);
+
+			if (startDate == null || startDate.isEmpty() || endDate == null || endDate.isEmpty()) {
+				String msg = "Missing startDate and / or endDate parameters";
+				logger.warn(msg);
+				return Response.ok(jsonMapper.writeValueAsString(new WebResponse(1, msg))).build();
+			}
+
+			/* Config and start the background worker */
+			logger.debug(
+					"Creating background worker to import billing data from AWS account: " + accountConfig.toString());
+
+			// Triggers for an account that is already being imported don't start
+			// another import in parallel. A queued import uses the dates of the latest
+			// trigger
+			UpdateCoalescer.Result result = updateCoalescer.trigger("billing", tenantId, accountId,
+					job -> new BillingWorker(accountConfig, startDate, endDate, rabbitQueueName, rabbitChannels,
+							datastore, clientRegistry, operationWatcher, operationThrottle, job));
+
+			return Response.ok(jsonMapper.writeValueAsString(TriggerResponse.forResult(result, "billing data")))
+					.build();
+
+		} catch (RejectedExecutionException ex) {
+			String msg = "Too many background updates pending - not triggering another one";
+			logger.warn(msg);
+			try {
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+						.entity(jsonMapper.writeValueAsString(new WebResponse(5, msg))).build();
+			} catch (Exception ex2) {
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(msg).build();
+			}
+
+		} catch (Exception ex) {
+			logger.error("General error triggering billing data update", ex);
+			return Response.ok("").build();
+		}
+	}
+
 }
\ No newline at end of file
@@ -1,177 +1,218 @@
-package com.extremenetworks.hcm.gcp.billing;
-
-import java.io.ByteArrayOutputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-
-import com.extremenetworks.hcm.gcp.AccountConfig;
-import com.extremenetworks.hcm.gcp.GoogleComputeEngineManager;
-import com.extremenetworks.hcm.gcp.Main;
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.cloud.Timestamp;
-import com.google.cloud.datastore.Datastore;
-import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Key;
-import com.google.cloud.datastore.PathElement;
-import com.google.cloud.datastore.StringValue;
-import com.rabbitmq.client.Channel;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-public class BillingWorker implements Runnable {
-
-	private static final Logger logger = LogManager.getLogger(BillingWorker.class);
-	private static ObjectMapper jsonMapper = new ObjectMapper();
-
-	private AccountConfig accountConfig;
-
-	// Rabbit MQ config
-	private String RABBIT_QUEUE_NAME;
-	private Channel rabbitChannel;
-
-	// Datastore connection
-	private Datastore datastore;
-
-	// Helpers / Utilities
-	private static final JsonFactory jsonFactory = new JsonFactory();
-	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-	private enum BILLING_TYPES {
-		DailyCosts
-	}
-
-	public BillingWorker(AccountConfig accountConfig, String startDate, String endDate, String RABBIT_QUEUE_NAME,
-			Channel rabbitChannel, Datastore datastore) {
-
-		this.accountConfig = accountConfig;
-
-		this.RABBIT_QUEUE_NAME = RABBIT_QUEUE_NAME;
-		this.rabbitChannel = rabbitChannel;
-
-		// Datastore connection
-		this.datastore = datastore;
-	}
-
-	@Override
-	public void run() {
-
-		logger.debug("Starting Background worker to import billing data from GCP for account: "
-				+ accountConfig.toString() + ". Project id: " + accountConfig.getProjectId());
-
-		try {
-			GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager();
-			boolean connected = computeManager.createComputeConnection(accountConfig.getProjectId(),
-					accountConfig.getCredentialsFileContent());
-
-			if (!connected) {
-				String msg = "Won't be able to retrieve any data from Google Compute Engine since no authentication/authorization/connection could be established";
-				logger.error(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			computeManager.retrieveBillingInfo(accountConfig.getProjectId());
-
-			// writeToDb(dbConn, "Firewall", allFirewalls);
-			// publishToRabbitMQ("Firewall", allFirewalls);
-
-			logger.debug("Finished retrieving all billing data from GCP project " + accountConfig.getProjectId());
-
-		} catch (Exception ex) {
-			logger.error(ex);
-			return;
-		}
-	}
-
-	/**
-	 * Writes the given data (daily costs, etc.) to the DB
-	 * 
-	 * @param billingType Valid types: DailyCosts, etc.
-	 * @param data        Map of billing data. The values can contain any type of
-	 *                    object and will be written to JSON data and then stored in
-	 *                    the DB
-	 * @return
-	 */
-	private boolean writeToDb(BILLING_TYPES billingType, List<Object> data) {
-
-		try {
-			// The name/ID for the new entity
-			String name = billingType.name();
-
-			// The Cloud Datastore key for the new entity
-			Key entityKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
-					.setKind(Main.DS_ENTITY_KIND_DATA_BILLING)
-					.addAncestor(PathElement.of(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountConfig.getAccountId()))
-					.newKey(name);
-
-			Entity dataEntity = Entity.newBuilder(entityKey).set("lastUpdated", Timestamp.now())
-					.set("billingType", billingType.name()).set("billingData", StringValue
-							.newBuilder(jsonMapper.writeValueAsString(data)).setExcludeFromIndexes(true).build())
-					.build();
-
-			logger.debug("About to update / write this entity towards GCP datastore:"
-					+ jsonMapper.writeValueAsString(dataEntity));
-
-			// Saves the entity
-			datastore.put(dataEntity);
-
-			return true;
-
-		} catch (Exception ex) {
-			logger.error("Error trying to store billing data within GCP Datastore", ex);
-			return false;
-		}
-	}
-
-	private boolean publishToRabbitMQ(BILLING_TYPES billingType, List<Object> data) {
-
-		try {
-			Date now = new Date();
-
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
-
-			jsonGen.writeStartObject();
-
-			jsonGen.writeStringField("dataType", "billing");
-			jsonGen.writeStringField("sourceSystemType", Main.SRC_SYS_TYPE);
-			// jsonGen.writeStringField("sourceSystemProjectId", appId);
-
-			jsonGen.writeArrayFieldStart("data");
-
-			jsonGen.writeStartObject();
-
-			jsonGen.writeStringField("lastUpdated", dateFormatter.format(now));
-			jsonGen.writeStringField("billingType", billingType.name());
-			jsonGen.writeFieldName("billingData");
-
-			jsonGen.writeStartArray();
-			jsonGen.writeRawValue(jsonMapper.writeValueAsString(data));
-			jsonGen.writeEndArray();
-
-			jsonGen.writeEndObject();
-
-			jsonGen.writeEndArray();
-			jsonGen.writeEndObject();
-
-			jsonGen.close();
-			outputStream.close();
-
-			logger.debug("Forwarding updated list of " + billingType + "s to the message queue " + RABBIT_QUEUE_NAME);
-			rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, outputStream.toString().getBytes("UTF-8"));
-
-			return true;
-
-		} catch (Exception ex) {
-			logger.error("Error trying to publish billing data to RabbitMQ", ex);
-			return false;
-		}
-
-	}
-
-}
+package com.extremenetworks.hcm.gcp.billing;
+
+import java.io.ByteArrayOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import com.extremenetworks.hcm.gcp.AccountConfig;
+import com.extremenetworks.hcm.gcp.ApiTelemetry;
+import com.extremenetworks.hcm.gcp.GoogleClientRegistry;
+import com.extremenetworks.hcm.gcp.GoogleComputeEngineManager;
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.OperationThrottle;
+import com.extremenetworks.hcm.gcp.OperationWatcher;
+import com.extremenetworks.hcm.gcp.jobs.Job;
+import com.extremenetworks.hcm.gcp.utils.DataCodec;
+import com.extremenetworks.hcm.gcp.utils.RabbitChannelPool;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.cloudbilling.model.ProjectBillingInfo;
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.PathElement;
+import com.google.cloud.datastore.Value;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class BillingWorker implements Runnable {
+
+	private static final Logger logger = LogManager.getLogger(BillingWorker.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+
+	private AccountConfig accountConfig;
+
+	// Rabbit MQ config
+	private String RABBIT_QUEUE_NAME;
+	private RabbitChannelPool rabbitChannels;
+
+	// Datastore connection
+	private Datastore datastore;
+
+	// Shared cache of the GCP API clients
+	private GoogleClientRegistry clientRegistry;
+
+	// Shared watcher of the pending GCE operations
+	private OperationWatcher operationWatcher;
+
+	// Shared limit of the concurrent GCE operations per project
+	private OperationThrottle operationThrottle;
+
+	// Progress of this import
+	private Job job;
+
+	// Helpers / Utilities
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	private enum BILLING_TYPES {
+		DailyCosts
+	}
+
+	public BillingWorker(AccountConfig accountConfig, String startDate, String endDate, String RABBIT_QUEUE_NAME,
+			RabbitChannelPool rabbitChannels, Datastore datastore, GoogleClientRegistry clientRegistry,
+			OperationWatcher operationWatcher, OperationThrottle operationThrottle, Job job) {
+
+		this.accountConfig = accountConfig;
+
+		this.RABBIT_QUEUE_NAME = RABBIT_QUEUE_NAME;
+		this.rabbitChannels = rabbitChannels;
+
+		// Datastore connection
+		this.datastore = datastore;
+
+		this.clientRegistry = clientRegistry;
+		this.operationWatcher = operationWatcher;
+		this.operationThrottle = operationThrottle;
+		this.job = job;
+	}
+
+	@Override
+	public void run() {
+
+		logger.debug("Starting Background worker to import billing data from GCP for account: "
+				+ accountConfig.toString() + ". Project id: " + accountConfig.getProjectId());
+
+		try (ApiTelemetry.Run apiCalls = clientRegistry.getTelemetry().startRun("Billing import",
+				accountConfig.getProjectId())) {
+			job.setApiCalls(apiCalls);
+
+			GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager(clientRegistry, operationWatcher,
+					operationThrottle);
+			boolean connected = computeManager.createComputeConnection(accountConfig.getProjectId(),
+					accountConfig.getCredentialsFileContent());
+
+			if (!connected) {
+				String msg = "Won't be able to retrieve any data from Google Compute Engine since no authentication/authorization/connection could be established";
+				logger.error(msg);
+				job.fail(msg);
+				rabbitChannels.publish(RABBIT_QUEUE_NAME, msg.getBytes("UTF-8"));
+				return;
+			}
+
+			job.startPhase("BillingInfo");
+			ProjectBillingInfo billingInfo = computeManager.retrieveBillingInfo(accountConfig.getProjectId());
+			if (billingInfo == null) {
+				job.fail("Error retrieving the billing info of GCP project " + accountConfig.getProjectId());
+				return;
+			}
+			job.phaseRetrieved("BillingInfo", 1);
+			job.finishPhase("BillingInfo");
+
+			// writeToDb(dbConn, "Firewall", allFirewalls);
+			// publishToRabbitMQ("Firewall", allFirewalls);
+
+			logger.debug("Finished retrieving all billing data from GCP project " + accountConfig.getProjectId());
+
+		} catch (Exception ex) {
+			logger.error(ex);
+			job.fail("Error importing billing data: " + ex);
+			return;
+		}
+	}
+
+	/**
+	 * Writes the given data (daily costs, etc.) to the DB
+	 * 
+	 * @param billingType Valid types: DailyCosts, etc.
+	 * @param data        Map of billing data. The values can contain any type of
+	 *                    object and will be written to JSON data and then stored in
+	 *                    the DB
+	 * @return
+	 */
+	private boolean writeToDb(BILLING_TYPES billingType, List<Object> data) {
+
+		try {
+			// The name/ID for the new entity
+			String name = billingType.name();
+
+			// The Cloud Datastore key for the new entity
+			Key entityKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
+					.setKind(Main.DS_ENTITY_KIND_DATA_BILLING)
+					.addAncestor(PathElement.of(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountConfig.getAccountId()))
+					.newKey(name);
+
+			// Stored in a single property, billing data isn't split into chunks
+			Value<?> billingData = DataCodec
+					.encode(jsonMapper.writeValueAsString(data), Main.DS_DATA_CODEC, Integer.MAX_VALUE).get(0);
+
+			Entity dataEntity = Entity.newBuilder(entityKey).set("lastUpdated", Timestamp.now())
+					.set("billingType", billingType.name()).set(DataCodec.PROPERTY_CODEC, Main.DS_DATA_CODEC)
+					.set("billingData", billingData).build();
+
+			logger.debug("About to update / write this entity towards GCP datastore:"
+					+ jsonMapper.writeValueAsString(dataEntity));
+
+			// Saves the entity
+			datastore.put(dataEntity);
+
+			return true;
+
+		} catch (Exception ex) {
+			logger.error("Error trying to store billing data within GCP Datastore", ex);
+			return false;
+		}
+	}
+
+	private boolean publishToRabbitMQ(BILLING_TYPES billingType, List<Object> data) {
+
+		try {
+			Date now = new Date();
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
+
+			jsonGen.writeStartObject();
+
+			jsonGen.writeStringField("dataType", "billing");
+			jsonGen.writeStringField("sourceSystemType", Main.SRC_SYS_TYPE);
+			// jsonGen.writeStringField("sourceSystemProjectId", appId);
+
+			jsonGen.writeArrayFieldStart("data");
+
+			jsonGen.writeStartObject();
+
+			jsonGen.writeStringField("lastUpdated", dateFormatter.format(now));
+			jsonGen.writeStringField("billingType", billingType.name());
+			jsonGen.writeFieldName("billingData");
+
+			jsonGen.writeStartArray();
+			jsonGen.writeRawValue(jsonMapper.writeValueAsString(data));
+			jsonGen.writeEndArray();
+
+			jsonGen.writeEndObject();
+
+			jsonGen.writeEndArray();
+			jsonGen.writeEndObject();
+
+			jsonGen.close();
+			outputStream.close();
+
+			logger.debug("Forwarding updated list of " + billingType + "s to the message queue " + RABBIT_QUEUE_NAME);
+			rabbitChannels.publish(RABBIT_QUEUE_NAME, outputStream.toString().getBytes("UTF-8"));
+
+			return true;
+
+		} catch (Exception ex) {
+			logger.error("Error trying to publish billing data to RabbitMQ", ex);
+			return false;
+		}
+
+	}
+
+}
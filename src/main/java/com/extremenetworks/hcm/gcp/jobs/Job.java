@@ -0,0 +1,236 @@
+package com.extremenetworks.hcm.gcp.jobs;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.extremenetworks.hcm.gcp.ApiTelemetry;
+
+/**
+ * A background update (resources or billing import) of one account: its state,
+ * the timing and nr. of items of each phase, the Google API calls it made and
+ * the errors it ran into. Updated by the worker while it runs and returned as
+ * JSON by the jobs resource.
+ */
+public class Job {
+
+	public enum State {
+		// Waiting for a running update of the same account to finish
+		QUEUED,
+		RUNNING,
+		SUCCEEDED,
+		// Aborted - the account's data has not been updated completely
+		FAILED
+	}
+
+	private final String id;
+	private final String dataType;
+	private final String tenantId;
+	private final String accountId;
+	private final long createdAt = System.currentTimeMillis();
+
+	private State state = State.QUEUED;
+	private long startedAt = 0;
+	private long finishedAt = 0;
+
+	// Per phase, in the order the phases have been started
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	private final List<String> errors = new ArrayList<String>();
+
+	// API calls of the import, once it has started
+	private ApiTelemetry.Run apiCalls;
+
+	Job(String id, String dataType, String tenantId, String accountId) {
+		this.id = id;
+		this.dataType = dataType;
+		this.tenantId = tenantId;
+		this.accountId = accountId;
+	}
+
+	public synchronized void started() {
+
+		state = State.RUNNING;
+		startedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marks the job as succeeded unless it has failed.
+	 */
+	public synchronized void finished() {
+
+		if (state != State.FAILED) {
+			state = State.SUCCEEDED;
+		}
+		if (startedAt == 0) {
+			startedAt = System.currentTimeMillis();
+		}
+		finishedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records an error that stops the job. The worker still has to call
+	 * finished() when it's done.
+	 */
+	public synchronized void fail(String error) {
+
+		state = State.FAILED;
+		errors.add(error);
+	}
+
+	/**
+	 * Records an error the job continues after, e.g. a failed write of one
+	 * resource type.
+	 */
+	public synchronized void addError(String error) {
+		errors.add(error);
+	}
+
+	/**
+	 * @param apiCalls Collects the Google API calls of the job - only the calls
+	 *                 of this job, even if other jobs import the same project
+	 *                 at the same time
+	 */
+	public synchronized void setApiCalls(ApiTelemetry.Run apiCalls) {
+		this.apiCalls = apiCalls;
+	}
+
+	/**
+	 * Starts the given phase, e.g. retrieving the VMs.
+	 */
+	public synchronized void startPhase(String name) {
+		phases.computeIfAbsent(name, key -> new Phase());
+	}
+
+	/**
+	 * Marks the data of the given phase as retrieved from GCP.
+	 */
+	public synchronized void phaseRetrieved(String name, int nrOfItems) {
+
+		Phase phase = phases.computeIfAbsent(name, key -> new Phase());
+		phase.retrievedAt = System.currentTimeMillis();
+		phase.nrOfItems = nrOfItems;
+	}
+
+	/**
+	 * Marks the data of the given phase as stored and published.
+	 */
+	public synchronized void finishPhase(String name) {
+
+		Phase phase = phases.computeIfAbsent(name, key -> new Phase());
+		phase.finishedAt = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	public String getTenantId() {
+		return tenantId;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized boolean isDone() {
+		return state == State.SUCCEEDED || state == State.FAILED;
+	}
+
+	public String getCreated() {
+		return format(createdAt);
+	}
+
+	public synchronized String getStarted() {
+		return startedAt > 0 ? format(startedAt) : null;
+	}
+
+	public synchronized String getFinished() {
+		return finishedAt > 0 ? format(finishedAt) : null;
+	}
+
+	/**
+	 * @return Time the job waited for a running update of the same account
+	 */
+	public synchronized long getQueuedMillis() {
+		return (startedAt > 0 ? startedAt : System.currentTimeMillis()) - createdAt;
+	}
+
+	/**
+	 * @return Time the job has been running for so far or took in total
+	 */
+	public synchronized long getDurationMillis() {
+
+		if (startedAt == 0) {
+			return 0;
+		}
+		return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+	}
+
+	public synchronized Map<String, Map<String, Object>> getPhases() {
+
+		Map<String, Map<String, Object>> phaseDetails = new LinkedHashMap<String, Map<String, Object>>();
+		for (Map.Entry<String, Phase> phase : phases.entrySet()) {
+			phaseDetails.put(phase.getKey(), phase.getValue().toMap());
+		}
+		return phaseDetails;
+	}
+
+	/**
+	 * @return Nr. of calls, errors, pages, response bytes and the total latency
+	 *         of the job's Google API calls so far. Empty until the job has
+	 *         started its import
+	 */
+	public synchronized Map<String, Long> getApiCalls() {
+
+		Map<String, Long> apiCallDetails = new LinkedHashMap<String, Long>();
+		if (apiCalls != null) {
+			ApiTelemetry.CallStats totals = apiCalls.getTotals();
+			apiCallDetails.put("calls", totals.getCount());
+			apiCallDetails.put("errors", totals.getErrors());
+			apiCallDetails.put("pages", totals.getPages());
+			apiCallDetails.put("responseBytes", totals.getResponseBytes());
+			apiCallDetails.put("latencySumMillis", totals.getLatencySumMillis());
+		}
+		return apiCallDetails;
+	}
+
+	public synchronized List<String> getErrors() {
+		return new ArrayList<String>(errors);
+	}
+
+	private static String format(long millis) {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(millis));
+	}
+
+	private static class Phase {
+
+		private final long startedAt = System.currentTimeMillis();
+		private long retrievedAt = 0;
+		private long finishedAt = 0;
+		private int nrOfItems = 0;
+
+		Map<String, Object> toMap() {
+
+			long now = System.currentTimeMillis();
+
+			Map<String, Object> details = new LinkedHashMap<String, Object>();
+			details.put("items", nrOfItems);
+			details.put("retrieveMillis", (retrievedAt > 0 ? retrievedAt : now) - startedAt);
+			details.put("storeMillis", retrievedAt > 0 ? (finishedAt > 0 ? finishedAt : now) - retrievedAt : 0);
+			details.put("durationMillis", (finishedAt > 0 ? finishedAt : now) - startedAt);
+			details.put("finished", finishedAt > 0);
+			return details;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.extremenetworks.hcm.gcp.jobs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bounded, in-memory table of the background update jobs by their id. Once the
+ * table is full, the oldest finished job is dropped for every new one. Running
+ * and queued jobs are only dropped if there are no finished ones left.
+ */
+public class JobRegistry {
+
+	private final int maxJobs;
+
+	// Insertion ordered --> oldest job first
+	private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<String, Job>();
+
+	public JobRegistry(int maxJobs) {
+		this.maxJobs = maxJobs;
+	}
+
+	/**
+	 * Creates a new, queued job.
+	 *
+	 * @param dataType E.g. "resources" or "billing"
+	 */
+	public synchronized Job create(String dataType, String tenantId, String accountId) {
+
+		Job job = new Job(UUID.randomUUID().toString(), dataType, tenantId, accountId);
+		jobs.put(job.getId(), job);
+
+		if (jobs.size() > maxJobs) {
+			removeOldest();
+		}
+
+		return job;
+	}
+
+	/**
+	 * @return The job with the given id or null if it is unknown or has been
+	 *         dropped already
+	 */
+	public synchronized Job get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * @param tenantId  Only jobs of this tenant or all jobs if null
+	 * @param accountId Only jobs of this account or jobs of all accounts if null
+	 * @return Matching jobs, newest first
+	 */
+	public synchronized List<Job> list(String tenantId, String accountId) {
+
+		List<Job> matchingJobs = new ArrayList<Job>();
+		for (Job job : jobs.values()) {
+			if ((tenantId == null || tenantId.equals(job.getTenantId()))
+					&& (accountId == null || accountId.equals(job.getAccountId()))) {
+				matchingJobs.add(0, job);
+			}
+		}
+		return matchingJobs;
+	}
+
+	public synchronized int size() {
+		return jobs.size();
+	}
+
+	private void removeOldest() {
+
+		Iterator<Job> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().isDone()) {
+				it.remove();
+				return;
+			}
+		}
+
+		// Nothing finished - drop the oldest job anyway to stay within the bound
+		it = jobs.values().iterator();
+		it.next();
+		it.remove();
+	}
+}
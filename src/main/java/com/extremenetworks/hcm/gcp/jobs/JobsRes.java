@@ -0,0 +1,104 @@
+package com.extremenetworks.hcm.gcp.jobs;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import com.extremenetworks.hcm.gcp.ServiceContext;
+import com.extremenetworks.hcm.gcp.utils.WebResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Progress of the background updates started by the triggerUpdate calls of the
+ * resources and billing resources, by the job id those calls return.
+ */
+@Path("jobs")
+public class JobsRes {
+
+	private static final Logger logger = LogManager.getLogger(JobsRes.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+
+	private final JobRegistry jobRegistry;
+
+	@Inject
+	public JobsRes(ServiceContext serviceContext) {
+		this.jobRegistry = serviceContext.getJobRegistry();
+	}
+
+	/**
+	 * State of the given job: queued, running, succeeded or failed, the timing and
+	 * nr. of items per phase (zones, regions, VMs, etc.), the Google API calls made
+	 * so far and any errors.
+	 *
+	 * @param jobId Id returned by triggerUpdate
+	 * @return
+	 */
+	@GET
+	@Path("{jobId}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String retrieveJob(@PathParam("jobId") String jobId) {
+
+		try {
+			Job job = jobRegistry.get(jobId);
+
+			if (job == null) {
+				String msg = "Unknown job id " + jobId + " - the job does not exist or has been dropped already";
+				logger.debug(msg);
+				return jsonMapper.writeValueAsString(new WebResponse(1, msg));
+			}
+
+			return jsonMapper.writeValueAsString(job);
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(1, msg));
+				return returnValue;
+			} catch (Exception ex2) {
+				return msg;
+			}
+		}
+	}
+
+	/**
+	 * All jobs that are still known, newest first.
+	 *
+	 * @param tenantId  Extreme Networks configured tenant id. If provided, only
+	 *                  the jobs of that tenant are returned
+	 * @param accountId Extreme Networks configured account id. If provided, only
+	 *                  the jobs of that account are returned
+	 * @return
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public String retrieveJobs(@QueryParam("tenantId") String tenantId, @QueryParam("accountId") String accountId) {
+
+		try {
+			return jsonMapper.writeValueAsString(jobRegistry.list(emptyToNull(tenantId), emptyToNull(accountId)));
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(1, msg));
+				return returnValue;
+			} catch (Exception ex2) {
+				return msg;
+			}
+		}
+	}
+
+	private static String emptyToNull(String value) {
+		return value == null || value.isEmpty() ? null : value;
+	}
+}
@@ -0,0 +1,306 @@
+package com.extremenetworks.hcm.gcp.resources;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.utils.DataCodec;
+import com.google.api.services.compute.model.Firewall;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Network;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Region;
+import com.google.api.services.compute.model.Subnetwork;
+import com.google.api.services.compute.model.Zone;
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.ListValue;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.Value;
+
+/**
+ * A single resource (VM, firewall, subnet, etc.) stored as its own Datastore
+ * entity. Besides the resource data (JSON, encoded by DataCodec) the entity
+ * holds the fields clients filter on as indexed properties: account ID, zone,
+ * region, network(s), status and tags. Datastore's built-in indexes serve
+ * queries with any combination of equality filters on these, so no composite
+ * indexes are needed.
+ *
+ * The entities are root entities named "[accountId]/[resourceType]:[id]",
+ * unlike the other data of an account not below the account config - each one
+ * is an entity group of its own, so the writes of an import don't compete for
+ * the write rate of a single group. They carry a hash of their resource data,
+ * so an import only writes the resources that have changed.
+ */
+class ResourceItem {
+
+	// Entity properties
+	static final String PROPERTY_ACCOUNT_ID = "accountId";
+	static final String PROPERTY_RESOURCE_TYPE = "resourceType";
+	static final String PROPERTY_NAME = "name";
+	static final String PROPERTY_ZONE = "zone";
+	static final String PROPERTY_REGION = "region";
+	static final String PROPERTY_NETWORK = "network";
+	static final String PROPERTY_STATUS = "status";
+	static final String PROPERTY_TAG = "tag";
+	static final String PROPERTY_CONTENT_HASH = "contentHash";
+	static final String PROPERTY_LAST_UPDATED = "lastUpdated";
+	static final String PROPERTY_RESOURCE_DATA = "resourceData";
+
+	private final String resourceType;
+	private final String id;
+	private final String name;
+	private final String zone;
+	private final String region;
+	private final List<String> networks;
+	private final String status;
+	private final List<String> tags;
+	private final String resourceData;
+	private final String contentHash;
+
+	private ResourceItem(String resourceType, String id, String name, String zone, String region,
+			List<String> networks, String status, List<String> tags, String resourceData) {
+
+		this.resourceType = resourceType;
+		this.id = id;
+		this.name = name;
+		this.zone = zone;
+		this.region = region;
+		this.networks = networks;
+		this.status = status;
+		this.tags = tags;
+		this.resourceData = resourceData;
+		this.contentHash = hash(resourceData);
+	}
+
+	/**
+	 * @param resourceType Valid types: Subnet, VM, etc.
+	 * @param resource     The GCE resource object
+	 * @param resourceData The resource serialized as JSON object
+	 */
+	static ResourceItem of(String resourceType, Object resource, String resourceData) {
+
+		if (resource instanceof Instance) {
+			Instance vm = (Instance) resource;
+
+			List<String> networks = new ArrayList<String>();
+			if (vm.getNetworkInterfaces() != null) {
+				for (NetworkInterface nic : vm.getNetworkInterfaces()) {
+					addName(networks, nic.getNetwork());
+				}
+			}
+
+			// Zone names are the region name with a suffix: "us-central1-a"
+			String zone = lastSegment(vm.getZone());
+			String region = zone != null && zone.lastIndexOf('-') > 0 ? zone.substring(0, zone.lastIndexOf('-'))
+					: null;
+
+			List<String> tags = vm.getTags() != null ? vm.getTags().getItems() : null;
+
+			return new ResourceItem(resourceType, toId(vm.getId(), vm.getName()), vm.getName(), zone, region,
+					networks, vm.getStatus(), tags, resourceData);
+
+		} else if (resource instanceof Firewall) {
+			Firewall fw = (Firewall) resource;
+
+			List<String> networks = new ArrayList<String>();
+			addName(networks, fw.getNetwork());
+
+			String status = Boolean.TRUE.equals(fw.getDisabled()) ? "DISABLED" : "ENABLED";
+
+			return new ResourceItem(resourceType, toId(fw.getId(), fw.getName()), fw.getName(), null, null,
+					networks, status, fw.getTargetTags(), resourceData);
+
+		} else if (resource instanceof Subnetwork) {
+			Subnetwork subnet = (Subnetwork) resource;
+
+			List<String> networks = new ArrayList<String>();
+			addName(networks, subnet.getNetwork());
+
+			return new ResourceItem(resourceType, toId(subnet.getId(), subnet.getName()), subnet.getName(), null,
+					lastSegment(subnet.getRegion()), networks, null, null, resourceData);
+
+		} else if (resource instanceof Network) {
+			Network network = (Network) resource;
+
+			List<String> networks = new ArrayList<String>();
+			addName(networks, network.getName());
+
+			return new ResourceItem(resourceType, toId(network.getId(), network.getName()), network.getName(),
+					null, null, networks, null, null, resourceData);
+
+		} else if (resource instanceof Zone) {
+			Zone zone = (Zone) resource;
+
+			return new ResourceItem(resourceType, toId(zone.getId(), zone.getName()), zone.getName(),
+					zone.getName(), lastSegment(zone.getRegion()), null, zone.getStatus(), null, resourceData);
+
+		} else if (resource instanceof Region) {
+			Region region = (Region) resource;
+
+			return new ResourceItem(resourceType, toId(region.getId(), region.getName()), region.getName(), null,
+					region.getName(), null, region.getStatus(), null, resourceData);
+		}
+
+		throw new IllegalArgumentException("Unsupported resource " + resource.getClass().getName());
+	}
+
+	/**
+	 * @return Name of the given resource within its account
+	 */
+	static String keyName(String resourceType, String id) {
+		return resourceType + ":" + id;
+	}
+
+	/**
+	 * @param keyName Name of the resource within its account, see keyName()
+	 * @return Key of the entity of the given resource
+	 */
+	static Key entityKey(Datastore datastore, String tenantId, String accountId, String keyName) {
+
+		return datastore.newKeyFactory().setNamespace(tenantId).setKind(Main.DS_ENTITY_KIND_DATA_RESOURCE)
+				.newKey(accountId + "/" + keyName);
+	}
+
+	/**
+	 * @return Name of the resource within its account, see keyName()
+	 */
+	static String keyNameOf(Key key) {
+		return key.getName().substring(key.getName().lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @return The resource type of the given resource name, see keyName()
+	 */
+	static String resourceTypeOf(String keyName) {
+		return keyName.indexOf(':') > 0 ? keyName.substring(0, keyName.indexOf(':')) : null;
+	}
+
+	/**
+	 * @param key         Key of the entity, see entityKey()
+	 * @param accountId   Account the resource belongs to
+	 * @param lastUpdated Time the resource has been retrieved
+	 * @param codec       Codec to store the resource data with
+	 */
+	Entity toEntity(Key key, String accountId, Timestamp lastUpdated, String codec) throws IOException {
+
+		// Imports read the content hashes from the content hashes entity of the
+		// resource type, so the hash isn't indexed
+		Entity.Builder entity = Entity.newBuilder(key).set(PROPERTY_ACCOUNT_ID, accountId)
+				.set(PROPERTY_RESOURCE_TYPE, resourceType).set(PROPERTY_LAST_UPDATED, lastUpdated)
+				.set(PROPERTY_CONTENT_HASH, StringValue.newBuilder(contentHash).setExcludeFromIndexes(true).build())
+				.set(DataCodec.PROPERTY_CODEC, codec);
+
+		if (name != null) {
+			entity.set(PROPERTY_NAME, name);
+		}
+		if (zone != null) {
+			entity.set(PROPERTY_ZONE, zone);
+		}
+		if (region != null) {
+			entity.set(PROPERTY_REGION, region);
+		}
+		if (status != null) {
+			entity.set(PROPERTY_STATUS, status);
+		}
+
+		// Equality filters on list properties match any of their values
+		if (networks != null && !networks.isEmpty()) {
+			entity.set(PROPERTY_NETWORK, toListValue(networks));
+		}
+		if (tags != null && !tags.isEmpty()) {
+			entity.set(PROPERTY_TAG, toListValue(tags));
+		}
+
+		// A single resource always fits into one entity - the value is only split
+		// if it exceeds the chunk size
+		List<Value<?>> data = DataCodec.encode(resourceData, codec, Main.DS_RESOURCE_DATA_CHUNK_SIZE);
+		entity.set(PROPERTY_RESOURCE_DATA, data.size() == 1 ? data.get(0) : ListValue.of(data));
+
+		return entity.build();
+	}
+
+	/**
+	 * @return The resource data (JSON object) of the given entity
+	 */
+	static String getResourceData(Entity entity) throws IOException {
+
+		Value<?> data = entity.getValue(PROPERTY_RESOURCE_DATA);
+
+		if (data instanceof ListValue) {
+			return DataCodec.decode(new ArrayList<Value<?>>(((ListValue) data).get()), DataCodec.getCodec(entity));
+		}
+		return DataCodec.decode(entity, PROPERTY_RESOURCE_DATA);
+	}
+
+	String getResourceType() {
+		return resourceType;
+	}
+
+	String getKeyName() {
+		return keyName(resourceType, id);
+	}
+
+	String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * GCE resources have a numeric id, which unlike most of their names is unique
+	 * within the project
+	 */
+	private static String toId(BigInteger id, String name) {
+		return id != null ? id.toString() : name;
+	}
+
+	private static void addName(List<String> names, String url) {
+
+		String name = lastSegment(url);
+		if (name != null && !names.contains(name)) {
+			names.add(name);
+		}
+	}
+
+	/**
+	 * @return The resource name of the given GCE URL, e.g. "us-central1" for
+	 *         ".../projects/p/regions/us-central1"
+	 */
+	private static String lastSegment(String url) {
+
+		if (url == null || url.isEmpty()) {
+			return null;
+		}
+		return url.substring(url.lastIndexOf('/') + 1);
+	}
+
+	private static ListValue toListValue(List<String> values) {
+
+		ListValue.Builder listValue = ListValue.newBuilder();
+		for (String value : values) {
+			listValue.addValue(StringValue.of(value));
+		}
+		return listValue.build();
+	}
+
+	private static String hash(String data) {
+
+		try {
+			StringBuilder hash = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8))) {
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+
+		} catch (NoSuchAlgorithmException ex) {
+			// Every JRE supports SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+}
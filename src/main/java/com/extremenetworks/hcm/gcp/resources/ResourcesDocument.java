@@ -0,0 +1,155 @@
+package com.extremenetworks.hcm.gcp.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.zip.GZIPOutputStream;
+
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache.ResourceTypeData;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * The JSON document /resources/all responds with: all resource data of an
+ * account, per resource type, plus some meta data. Written straight to the
+ * response or prebuilt gzip compressed, so it can be sent as is to clients
+ * accepting gzip.
+ */
+class ResourcesDocument {
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private ResourcesDocument() {
+	}
+
+	/**
+	 * @return The gzip compressed document of the given snapshot
+	 */
+	static byte[] gzip(ResourceSnapshotCache.Snapshot snapshot) throws IOException {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (OutputStream gzipStream = new GZIPOutputStream(compressed)) {
+			write(gzipStream, snapshot);
+		}
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Writes the document of the given snapshot to the given stream, one resource
+	 * type at a time. The stream is left open.
+	 */
+	static void write(OutputStream outputStream, ResourceSnapshotCache.Snapshot snapshot) throws IOException {
+
+		Writer writer = new Writer(outputStream, snapshot.getTenantId(), snapshot.getAccountId());
+
+		for (ResourceTypeData resourceType : snapshot.getResourceTypes()) {
+			writer.write(resourceType);
+		}
+
+		writer.finish();
+	}
+
+	/**
+	 * Writes the document one resource type at a time, e.g. while the resource
+	 * data is read from Datastore. The stream is left open.
+	 */
+	static class Writer {
+
+		private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		private final JsonGenerator jsonGen;
+
+		/**
+		 * Starts the document
+		 */
+		Writer(OutputStream outputStream, String tenantId, String accountId) throws IOException {
+
+			/*
+			 * Start building the JSON string which contains some meta data. Example:
+			 *
+			 * "dataType": "resources", "sourceSystemType": "gcp", "sourceSystemProjectId":
+			 * "418454969983",
+			 */
+			jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
+
+			// The servlet output stream is closed by Jersey
+			jsonGen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+			jsonGen.writeStartObject();
+
+			jsonGen.writeStringField("dataType", "resources");
+			jsonGen.writeStringField("sourceSystemType", Main.SRC_SYS_TYPE);
+			jsonGen.writeStringField("sourceSystemTenantId", tenantId);
+			jsonGen.writeStringField("sourceSystemAccountId", accountId);
+
+			/*
+			 * The "data" field will contain an array of objects. Each object will contain
+			 * all data on a particular resource type
+			 */
+			jsonGen.writeArrayFieldStart("data");
+		}
+
+		void write(ResourceTypeData resourceType) throws IOException {
+
+			jsonGen.writeStartObject();
+
+			/*
+			 * Per resource type, the following meta data will be written (example):
+			 * "lastUpdated": "2019-04-05 15:22:38", "resourceType": "Subnet",
+			 * "resourceData": [ ... list of subnets ... ]
+			 */
+			jsonGen.writeStringField("lastUpdated", dateFormatter.format(resourceType.getLastUpdated().toDate()));
+			jsonGen.writeStringField("resourceType", resourceType.getResourceType());
+
+			// The list of subnets is already stored as a JSON string in the DB
+			jsonGen.writeFieldName("resourceData");
+			jsonGen.writeRawValue(resourceType.getResourceData());
+
+			jsonGen.writeEndObject();
+		}
+
+		/**
+		 * Finalizes the document and flushes it to the stream
+		 */
+		void finish() throws IOException {
+
+			jsonGen.writeEndArray();
+			jsonGen.writeEndObject();
+
+			jsonGen.close();
+		}
+	}
+
+	/**
+	 * @param acceptEncoding Accept-Encoding header of the request, may be null
+	 * @return True if the client accepts gzip compressed responses
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		for (String coding : acceptEncoding.split(",")) {
+
+			String[] params = coding.split(";");
+			String name = params[0].trim();
+
+			if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip") || name.equals("*")) {
+
+				// "gzip;q=0" explicitly refuses gzip
+				for (int i = 1; i < params.length; i++) {
+					String param = params[i].trim().replace(" ", "");
+					if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,445 +1,822 @@
-package com.extremenetworks.hcm.gcp.resources;
-
-import java.io.ByteArrayOutputStream;
-import java.text.SimpleDateFormat;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import javax.ws.rs.GET;
-import javax.ws.rs.Path;
-import javax.ws.rs.Produces;
-import javax.ws.rs.QueryParam;
-import javax.ws.rs.core.MediaType;
-
-import com.extremenetworks.hcm.gcp.AccountConfig;
-import com.extremenetworks.hcm.gcp.Main;
-import com.extremenetworks.hcm.gcp.utils.WebResponse;
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.cloud.datastore.Datastore;
-import com.google.cloud.datastore.DatastoreOptions;
-import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Query;
-import com.google.cloud.datastore.QueryResults;
-import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-@Path("resources")
-public class ResourcesRes {
-
-	private static final Logger logger = LogManager.getLogger(ResourcesRes.class);
-	private static ObjectMapper jsonMapper = new ObjectMapper();
-	private static final JsonFactory jsonFactory = new JsonFactory();
-
-	// Host name of Rabbit-Mq server is set by Main on init()
-	public static String rabbitServer;
-	public static String RABBIT_QUEUE_NAME;
-	private static Channel rabbitChannel;
-
-	// private final String dbConnString =
-	// "jdbc:mysql://hcm-mysql:3306/Resources?useSSL=false";
-	// private final String dbUser = "root";
-	// private final String dbPassword = "password";
-
-	private ExecutorService executor;
-
-	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-	// Datastore connection
-	private Datastore datastore;
-
-	public ResourcesRes() {
-
-		try {
-			// Setup Rabbit connection
-			ConnectionFactory factory = new ConnectionFactory();
-			factory.setHost(rabbitServer);
-			Connection connection = factory.newConnection();
-			rabbitChannel = connection.createChannel();
-			rabbitChannel.queueDeclare(RABBIT_QUEUE_NAME, false, false, false, null);
-
-			// For long running background threads that pull data from customers' GCP
-			// accounts
-			executor = Executors.newCachedThreadPool();
-
-			// Extreme Networks' GCP datastore
-			datastore = DatastoreOptions.getDefaultInstance().getService();
-
-		} catch (Exception ex) {
-			logger.error("Error setting up the 'Resources' resource", ex);
-		}
-	}
-
-	/**
-	 * Retrieves all resource data (VMs, subnets, networks, etc.) for the given
-	 * tenant and account from the Datastore. Generate a JSON-formated string.
-	 * Example: { "dataType": "resources", "sourceSystemType": "gcp",
-	 * "sourceSystemProjectId": "418454969983", "data": [ { "lastUpdated":
-	 * "2019-04-05 15:22:38", "resourceType": "Subnet", "resourceData": [ { "tags":
-	 * [], "state": "available", "vpcId": "vpc-d3358ab6", ... }, ...
-	 * 
-	 * @param tenantId
-	 * @param accountId
-	 */
-	@GET
-	@Path("all")
-	@Produces(MediaType.APPLICATION_JSON)
-	public String retrieveAllResources(@QueryParam("tenantId") String tenantId,
-			@QueryParam("accountId") String accountId) {
-
-		try {
-			/* Retrieve the config for the given tenant & account from Datastore */
-			AccountConfig accountConfig = new AccountConfig();
-			String accountValidationMsg = retrieveAccountConfigFromDb(tenantId, accountId, accountConfig);
-
-			if (!accountValidationMsg.isEmpty()) {
-				return accountValidationMsg;
-			}
-
-			logger.debug("Retrieving all resource data for tenant id " + tenantId + " and account id " + accountId
-					+ " from the GCP Datastore");
-
-			// Retrieve all types of resources from GCP Datastore - Firewalls, VMs, etc.
-			Query<Entity> queryResources = Query.newEntityQueryBuilder().setNamespace(tenantId)
-					.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCES)
-					.setFilter(PropertyFilter.hasAncestor(datastore.newKeyFactory()
-							.setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT).setNamespace(tenantId).newKey(accountId)))
-					.build();
-
-			QueryResults<Entity> queryResourcesResults = datastore.run(queryResources);
-
-			/*
-			 * Start building the JSON string which contains some meta data. Example:
-			 * 
-			 * "dataType": "resources", "sourceSystemType": "gcp", "sourceSystemProjectId":
-			 * "418454969983",
-			 */
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
-
-			jsonGen.writeStartObject();
-
-			jsonGen.writeStringField("dataType", "resources");
-			jsonGen.writeStringField("sourceSystemType", "gcp");
-			jsonGen.writeStringField("sourceSystemTenantId", accountConfig.getTenantId());
-			jsonGen.writeStringField("sourceSystemAccountId", accountConfig.getAccountId());
-
-			/*
-			 * The "data" field will contain an array of objects. Each object will contain
-			 * all data on a particular resource type
-			 */
-			jsonGen.writeArrayFieldStart("data");
-
-			while (queryResourcesResults.hasNext()) {
-
-				Entity resourceDataEntity = queryResourcesResults.next();
-				String resourceType = resourceDataEntity.getString("resourceType");
-
-				if (resourceType != null && !resourceType.isEmpty()) {
-
-					jsonGen.writeStartObject();
-
-					/*
-					 * Per resource type, the following meta data will be written (example):
-					 * "lastUpdated": "2019-04-05 15:22:38", "resourceType": "Subnet",
-					 * "resourceData": [ ... list of subnets ... ]
-					 */
-					jsonGen.writeStringField("lastUpdated",
-							dateFormatter.format(resourceDataEntity.getTimestamp("lastUpdated").toDate()));
-					jsonGen.writeStringField("resourceType", resourceType);
-
-					// The list of subnets is already stored as a JSON string in the DB
-					jsonGen.writeFieldName("resourceData");
-					jsonGen.writeRawValue(resourceDataEntity.getString("resourceData"));
-
-					jsonGen.writeEndObject();
-				}
-			}
-
-			// Finalize the JSON string and output stream
-			jsonGen.writeEndArray();
-			jsonGen.writeEndObject();
-
-			jsonGen.close();
-			outputStream.close();
-
-			return outputStream.toString();
-
-		} catch (Exception ex) {
-			String msg = "General Error";
-			logger.error(msg, ex);
-			String returnValue;
-			try {
-				returnValue = jsonMapper.writeValueAsString(new WebResponse(4, msg));
-				return returnValue;
-			} catch (Exception ex2) {
-				return msg;
-			}
-		}
-	}
-
-	/**
-	 * Starts a background worker that pulls all resources from the given account.
-	 * This is a non-blocking REST call that just starts that worker in a separate
-	 * thread and immediately responds to the caller. Once the background worker is
-	 * done retrieving all data from GCP it will a) update the DB and b) publish the
-	 * data to RabbitMQ
-	 * 
-	 * @param tenantId  Extreme Networks configured tenant id
-	 * @param accountId Extreme Networks configured account id
-	 * @return
-	 */
-	@GET
-	@Path("triggerUpdate")
-	@Produces(MediaType.APPLICATION_JSON)
-	public String triggerUpdateAllResources(@QueryParam("tenantId") String tenantId,
-			@QueryParam("accountId") String accountId) {
-
-		try {
-			/* Retrieve the config for the given tenant & account from Datastore */
-			AccountConfig accountConfig = new AccountConfig();
-			String accountValidationMsg = retrieveAccountConfigFromDb(tenantId, accountId, accountConfig);
-
-			if (!accountValidationMsg.isEmpty()) {
-				return accountValidationMsg;
-			}
-
-			/* Config and start the background worker */
-			logger.debug("Creating background worker to import resource data from GPC project "
-					+ accountConfig.getProjectId() + " for tenant " + tenantId);
-
-			executor.execute(new ResourcesWorker(accountConfig, RABBIT_QUEUE_NAME, rabbitChannel, datastore));
-
-			return jsonMapper
-					.writeValueAsString(new WebResponse(0, "Successfully triggered an update of all resource data"));
-
-		} catch (Exception ex) {
-			String msg = "General Error";
-			logger.error(msg, ex);
-			String returnValue;
-			try {
-				returnValue = jsonMapper.writeValueAsString(new WebResponse(4, msg));
-				return returnValue;
-			} catch (Exception ex2) {
-				return msg;
-			}
-		}
-	}
-
-	/**
-	 * Retrieves the account config for the given tenant and account from Datastore.
-	 * Stores the matching account config in the provided accountConfig parameter.
-	 * Also validates the given tenantId and accountId params.
-	 * 
-	 * @param tenantId      Extreme Networks configured tenant id
-	 * @param accountId     Extreme Networks configured account id
-	 * @param accountConfig Empty, instantiated AccountConfig object that will be
-	 *                      populated with the account config if found in Datastore
-	 * @return An empty string if no error occured. If there was a problem, it
-	 *         returns a JSON-configured string that can be used as an HTTP reponse.
-	 */
-	private String retrieveAccountConfigFromDb(String tenantId, String accountId, AccountConfig accountConfig) {
-
-		try {
-			if (tenantId == null || tenantId.isEmpty()) {
-
-				String msg = "Missing URL parameter tenantId";
-				logger.warn(msg);
-				return jsonMapper.writeValueAsString(new WebResponse(1, msg));
-			}
-
-			if (accountId == null || accountId.isEmpty()) {
-
-				String msg = "Missing URL parameter accountId";
-				logger.warn(msg);
-				return jsonMapper.writeValueAsString(new WebResponse(2, msg));
-			}
-
-			// Retrieve all configured GCP source systems for this tenant
-			logger.debug("Retrieving config for tenant id " + tenantId + " and account id " + accountId);
-
-			Query<Entity> query = Query.newEntityQueryBuilder().setNamespace(tenantId)
-					.setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT).build();
-
-			QueryResults<Entity> queryResults = datastore.run(query);
-
-			while (queryResults.hasNext()) {
-
-				Entity srcSysEntity = queryResults.next();
-				String srcSysAccountId = srcSysEntity.getKey().getName();
-
-				// Try to match the given account id with the configured account (Entity key
-				// name == accountId)
-				if (accountId.equals(srcSysAccountId)) {
-
-					if (srcSysEntity.isNull("projectId") || srcSysEntity.isNull("credentialsFileContent")) {
-						String msg = "Found account config but it is missing property projectId and/or credentialsFileContent";
-						logger.warn(msg);
-						return jsonMapper.writeValueAsString(new WebResponse(3, msg));
-					}
-
-					if (srcSysEntity.getString("projectId").isEmpty()
-							|| srcSysEntity.getString("credentialsFileContent").isEmpty()) {
-						String msg = "Found account config but property projectId and/or credentialsFileContent is empty";
-						logger.warn(msg);
-						return jsonMapper.writeValueAsString(new WebResponse(4, msg));
-					}
-
-					accountConfig.setTenantId(tenantId);
-					accountConfig.setAccountId(accountId);
-					accountConfig.setProjectId(srcSysEntity.getString("projectId"));
-					accountConfig.setCredentialsFileContent(srcSysEntity.getString("credentialsFileContent"));
-
-					logger.debug("Found configured GCP source system with project id " + accountConfig.getProjectId());
-					return "";
-				}
-			}
-
-			String msg = "Could not find a configured GCP source system for tenant id " + tenantId + " and account id "
-					+ accountId;
-			logger.warn(msg);
-			return jsonMapper.writeValueAsString(new WebResponse(5, msg));
-
-		} catch (Exception ex) {
-			String msg = "General Error";
-			logger.error(msg, ex);
-			String returnValue;
-			try {
-				returnValue = jsonMapper.writeValueAsString(new WebResponse(6, msg));
-				return returnValue;
-			} catch (Exception ex2) {
-				return msg;
-			}
-		}
-	}
-
-	// @POST
-	// @Path("triggerUpdate")
-	// @Consumes(MediaType.APPLICATION_JSON)
-	// @Produces(MediaType.APPLICATION_JSON)
-	// public String triggerUpdateAllResources(String authFileContent,
-	// @QueryParam("projectId") String projectId) {
-
-	// try {
-	// if (projectId == null || projectId.isEmpty()) {
-
-	// String msg = "The projectId query parameter is not provided - not triggering
-	// an update!";
-	// logger.warn(msg);
-	// return jsonMapper.writeValueAsString(new WebResponse(1, msg));
-	// }
-
-	// /* Config and start the background worker */
-	// logger.debug("Creating background worker to import compute data from GPC
-	// project " + projectId);
-
-	// executor.execute(new ResourcesWorker(projectId, authFileContent,
-	// RABBIT_QUEUE_NAME, rabbitChannel));
-
-	// return jsonMapper.writeValueAsString(
-	// new WebResponse(0, "Successfully triggered an update of all resource
-	// data"));
-
-	// } catch (Exception ex) {
-	// logger.error(
-	// "Error parsing parameters and trying to setup the background worker to
-	// trigger an update on all resources",
-	// ex);
-	// return "";
-	// }
-	// }
-
-	// private String retrieveDataFromDb(String projectId) {
-
-	// logger.debug("Retrieving all resource data for GCP project " + projectId + "
-	// from the DB");
-
-	// try {
-	// java.sql.Connection con = DriverManager.getConnection(dbConnString, dbUser,
-	// dbPassword);
-
-	// // Query the DB for all resource data for the given account ID
-	// String query = "SELECT lastUpdated, resourceType, resourceData FROM gcp WHERE
-	// projectId = '" + projectId
-	// + "'";
-
-	// Statement st = con.createStatement();
-	// ResultSet rs = st.executeQuery(query);
-
-	// /*
-	// * Start building the JSON string which contains some meta data. Example:
-	// *
-	// * "dataType": "resources", "sourceSystemType": "gcp",
-	// "sourceSystemProjectId":
-	// * "418454969983",
-	// */
-	// ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-	// JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream,
-	// JsonEncoding.UTF8);
-
-	// jsonGen.writeStartObject();
-
-	// jsonGen.writeStringField("dataType", "resources");
-	// jsonGen.writeStringField("sourceSystemType", "gcp");
-	// jsonGen.writeStringField("sourceSystemProjectId", projectId);
-
-	// /*
-	// * The "data" field will contain an array of objects. Each object will contain
-	// * all data on a particular resource type
-	// */
-	// jsonGen.writeArrayFieldStart("data");
-
-	// while (rs.next()) {
-
-	// String resourceType = rs.getString("resourceType");
-	// logger.debug("Retrieved next DB row: " + ", lastUpdated: " +
-	// rs.getString("lastUpdated")
-	// + ", resourceType: " + rs.getString("resourceType") + ", resourceData: "
-	// + rs.getString("resourceData").substring(0, 200) + "...");
-
-	// if (resourceType != null && !resourceType.isEmpty()) {
-
-	// jsonGen.writeStartObject();
-
-	// /*
-	// * Per resource type, the following meta data will be written (example):
-	// * "lastUpdated": "2019-04-05 15:22:38", "resourceType": "Subnet",
-	// * "resourceData": [ ... list of subnets ... ]
-	// */
-	// jsonGen.writeStringField("lastUpdated",
-	// dateFormatter.format(rs.getTimestamp("lastUpdated")));
-	// jsonGen.writeStringField("resourceType", rs.getString("resourceType"));
-
-	// // The list of subnets is already stored as a JSON string in the DB
-	// jsonGen.writeFieldName("resourceData");
-	// jsonGen.writeRawValue(rs.getString("resourceData"));
-
-	// jsonGen.writeEndObject();
-	// }
-
-	// }
-
-	// // Finalize the JSON string and output stream
-	// jsonGen.writeEndArray();
-	// jsonGen.writeEndObject();
-
-	// jsonGen.close();
-	// outputStream.close();
-
-	// return outputStream.toString();
-
-	// } catch (Exception ex) {
-	// logger.error(ex);
-	// }
-
-	// return "";
-	// }
-
+package com.extremenetworks.hcm.gcp.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.extremenetworks.hcm.gcp.AccountConfig;
+import com.extremenetworks.hcm.gcp.GoogleClientRegistry;
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.OperationThrottle;
+import com.extremenetworks.hcm.gcp.OperationWatcher;
+import com.extremenetworks.hcm.gcp.ServiceContext;
+import com.extremenetworks.hcm.gcp.UpdateCoalescer;
+import com.extremenetworks.hcm.gcp.utils.AccountConfigCache;
+import com.extremenetworks.hcm.gcp.utils.DataCodec;
+import com.extremenetworks.hcm.gcp.utils.DataVersion;
+import com.extremenetworks.hcm.gcp.utils.DatastoreChunks;
+import com.extremenetworks.hcm.gcp.utils.RabbitChannelPool;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache.ResourceTypeData;
+import com.extremenetworks.hcm.gcp.utils.TriggerResponse;
+import com.extremenetworks.hcm.gcp.utils.WebResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.EntityQuery;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.Filter;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Value;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+@Path("resources")
+public class ResourcesRes {
+
+	private static final Logger logger = LogManager.getLogger(ResourcesRes.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+
+	private static final String GZIP = "gzip";
+
+	// The chunks of a resource type are read again if an import replaced them
+	// while reading them, up to this many times
+	private static final int MAX_LOAD_ATTEMPTS = 3;
+
+	// private final String dbConnString =
+	// "jdbc:mysql://hcm-mysql:3306/Resources?useSSL=false";
+	// private final String dbUser = "root";
+	// private final String dbPassword = "password";
+
+	// Shared Rabbit MQ channels and background worker threads
+	private final RabbitChannelPool rabbitChannels;
+	private final UpdateCoalescer updateCoalescer;
+	private final GoogleClientRegistry clientRegistry;
+	private final OperationWatcher operationWatcher;
+	private final OperationThrottle operationThrottle;
+	private final ExecutorService discoveryExecutor;
+	private final ExecutorService prefetchExecutor;
+
+	// Datastore connection
+	private final Datastore datastore;
+	private final AccountConfigCache accountConfigCache;
+	private final ResourceSnapshotCache resourceSnapshotCache;
+
+	@Inject
+	public ResourcesRes(ServiceContext serviceContext) {
+
+		this.rabbitChannels = serviceContext.getRabbitChannels();
+
+		// For long running background threads that pull data from customers' GCP
+		// accounts
+		this.updateCoalescer = serviceContext.getUpdateCoalescer();
+		this.clientRegistry = serviceContext.getClientRegistry();
+		this.operationWatcher = serviceContext.getOperationWatcher();
+		this.operationThrottle = serviceContext.getOperationThrottle();
+		this.discoveryExecutor = serviceContext.getDiscoveryExecutor();
+		this.prefetchExecutor = serviceContext.getPrefetchExecutor();
+
+		// Extreme Networks' GCP datastore
+		this.datastore = serviceContext.getDatastore();
+		this.accountConfigCache = serviceContext.getAccountConfigCache();
+		this.resourceSnapshotCache = serviceContext.getResourceSnapshotCache();
+	}
+
+	/**
+	 * Retrieves all resource data (VMs, subnets, networks, etc.) for the given
+	 * tenant and account from the Datastore. Generate a JSON-formated string.
+	 * Example: { "dataType": "resources", "sourceSystemType": "gcp",
+	 * "sourceSystemProjectId": "418454969983", "data": [ { "lastUpdated":
+	 * "2019-04-05 15:22:38", "resourceType": "Subnet", "resourceData": [ { "tags":
+	 * [], "state": "available", "vpcId": "vpc-d3358ab6", ... }, ...
+	 * 
+	 * The data of recently read or updated accounts is served from an in-memory
+	 * cache. Other accounts' data is streamed to the client while it is read from
+	 * the Datastore, one resource type at a time, and added to the cache
+	 * afterwards if it isn't too large to be cached.
+	 * 
+	 * Supports conditional requests: the response carries an ETag and
+	 * Last-Modified header derived from the stored entities, and requests with a
+	 * matching If-None-Match or If-Modified-Since header get a "304 Not Modified"
+	 * without the data being read at all.
+	 * 
+	 * Clients accepting gzip get the compressed document that has been built
+	 * once for the cached data, as is. Data that isn't cached is compressed while
+	 * it is streamed.
+	 * 
+	 * @param tenantId
+	 * @param accountId
+	 */
+	@GET
+	@Path("all")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response retrieveAllResources(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+			@Context Request request) {
+
+		try {
+			boolean gzip = ResourcesDocument.acceptsGzip(acceptEncoding);
+
+			/* Retrieve the config for the given tenant & account from Datastore */
+			AccountConfig accountConfig = new AccountConfig();
+			String accountValidationMsg = retrieveAccountConfigFromDb(tenantId, accountId, accountConfig);
+
+			if (!accountValidationMsg.isEmpty()) {
+				return Response.ok(accountValidationMsg).build();
+			}
+
+			// Served from memory if the account's resource data has been read or
+			// written recently
+			ResourceSnapshotCache.Snapshot snapshot = resourceSnapshotCache.get(tenantId, accountId);
+
+			if (snapshot == null) {
+
+				logger.debug("Retrieving all resource data for tenant id " + tenantId + " and account id "
+						+ accountId + " from the GCP Datastore");
+
+				Key accountKey = datastore.newKeyFactory().setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT)
+						.setNamespace(tenantId).newKey(accountId);
+
+				// Only the keys and timestamps of the stored data are read for this, so
+				// clients that are up to date don't cause the data to be loaded
+				DataVersion storedVersion = DataVersion.retrieve(datastore, tenantId,
+						Main.DS_ENTITY_KIND_DATA_RESOURCES, accountKey);
+
+				if (storedVersion != null && gzip) {
+					storedVersion = storedVersion.forEncoding(GZIP);
+				}
+
+				if (storedVersion != null) {
+					Response notModified = storedVersion.evaluatePreconditions(request);
+					if (notModified != null) {
+						logger.debug("Resource data for tenant id " + tenantId + " and account id " + accountId
+								+ " hasn't changed - responding with 304");
+						return notModified;
+					}
+				}
+
+				long generation = resourceSnapshotCache.getGeneration();
+
+				// Retrieve all types of resources from GCP Datastore - Firewalls, VMs, etc.
+				Query<Entity> queryResources = Query.newEntityQueryBuilder().setNamespace(tenantId)
+						.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCES).setFilter(PropertyFilter.hasAncestor(accountKey))
+						.build();
+
+				// Runs the query and reads the first batch of results. Errors up to here are
+				// still reported as a JSON error response
+				QueryResults<Entity> queryResourcesResults = datastore.run(queryResources);
+
+				StreamingOutput responseBody = outputStream -> {
+					try {
+						if (gzip) {
+							// Compressed while it is written, nothing is buffered
+							GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+							streamResources(gzipStream, tenantId, accountId, queryResourcesResults, generation);
+
+							// Only writes the trailer, the servlet output stream is closed by Jersey
+							gzipStream.finish();
+
+						} else {
+							streamResources(outputStream, tenantId, accountId, queryResourcesResults, generation);
+						}
+
+					} catch (Exception ex) {
+						// The response has already been started - all that's left is aborting it
+						logger.error("Error while streaming the resource data for tenant id " + tenantId
+								+ " and account id " + accountId, ex);
+						throw new WebApplicationException(ex);
+					}
+				};
+
+				ResponseBuilder response = Response.ok(responseBody);
+				if (storedVersion != null) {
+					storedVersion.addValidators(response);
+				}
+				if (gzip) {
+					response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+				}
+				return response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+			}
+
+			DataVersion dataVersion = DataVersion.of(snapshot.getLastUpdatedByResourceType());
+			if (gzip) {
+				dataVersion = dataVersion.forEncoding(GZIP);
+			}
+
+			Response notModified = dataVersion.evaluatePreconditions(request);
+			if (notModified != null) {
+				logger.debug("Resource data for tenant id " + tenantId + " and account id " + accountId
+						+ " hasn't changed - responding with 304");
+				return notModified;
+			}
+
+			if (gzip) {
+				// Built once per cached snapshot, then copied to the response without
+				// transformation
+				byte[] gzippedDocument = resourceSnapshotCache.getGzippedDocument(snapshot);
+				if (gzippedDocument == null) {
+					gzippedDocument = ResourcesDocument.gzip(snapshot);
+					resourceSnapshotCache.setGzippedDocument(snapshot, gzippedDocument);
+				}
+
+				return dataVersion.addValidators(Response.ok(gzippedDocument))
+						.header(HttpHeaders.CONTENT_ENCODING, GZIP)
+						.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+			}
+
+			ResourceSnapshotCache.Snapshot responseSnapshot = snapshot;
+
+			StreamingOutput responseBody = outputStream -> {
+				try {
+					ResourcesDocument.write(outputStream, responseSnapshot);
+
+				} catch (Exception ex) {
+					// The response has already been started - all that's left is aborting it
+					logger.error("Error while streaming the resource data for tenant id " + tenantId
+							+ " and account id " + accountId, ex);
+					throw new WebApplicationException(ex);
+				}
+			};
+
+			return dataVersion.addValidators(Response.ok(responseBody))
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(4, msg));
+				return Response.ok(returnValue).build();
+			} catch (Exception ex2) {
+				return Response.ok(msg).build();
+			}
+		}
+	}
+
+	/**
+	 * Writes the JSON document of retrieveAllResources() to the given stream, one
+	 * resource type at a time as the query results are read. The data read is
+	 * added to the cache afterwards, unless it is too large to be cached - it is
+	 * only kept in memory as long as it fits.
+	 * 
+	 * @param generation Generation of the cache at the time the query was run
+	 */
+	private void streamResources(OutputStream outputStream, String tenantId, String accountId,
+			QueryResults<Entity> queryResourcesResults, long generation) throws IOException {
+
+		ResourcesDocument.Writer writer = new ResourcesDocument.Writer(outputStream, tenantId, accountId);
+
+		// The resource types written so far or null once they are too large to be
+		// cached
+		Map<String, ResourceTypeData> resourceTypes = new TreeMap<String, ResourceTypeData>();
+		long bytes = 0;
+
+		while (queryResourcesResults.hasNext()) {
+
+			Entity resourceDataEntity = queryResourcesResults.next();
+			String resourceType = resourceDataEntity.getString("resourceType");
+
+			if (resourceType == null || resourceType.isEmpty()) {
+				continue;
+			}
+
+			ResourceTypeData resourceTypeData = readResourceType(resourceDataEntity);
+			writer.write(resourceTypeData);
+
+			if (resourceTypes != null) {
+				bytes += resourceTypeData.getBytes();
+
+				if (resourceSnapshotCache.fits(bytes)) {
+					resourceTypes.put(resourceType, resourceTypeData);
+				} else {
+					logger.debug("Resource data of tenant id " + tenantId + " and account id " + accountId
+							+ " is too large to be cached - streaming it only");
+					resourceTypes = null;
+				}
+			}
+		}
+
+		writer.finish();
+
+		if (resourceTypes != null) {
+			resourceSnapshotCache.put(new ResourceSnapshotCache.Snapshot(tenantId, accountId, resourceTypes),
+					generation);
+		}
+	}
+
+	/**
+	 * Reads the data of one resource type, from the given entity or from its
+	 * chunks. Chunks that have been replaced by a newer import while reading them
+	 * are read again, from the newer import.
+	 */
+	private ResourceTypeData readResourceType(Entity resourceDataEntity) throws IOException {
+
+		for (int attempt = 1;; attempt++) {
+
+			if (!resourceDataEntity.contains(DatastoreChunks.PROPERTY_CHUNK_COUNT)) {
+				return new ResourceTypeData(resourceDataEntity.getString("resourceType"),
+						resourceDataEntity.getTimestamp("lastUpdated"),
+						DataCodec.decode(resourceDataEntity, "resourceData"));
+			}
+
+			List<Entity> chunks = DatastoreChunks.fetch(datastore,
+					DatastoreChunks.chunkKeys(resourceDataEntity.getKey(), Main.DS_ENTITY_KIND_DATA_RESOURCES_CHUNK,
+							resourceDataEntity.getString(DatastoreChunks.PROPERTY_CHUNK_VERSION),
+							(int) resourceDataEntity.getLong(DatastoreChunks.PROPERTY_CHUNK_COUNT)));
+			List<Value<?>> resourceDataChunks = DatastoreChunks.getData(chunks);
+
+			if (resourceDataChunks != null) {
+				return new ResourceTypeData(resourceDataEntity.getString("resourceType"),
+						resourceDataEntity.getTimestamp("lastUpdated"),
+						DataCodec.decode(resourceDataChunks, DataCodec.getCodec(resourceDataEntity)));
+			}
+
+			// The chunks read have been replaced by a newer import in the meantime
+			Key resourceDataKey = resourceDataEntity.getKey();
+			resourceDataEntity = datastore.get(resourceDataKey);
+
+			if (attempt >= MAX_LOAD_ATTEMPTS || resourceDataEntity == null) {
+				throw new IllegalStateException(
+						"Resource data " + resourceDataKey + " kept changing while reading it");
+			}
+			logger.debug("Resource data " + resourceDataKey + " changed while reading it - reading it again");
+		}
+	}
+
+	/**
+	 * Retrieves single resources of the given tenant and account, from their own
+	 * entities: either one resource by its type and id or all resources matching
+	 * the given filters, e.g. all VMs of a zone or all firewalls with a particular
+	 * target tag. Responds with the same JSON format as /all, containing the
+	 * matching resource types only. The filters are served by Datastore's
+	 * built-in indexes, so only the matching resources are read.
+	 * 
+	 * @param tenantId     Extreme Networks configured tenant id
+	 * @param accountId    Extreme Networks configured account id
+	 * @param resourceType Optional: VM, Firewall, Network, Subnet, Region or Zone
+	 * @param id           Optional: GCE id of the resource. Requires the
+	 *                     resourceType, all other filters are ignored
+	 * @param name         Optional: name of the resources
+	 * @param zone         Optional: zone of the resources (VMs, zones)
+	 * @param region       Optional: region of the resources (VMs, subnets, zones,
+	 *                     regions)
+	 * @param network      Optional: network the resources are attached to (VMs,
+	 *                     subnets, firewalls)
+	 * @param status       Optional: status of the resources, e.g. RUNNING
+	 * @param tag          Optional: network tag of the resources (VMs) or target
+	 *                     tag (firewalls)
+	 * @return
+	 */
+	@GET
+	@Path("query")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response queryResources(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId, @QueryParam("resourceType") String resourceType,
+			@QueryParam("id") String id, @QueryParam("name") String name, @QueryParam("zone") String zone,
+			@QueryParam("region") String region, @QueryParam("network") String network,
+			@QueryParam("status") String status, @QueryParam("tag") String tag) {
+
+		try {
+			if (!Main.DS_RESOURCE_ENTITIES_ENABLED) {
+				String msg = "Resources are not stored as single entities - use /resources/all instead";
+				logger.warn(msg);
+				return Response.ok(jsonMapper.writeValueAsString(new WebResponse(7, msg))).build();
+			}
+
+			/* Retrieve the config for the given tenant & account from Datastore */
+			AccountConfig accountConfig = new AccountConfig();
+			String accountValidationMsg = retrieveAccountConfigFromDb(tenantId, accountId, accountConfig);
+
+			if (!accountValidationMsg.isEmpty()) {
+				return Response.ok(accountValidationMsg).build();
+			}
+
+			List<Entity> resourceEntities = new ArrayList<Entity>();
+
+			if (!isEmpty(id)) {
+
+				if (isEmpty(resourceType)) {
+					String msg = "Missing URL parameter resourceType, required together with id";
+					logger.warn(msg);
+					return Response.ok(jsonMapper.writeValueAsString(new WebResponse(8, msg))).build();
+				}
+
+				// A single lookup by key
+				Key resourceKey = ResourceItem.entityKey(datastore, tenantId, accountId,
+						ResourceItem.keyName(resourceType, id));
+
+				Entity resourceEntity = datastore.get(resourceKey);
+				if (resourceEntity != null) {
+					resourceEntities.add(resourceEntity);
+				}
+
+			} else {
+				List<Filter> filters = new ArrayList<Filter>();
+				addEqualityFilter(filters, ResourceItem.PROPERTY_RESOURCE_TYPE, resourceType);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_NAME, name);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_ZONE, zone);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_REGION, region);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_NETWORK, network);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_STATUS, status);
+				addEqualityFilter(filters, ResourceItem.PROPERTY_TAG, tag);
+
+				// Equality filters only - no composite index needed
+				EntityQuery queryResources = Query.newEntityQueryBuilder().setNamespace(tenantId)
+						.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCE)
+						.setFilter(CompositeFilter.and(PropertyFilter.eq(ResourceItem.PROPERTY_ACCOUNT_ID, accountId),
+								filters.toArray(new Filter[filters.size()])))
+						.build();
+
+				QueryResults<Entity> queryResourcesResults = datastore.run(queryResources);
+				while (queryResourcesResults.hasNext()) {
+					resourceEntities.add(queryResourcesResults.next());
+				}
+			}
+
+			logger.debug("Found " + resourceEntities.size() + " matching resources for tenant id " + tenantId
+					+ " and account id " + accountId);
+
+			ResourceSnapshotCache.Snapshot matches = toSnapshot(tenantId, accountId, resourceEntities);
+
+			StreamingOutput responseBody = outputStream -> {
+				try {
+					ResourcesDocument.write(outputStream, matches);
+
+				} catch (Exception ex) {
+					// The response has already been started - all that's left is aborting it
+					logger.error("Error while streaming the queried resources for tenant id " + tenantId
+							+ " and account id " + accountId, ex);
+					throw new WebApplicationException(ex);
+				}
+			};
+
+			return Response.ok(responseBody).build();
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(4, msg));
+				return Response.ok(returnValue).build();
+			} catch (Exception ex2) {
+				return Response.ok(msg).build();
+			}
+		}
+	}
+
+	/**
+	 * Groups the given resource entities by resource type, the same way the
+	 * resource data is stored per type. Not cached, it only holds the matches of a
+	 * single query.
+	 */
+	private static ResourceSnapshotCache.Snapshot toSnapshot(String tenantId, String accountId,
+			List<Entity> resourceEntities) throws IOException {
+
+		Map<String, StringBuilder> resourceDataByType = new TreeMap<String, StringBuilder>();
+		Map<String, Timestamp> lastUpdatedByType = new TreeMap<String, Timestamp>();
+
+		for (Entity resourceEntity : resourceEntities) {
+
+			String resourceType = resourceEntity.getString(ResourceItem.PROPERTY_RESOURCE_TYPE);
+			Timestamp lastUpdated = resourceEntity.getTimestamp(ResourceItem.PROPERTY_LAST_UPDATED);
+
+			StringBuilder resourceData = resourceDataByType.get(resourceType);
+			if (resourceData == null) {
+				resourceData = new StringBuilder("[");
+				resourceDataByType.put(resourceType, resourceData);
+			} else {
+				resourceData.append(',');
+			}
+			resourceData.append(ResourceItem.getResourceData(resourceEntity));
+
+			// The most recent change of the matching resources of that type
+			Timestamp latest = lastUpdatedByType.get(resourceType);
+			if (latest == null || lastUpdated.compareTo(latest) > 0) {
+				lastUpdatedByType.put(resourceType, lastUpdated);
+			}
+		}
+
+		Map<String, ResourceTypeData> resourceTypes = new TreeMap<String, ResourceTypeData>();
+		for (Map.Entry<String, StringBuilder> resourceData : resourceDataByType.entrySet()) {
+			String resourceType = resourceData.getKey();
+			resourceTypes.put(resourceType, new ResourceTypeData(resourceType, lastUpdatedByType.get(resourceType),
+					resourceData.getValue().append(']').toString()));
+		}
+
+		return new ResourceSnapshotCache.Snapshot(tenantId, accountId, resourceTypes);
+	}
+
+	private static void addEqualityFilter(List<Filter> filters, String property, String value) {
+
+		if (!isEmpty(value)) {
+			filters.add(PropertyFilter.eq(property, value));
+		}
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.isEmpty();
+	}
+
+	/**
+	 * Starts a background worker that pulls all resources from the given account.
+	 * This is a non-blocking REST call that just starts that worker in a separate
+	 * thread and immediately responds to the caller. Once the background worker is
+	 * done retrieving all data from GCP it will a) update the DB and b) publish the
+	 * data to RabbitMQ
+	 * 
+	 * @param tenantId  Extreme Networks configured tenant id
+	 * @param accountId Extreme Networks configured account id
+	 * @return
+	 */
+	@GET
+	@Path("triggerUpdate")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response triggerUpdateAllResources(@QueryParam("tenantId") String tenantId,
+			@QueryParam("accountId") String accountId) {
+
+		try {
+			/* Retrieve the config for the given tenant & account from Datastore */
+			AccountConfig accountConfig = new AccountConfig();
+			String accountValidationMsg = retrieveAccountConfigFromDb(tenantId, accountId, accountConfig);
+
+			if (!accountValidationMsg.isEmpty()) {
+				return Response.ok(accountValidationMsg).build();
+			}
+
+			String rabbitQueueName = tenantId + Main.RABBIT_QUEUE_POSTFIX_RESOURCES;
+			rabbitChannels.declareQueue(rabbitQueueName, false);
+
+			/* Config and start the background worker */
+			logger.debug("Creating background worker to import resource data from GPC project "
+					+ accountConfig.getProjectId() + " for tenant " + tenantId);
+
+			// Triggers for an account that is already being imported don't start
+			// another import in parallel
+			UpdateCoalescer.Result result = updateCoalescer.trigger("resources", tenantId, accountId,
+					job -> new ResourcesWorker(accountConfig, rabbitQueueName, rabbitChannels, datastore,
+							discoveryExecutor, prefetchExecutor, clientRegistry, operationWatcher,
+							operationThrottle, resourceSnapshotCache, job));
+
+			return Response.ok(jsonMapper.writeValueAsString(TriggerResponse.forResult(result, "resource data")))
+					.build();
+
+		} catch (RejectedExecutionException ex) {
+			String msg = "Too many background updates pending - not triggering another one";
+			logger.warn(msg);
+			try {
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+						.entity(jsonMapper.writeValueAsString(new WebResponse(5, msg))).build();
+			} catch (Exception ex2) {
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(msg).build();
+			}
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(4, msg));
+				return Response.ok(returnValue).build();
+			} catch (Exception ex2) {
+				return Response.ok(msg).build();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the account config for the given tenant and account from the cache
+	 * or, if not cached, from Datastore. Stores the matching account config in the
+	 * provided accountConfig parameter.
+	 * Also validates the given tenantId and accountId params.
+	 * 
+	 * @param tenantId      Extreme Networks configured tenant id
+	 * @param accountId     Extreme Networks configured account id
+	 * @param accountConfig Empty, instantiated AccountConfig object that will be
+	 *                      populated with the account config if found in Datastore
+	 * @return An empty string if no error occured. If there was a problem, it
+	 *         returns a JSON-configured string that can be used as an HTTP reponse.
+	 */
+	private String retrieveAccountConfigFromDb(String tenantId, String accountId, AccountConfig accountConfig) {
+
+		try {
+			if (tenantId == null || tenantId.isEmpty()) {
+
+				String msg = "Missing URL parameter tenantId";
+				logger.warn(msg);
+				return jsonMapper.writeValueAsString(new WebResponse(1, msg));
+			}
+
+			if (accountId == null || accountId.isEmpty()) {
+
+				String msg = "Missing URL parameter accountId";
+				logger.warn(msg);
+				return jsonMapper.writeValueAsString(new WebResponse(2, msg));
+			}
+
+			if (accountConfigCache.get(tenantId, accountId, accountConfig)) {
+				logger.debug("Using cached config for tenant id " + tenantId + " and account id " + accountId);
+				return "";
+			}
+
+			// The configured account is stored with the account id as key name
+			logger.debug("Retrieving config for tenant id " + tenantId + " and account id " + accountId);
+
+			Key accountKey = datastore.newKeyFactory().setNamespace(tenantId)
+					.setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT).newKey(accountId);
+			Entity srcSysEntity = datastore.get(accountKey);
+
+			if (srcSysEntity != null) {
+
+				if (srcSysEntity.isNull("projectId") || srcSysEntity.isNull("credentialsFileContent")) {
+					String msg = "Found account config but it is missing property projectId and/or credentialsFileContent";
+					logger.warn(msg);
+					return jsonMapper.writeValueAsString(new WebResponse(3, msg));
+				}
+
+				if (srcSysEntity.getString("projectId").isEmpty()
+						|| srcSysEntity.getString("credentialsFileContent").isEmpty()) {
+					String msg = "Found account config but property projectId and/or credentialsFileContent is empty";
+					logger.warn(msg);
+					return jsonMapper.writeValueAsString(new WebResponse(4, msg));
+				}
+
+				accountConfig.setTenantId(tenantId);
+				accountConfig.setAccountId(accountId);
+				accountConfig.setProjectId(srcSysEntity.getString("projectId"));
+				accountConfig.setCredentialsFileContent(srcSysEntity.getString("credentialsFileContent"));
+
+				accountConfigCache.put(accountConfig);
+
+				logger.debug("Found configured GCP source system with project id " + accountConfig.getProjectId());
+				return "";
+			}
+
+			String msg = "Could not find a configured GCP source system for tenant id " + tenantId + " and account id "
+					+ accountId;
+			logger.warn(msg);
+			return jsonMapper.writeValueAsString(new WebResponse(5, msg));
+
+		} catch (Exception ex) {
+			String msg = "General Error";
+			logger.error(msg, ex);
+			String returnValue;
+			try {
+				returnValue = jsonMapper.writeValueAsString(new WebResponse(6, msg));
+				return returnValue;
+			} catch (Exception ex2) {
+				return msg;
+			}
+		}
+	}
+
+	// @POST
+	// @Path("triggerUpdate")
+	// @Consumes(MediaType.APPLICATION_JSON)
+	// @Produces(MediaType.APPLICATION_JSON)
+	// public String triggerUpdateAllResources(String authFileContent,
+	// @QueryParam("projectId") String projectId) {
+
+	// try {
+	// if (projectId == null || projectId.isEmpty()) {
+
+	// String msg = "The projectId query parameter is not provided - not triggering
+	// an update!";
+	// logger.warn(msg);
+	// return jsonMapper.writeValueAsString(new WebResponse(1, msg));
+	// }
+
+	// /* Config and start the background worker */
+	// logger.debug("Creating background worker to import compute data from GPC
+	// project " + projectId);
+
+	// executor.execute(new ResourcesWorker(projectId, authFileContent,
+	// RABBIT_QUEUE_NAME, rabbitChannel));
+
+	// return jsonMapper.writeValueAsString(
+	// new WebResponse(0, "Successfully triggered an update of all resource
+	// data"));
+
+	// } catch (Exception ex) {
+	// logger.error(
+	// "Error parsing parameters and trying to setup the background worker to
+	// trigger an update on all resources",
+	// ex);
+	// return "";
+	// }
+	// }
+
+	// private String retrieveDataFromDb(String projectId) {
+
+	// logger.debug("Retrieving all resource data for GCP project " + projectId + "
+	// from the DB");
+
+	// try {
+	// java.sql.Connection con = DriverManager.getConnection(dbConnString, dbUser,
+	// dbPassword);
+
+	// // Query the DB for all resource data for the given account ID
+	// String query = "SELECT lastUpdated, resourceType, resourceData FROM gcp WHERE
+	// projectId = '" + projectId
+	// + "'";
+
+	// Statement st = con.createStatement();
+	// ResultSet rs = st.executeQuery(query);
+
+	// /*
+	// * Start building the JSON string which contains some meta data. Example:
+	// *
+	// * "dataType": "resources", "sourceSystemType": "gcp",
+	// "sourceSystemProjectId":
+	// * "418454969983",
+	// */
+	// ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+	// JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream,
+	// JsonEncoding.UTF8);
+
+	// jsonGen.writeStartObject();
+
+	// jsonGen.writeStringField("dataType", "resources");
+	// jsonGen.writeStringField("sourceSystemType", "gcp");
+	// jsonGen.writeStringField("sourceSystemProjectId", projectId);
+
+	// /*
+	// * The "data" field will contain an array of objects. Each object will contain
+	// * all data on a particular resource type
+	// */
+	// jsonGen.writeArrayFieldStart("data");
+
+	// while (rs.next()) {
+
+	// String resourceType = rs.getString("resourceType");
+	// logger.debug("Retrieved next DB row: " + ", lastUpdated: " +
+	// rs.getString("lastUpdated")
+	// + ", resourceType: " + rs.getString("resourceType") + ", resourceData: "
+	// + rs.getString("resourceData").substring(0, 200) + "...");
+
+	// if (resourceType != null && !resourceType.isEmpty()) {
+
+	// jsonGen.writeStartObject();
+
+	// /*
+	// * Per resource type, the following meta data will be written (example):
+	// * "lastUpdated": "2019-04-05 15:22:38", "resourceType": "Subnet",
+	// * "resourceData": [ ... list of subnets ... ]
+	// */
+	// jsonGen.writeStringField("lastUpdated",
+	// dateFormatter.format(rs.getTimestamp("lastUpdated")));
+	// jsonGen.writeStringField("resourceType", rs.getString("resourceType"));
+
+	// // The list of subnets is already stored as a JSON string in the DB
+	// jsonGen.writeFieldName("resourceData");
+	// jsonGen.writeRawValue(rs.getString("resourceData"));
+
+	// jsonGen.writeEndObject();
+	// }
+
+	// }
+
+	// // Finalize the JSON string and output stream
+	// jsonGen.writeEndArray();
+	// jsonGen.writeEndObject();
+
+	// jsonGen.close();
+	// outputStream.close();
+
+	// return outputStream.toString();
+
+	// } catch (Exception ex) {
+	// logger.error(ex);
+	// }
+
+	// return "";
+	// }
+
 }
\ No newline at end of file
@@ -1,944 +1,1503 @@
-package com.extremenetworks.hcm.gcp.resources;
-
-import java.io.ByteArrayOutputStream;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-
-import com.extremenetworks.hcm.gcp.AccountConfig;
-import com.extremenetworks.hcm.gcp.GoogleComputeEngineManager;
-import com.fasterxml.jackson.core.JsonEncoding;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.services.compute.model.Firewall;
-import com.google.api.services.compute.model.Instance;
-import com.google.api.services.compute.model.Network;
-import com.google.api.services.compute.model.NetworkInterface;
-import com.google.api.services.compute.model.Region;
-import com.google.api.services.compute.model.Subnetwork;
-import com.google.api.services.compute.model.Zone;
-import com.google.cloud.Timestamp;
-import com.google.cloud.datastore.Datastore;
-import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Key;
-import com.google.cloud.datastore.PathElement;
-import com.google.cloud.datastore.StringValue;
-import com.rabbitmq.client.Channel;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-public class ResourcesWorker implements Runnable {
-
-	private static final Logger logger = LogManager.getLogger(ResourcesWorker.class);
-	private static ObjectMapper jsonMapper = new ObjectMapper();
-
-	// All config related to the GCP account
-	private AccountConfig accountConfig;
-
-	// Rabbit MQ config
-	private String RABBIT_QUEUE_NAME;
-	private Channel rabbitChannel;
-
-	// DB config
-	// private final String dbConnString =
-	// "jdbc:mysql://hcm-mysql:3306/Resources?useSSL=false";
-	// private final String dbUser = "root";
-	// private final String dbPassword = "password";
-
-	// Helpers / Utilities
-	private static final JsonFactory jsonFactory = new JsonFactory();
-	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	private final String SRC_SYS_TYPE = "GCP";
-	private final String DS_ENTITY_KIND_GCP_RESOURCES = "GCP_Resources";
-	private final String DS_ENTITY_KIND_SRC_SYS_GCP = "SourceSystemGcp";
-
-	private Datastore datastore;
-
-	private enum RESOURCE_TYPES {
-		VM, Firewall, Network, Subnet, Region, Zone
-	}
-
-	public ResourcesWorker(AccountConfig accountConfig, String RABBIT_QUEUE_NAME, Channel rabbitChannel,
-			Datastore datastore) {
-
-		// Extreme Networks' GCP Datastore connection
-		this.datastore = datastore;
-
-		// Customer tenant and customer GCP project id & corresponding credentials json
-		this.accountConfig = accountConfig;
-
-		// Rabbit MQ queue / channel
-		this.RABBIT_QUEUE_NAME = RABBIT_QUEUE_NAME;
-		this.rabbitChannel = rabbitChannel;
-
-		// try {
-		// // load and register JDBC driver for MySQL
-		// Class.forName("com.mysql.jdbc.Driver");
-		// } catch (Exception ex) {
-		// logger.error("Error loading mysql jdbc driver within the worker class", ex);
-		// }
-	}
-
-	@Override
-	public void run() {
-
-		logger.debug("Running background worker to import resource data for tenant " + accountConfig.getTenantId()
-				+ " from GCP " + accountConfig.getProjectId());
-
-		try {
-			String projectId = accountConfig.getProjectId();
-			String accountId = accountConfig.getAccountId();
-
-			GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager();
-			boolean connected = computeManager.createComputeConnection(projectId,
-					accountConfig.getCredentialsFileContent());
-
-			if (!connected) {
-				String msg = "Won't be able to retrieve any data from Google Compute Engine since no authentication/authorization/connection could be established";
-				logger.error(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			/* Load the JSON credentials file content */
-			// GoogleCredentials gcpCredentials = null;
-
-			// try {
-			// InputStream credFileInputStream = new ByteArrayInputStream(
-			// authFileContent.getBytes(StandardCharsets.UTF_8));
-			// gcpCredentials = GoogleCredentials.fromStream(credFileInputStream);
-
-			// } catch (Exception ex) {
-			// logger.error("Error loading the credentials JSON file content for authorizing
-			// against the GCP project "
-			// + projectId, ex);
-			// return;
-			// }
-
-			// Datastore datastore;
-
-			// try {
-			// datastore =
-			// DatastoreOptions.newBuilder().setCredentials(gcpCredentials).setProjectId(projectId).build()
-			// .getService();
-
-			// } catch (Exception e) {
-			// logger.error("Error while trying to setup the 'compute engine' connection for
-			// project " + projectId, e);
-			// return;
-			// }
-
-			/* Zones */
-			List<Object> allZones = computeManager.retrieveAllZones(projectId);
-			if (allZones == null || allZones.isEmpty()) {
-				String msg = "Error retrieving zones from GCP - stopping any further processing";
-				logger.warn(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			writeToDb(RESOURCE_TYPES.Zone, accountId, allZones);
-			publishBasicDataToRabbitMQ(RESOURCE_TYPES.Zone, allZones);
-
-			/* Regions */
-			List<Object> allRegions = computeManager.retrieveAllRegions(projectId);
-			if (allZones == null || allZones.isEmpty()) {
-				String msg = "Error retrieving zones from GCP - stopping any further processing";
-				logger.warn(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			writeToDb(RESOURCE_TYPES.Region, accountId, allRegions);
-			publishBasicDataToRabbitMQ(RESOURCE_TYPES.Region, allRegions);
-
-			/* Instances */
-			if (allZones != null && !allZones.isEmpty()) {
-
-				List<Object> allInstances = new ArrayList<Object>();
-
-				for (Object zoneGeneric : allZones) {
-
-					Zone zone = (Zone) zoneGeneric;
-					List<Object> instancesFromZone = computeManager.retrieveInstancesForZone(projectId, zone.getName());
-					if (instancesFromZone == null) {
-						String msg = "Error retrieving instances from GCP zone " + zone.getName()
-								+ " - stopping any further processing";
-						logger.warn(msg);
-						rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-						return;
-					}
-
-					allInstances.addAll(instancesFromZone);
-				}
-
-				writeToDb(RESOURCE_TYPES.VM, accountId, allInstances);
-				publishBasicDataToRabbitMQ(RESOURCE_TYPES.VM, allInstances);
-			}
-
-			/* Subnets */
-			if (allRegions != null && !allRegions.isEmpty()) {
-
-				List<Object> allSubnets = new ArrayList<Object>();
-
-				for (Object regionGeneric : allRegions) {
-
-					Region region = (Region) regionGeneric;
-					List<Object> subnetsFromRegion = computeManager.retrieveSubnetworksForRegion(projectId,
-							region.getName());
-					if (subnetsFromRegion == null) {
-						String msg = "Error retrieving subnets from GCP region " + region.getName()
-								+ " - stopping any further processing";
-						logger.warn(msg);
-						rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-						return;
-					}
-
-					allSubnets.addAll(subnetsFromRegion);
-				}
-
-				writeToDb(RESOURCE_TYPES.Subnet, accountId, allSubnets);
-				publishBasicDataToRabbitMQ(RESOURCE_TYPES.Subnet, allSubnets);
-			}
-
-			/* Firewalls */
-			List<Object> allFirewalls = computeManager.retrieveFirewalls(projectId, "", false);
-			if (allFirewalls == null || allFirewalls.isEmpty()) {
-				String msg = "Error retrieving firewalls from GCP - stopping any further processing";
-				logger.warn(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			writeToDb(RESOURCE_TYPES.Firewall, accountId, allFirewalls);
-			publishBasicDataToRabbitMQ(RESOURCE_TYPES.Firewall, allFirewalls);
-
-			/* Networks */
-			List<Object> allNetworks = computeManager.retrieveAllNetworks(projectId);
-			if (allNetworks == null || allNetworks.isEmpty()) {
-				String msg = "Error retrieving networks from GCP - stopping any further processing";
-				logger.warn(msg);
-				rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, msg.getBytes("UTF-8"));
-				return;
-			}
-
-			writeToDb(RESOURCE_TYPES.Network, accountId, allNetworks);
-			publishBasicDataToRabbitMQ(RESOURCE_TYPES.Network, allNetworks);
-
-			logger.debug("Finished retrieving all resources from GCP project " + projectId);
-
-		} catch (Exception ex) {
-			logger.error(ex);
-			return;
-		}
-	}
-
-	/**
-	 * Writes the given data (Subnets, VMs, etc.) to the DB
-	 * 
-	 * @param resourceType Valid types: Subnet, VM, etc.
-	 * @param data         Map of resource data. The values can contain any type of
-	 *                     object (subnets, VMs, etc.) and will be written to JSON
-	 *                     data (and then to a Blob) and then stored in the DB
-	 * @return
-	 */
-	private boolean writeToDb(RESOURCE_TYPES resourceType, String accountId, List<Object> data) {
-
-		try {
-			// The name/ID for the new entity
-			String name = resourceType.name();
-
-			// The Cloud Datastore key for the new entity
-			Key entityKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
-					.setKind(DS_ENTITY_KIND_GCP_RESOURCES)
-					.addAncestor(PathElement.of(DS_ENTITY_KIND_SRC_SYS_GCP, accountId)).newKey(name);
-
-			Entity dataEntity = Entity.newBuilder(entityKey).set("lastUpdated", Timestamp.now())
-					.set("resourceType", resourceType.name()).set("resourceData", StringValue
-							.newBuilder(jsonMapper.writeValueAsString(data)).setExcludeFromIndexes(true).build())
-					.build();
-
-			logger.debug("About to update / write this entity towards GCP datastore:"
-					+ jsonMapper.writeValueAsString(dataEntity));
-
-			// Saves the entity
-			datastore.put(dataEntity);
-
-			return true;
-
-		} catch (Exception ex) {
-			logger.error("Error trying to store resource data within GCP Datastore", ex);
-			return false;
-		}
-	}
-
-	private boolean publishBasicDataToRabbitMQ(RESOURCE_TYPES resourceType, List<Object> data) {
-
-		if (data == null || data.isEmpty()) {
-			return false;
-		}
-
-		try {
-			Date now = new Date();
-			String lastUpdate = dateFormatter.format(now);
-
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8);
-
-			jsonGen.writeStartArray();
-
-			if (resourceType == RESOURCE_TYPES.VM) {
-
-				List<Instance> vms = (List<Instance>) (List<?>) data;
-				generateJsonForVMs(jsonGen, vms, lastUpdate);
-			}
-
-			else if (resourceType == RESOURCE_TYPES.Firewall) {
-
-				List<Firewall> firewalls = (List<Firewall>) (List<?>) data;
-				generateJsonForFirewalls(jsonGen, firewalls, lastUpdate);
-			}
-
-			else if (resourceType == RESOURCE_TYPES.Network) {
-
-				List<Network> networks = (List<Network>) (List<?>) data;
-				generateJsonForNetworks(jsonGen, networks, lastUpdate);
-			}
-
-			else if (resourceType == RESOURCE_TYPES.Subnet) {
-
-				List<Subnetwork> subnets = (List<Subnetwork>) (List<?>) data;
-				generateJsonForSubnets(jsonGen, subnets, lastUpdate);
-			}
-
-			else if (resourceType == RESOURCE_TYPES.Zone) {
-
-				List<Zone> zones = (List<Zone>) (List<?>) data;
-				generateJsonForZones(jsonGen, zones, lastUpdate);
-			}
-
-			else if (resourceType == RESOURCE_TYPES.Region) {
-
-				List<Region> regions = (List<Region>) (List<?>) data;
-				generateJsonForRegions(jsonGen, regions, lastUpdate);
-			}
-
-			jsonGen.writeEndArray();
-
-			jsonGen.close();
-			outputStream.close();
-
-			logger.debug("Forwarding updated list of " + resourceType + "s to the message queue " + RABBIT_QUEUE_NAME);
-			rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null, outputStream.toString().getBytes("UTF-8"));
-
-			return true;
-
-		} catch (Exception ex) {
-			logger.error("Error trying to publish resource data to RabbitMQ", ex);
-			return false;
-		}
-
-	}
-
-	private void generateJsonForRegions(JsonGenerator jsonGen, List<Region> regions, String lastUpdate) {
-
-		try {
-			for (Region region : regions) {
-
-				jsonGen.writeStartObject();
-
-				// Extra Data field
-				// String region =
-				// zone.getRegion().substring(zone.getRegion().indexOf("/regions/") +
-				// "/regions/".length());
-				// String extraData = "Status: " + zone.getStatus() + ", Region: " + region;
-
-				jsonGen.writeStringField("name", region.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Region.name());
-				// jsonGen.writeStringField("extraData", extraData);
-				jsonGen.writeStringField("id", region.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				/*
-				 * Details
-				 */
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Status: " + region.getStatus());
-
-				// Create list of zones within this region
-				if (region.getZones() != null && !region.getZones().isEmpty()) {
-
-					String listOfZones = "Zones: ";
-
-					for (String zoneLongName : region.getZones()) {
-						String zone = zoneLongName.substring(zoneLongName.indexOf("/zones/") + "/zones/".length());
-						listOfZones += zone + ",";
-					}
-
-					listOfZones = listOfZones.substring(0, listOfZones.length() - 1);
-					jsonGen.writeString(listOfZones);
-				}
-
-				// End the "details" array
-				jsonGen.writeEndArray();
-
-				// End the current region node
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of regions", ex);
-		}
-	}
-
-	private void generateJsonForZones(JsonGenerator jsonGen, List<Zone> zones, String lastUpdate) {
-
-		try {
-			for (Zone zone : zones) {
-
-				jsonGen.writeStartObject();
-
-				// Extra Data field
-				String region = zone.getRegion()
-						.substring(zone.getRegion().indexOf("/regions/") + "/regions/".length());
-				// String extraData = "Status: " + zone.getStatus() + ", Region: " + region;
-
-				jsonGen.writeStringField("name", zone.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Zone.name());
-				// jsonGen.writeStringField("extraData", extraData);
-				jsonGen.writeStringField("id", zone.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				/*
-				 * Details
-				 */
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Region: " + region);
-				jsonGen.writeString("Status: " + zone.getStatus());
-
-				// End the "details" array
-				jsonGen.writeEndArray();
-
-				// End the current zone node
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of zones", ex);
-		}
-	}
-
-	private void generateJsonForNetworks(JsonGenerator jsonGen, List<Network> networks, String lastUpdate) {
-
-		try {
-			for (Network network : networks) {
-
-				jsonGen.writeStartObject();
-
-				jsonGen.writeStringField("name", network.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Network.name());
-				jsonGen.writeStringField("id", network.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				/*
-				 * Details
-				 */
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Description: " + network.getDescription());
-
-				if (network.getRoutingConfig() != null) {
-					jsonGen.writeString("Routing Mode: " + network.getRoutingConfig().getRoutingMode());
-				}
-
-				// Create list of subnetworks within this network
-				if (network.getSubnetworks() != null && !network.getSubnetworks().isEmpty()) {
-
-					String listOfSubnets = "Subnets: ";
-
-					for (String subnetLongName : network.getSubnetworks()) {
-						String subnet = subnetLongName
-								.substring(subnetLongName.indexOf("/subnetworks/") + "/subnetworks/".length());
-						listOfSubnets += subnet + ",";
-					}
-
-					listOfSubnets = listOfSubnets.substring(0, listOfSubnets.length() - 1);
-					jsonGen.writeString(listOfSubnets);
-				}
-
-				// End the "details" array
-				jsonGen.writeEndArray();
-
-				// End the current network node
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of networks", ex);
-		}
-	}
-
-	private void generateJsonForSubnets(JsonGenerator jsonGen, List<Subnetwork> subnets, String lastUpdate) {
-
-		try {
-			for (Subnetwork subnet : subnets) {
-
-				jsonGen.writeStartObject();
-
-				// Extra Data field
-				String region = subnet.getRegion()
-						.substring(subnet.getRegion().indexOf("/regions/") + "/regions/".length());
-				String network = subnet.getNetwork()
-						.substring(subnet.getNetwork().indexOf("/networks/") + "/networks/".length());
-				// String extraData = "Gateway: " + subnet.getGatewayAddress() + ", CIDR: " +
-				// subnet.getIpCidrRange() + ", Network: " + network + ", Region: " + region;
-
-				jsonGen.writeStringField("name", subnet.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Subnet.name());
-				// jsonGen.writeStringField("extraData", extraData);
-				jsonGen.writeStringField("id", subnet.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				/*
-				 * Details
-				 */
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Region: " + region);
-				jsonGen.writeString("Network: " + network);
-				jsonGen.writeString("Gateway Address: " + subnet.getGatewayAddress());
-				jsonGen.writeString("CIDR Range: " + subnet.getIpCidrRange());
-
-				// End the "details" array
-				jsonGen.writeEndArray();
-
-				// End the current subnet node
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of subnets", ex);
-		}
-	}
-
-	private void generateJsonForFirewalls(JsonGenerator jsonGen, List<Firewall> firewalls, String lastUpdate) {
-
-		try {
-			for (Firewall fw : firewalls) {
-
-				jsonGen.writeStartObject();
-
-				// Extra Data field
-				String network = fw.getNetwork()
-						.substring(fw.getNetwork().indexOf("/networks/") + "/networks/".length());
-				// String extraData = "Description: " + fw.getDescription() + ", Network: " +
-				// network + ", Direction: " + fw.getDirection();
-
-				jsonGen.writeStringField("name", fw.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Firewall.name());
-				// jsonGen.writeStringField("extraData", extraData);
-				jsonGen.writeStringField("id", fw.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Direction: " + fw.getDirection());
-
-				// Allowed or denied protocols and ports
-				if (fw.getAllowed() != null && !fw.getAllowed().isEmpty()) {
-
-					String allowed;
-
-					if (fw.getAllowed().get(0).getIPProtocol() != null) {
-						allowed = "Proto: " + fw.getAllowed().get(0).getIPProtocol();
-					} else {
-						allowed = "Proto: any";
-					}
-
-					if (fw.getAllowed().get(0).getPorts() != null && !fw.getAllowed().get(0).getPorts().isEmpty()) {
-						allowed += ", Ports: ";
-						for (String port : fw.getAllowed().get(0).getPorts()) {
-							allowed += port + ",";
-						}
-					} else {
-						allowed += ", Ports: any ";
-					}
-
-					allowed = allowed.substring(0, allowed.length() - 1);
-
-					jsonGen.writeString("Allowed: " + allowed);
-
-				} else {
-
-					String denied;
-
-					if (fw.getDenied().get(0).getIPProtocol() != null) {
-						denied = "Proto: " + fw.getDenied().get(0).getIPProtocol();
-					} else {
-						denied = "Proto: any";
-					}
-
-					if (fw.getDenied().get(0).getPorts() != null && !fw.getDenied().get(0).getPorts().isEmpty()) {
-						denied += ", Ports: ";
-						for (String port : fw.getDenied().get(0).getPorts()) {
-							denied += port + ",";
-						}
-					} else {
-						denied += ", Ports: any ";
-					}
-
-					denied = denied.substring(0, denied.length() - 1);
-
-					jsonGen.writeString("Denied: " + denied);
-				}
-
-				// Source Filters: IP Ranges
-				if (fw.getSourceRanges() != null && !fw.getSourceRanges().isEmpty()) {
-					String srcFilters = "";
-					for (String srcRange : fw.getSourceRanges()) {
-						srcFilters += srcRange + ",";
-					}
-
-					srcFilters = srcFilters.substring(0, srcFilters.length() - 1);
-					jsonGen.writeString("Source Filters: IP Ranges: " + srcFilters);
-				}
-
-				// Target Tag
-				if (fw.getTargetTags() != null && !fw.getTargetTags().isEmpty()) {
-					String targetTags = "";
-					for (String targetTag : fw.getTargetTags()) {
-						targetTags += targetTag + ",";
-					}
-
-					targetTags = targetTags.substring(0, targetTags.length() - 1);
-					jsonGen.writeString("Target Tags: " + targetTags);
-				}
-
-				jsonGen.writeString("Description: " + fw.getDescription());
-				jsonGen.writeString("Network: " + network);
-
-				jsonGen.writeEndArray();
-
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of firewalls", ex);
-		}
-	}
-
-	private void generateJsonForVMs(JsonGenerator jsonGen, List<Instance> vms, String lastUpdate) {
-
-		try {
-
-			for (Instance vm : vms) {
-
-				jsonGen.writeStartObject();
-
-				// Extra Data field
-				String machineType = vm.getMachineType()
-						.substring(vm.getMachineType().indexOf("/machineTypes/") + "/machineTypes/".length());
-				String zone = vm.getZone().substring(vm.getZone().indexOf("/zones/") + "/zones/".length());
-				// String extraData = "Type: " + machineType + ", Status: " + vm.getStatus() +
-				// ", Zone: " + zone;
-
-				jsonGen.writeStringField("name", vm.getName());
-				jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
-				jsonGen.writeStringField("resourceType", RESOURCE_TYPES.VM.name());
-				// jsonGen.writeStringField("extraData", extraData);
-				jsonGen.writeStringField("id", vm.getId().toString());
-				jsonGen.writeStringField("lastUpdate", lastUpdate);
-
-				/*
-				 * Details
-				 */
-				jsonGen.writeArrayFieldStart("details");
-				jsonGen.writeString("Machine Type: " + machineType);
-				jsonGen.writeString("Zone: " + zone);
-				jsonGen.writeString("Status: " + vm.getStatus());
-
-				// Network Interfaces
-				if (vm.getNetworkInterfaces() != null && !vm.getNetworkInterfaces().isEmpty()) {
-
-					String nwInterfaces = "NW Interfaces: ";
-					boolean isFirst = true;
-
-					for (NetworkInterface nic : vm.getNetworkInterfaces()) {
-						if (isFirst) {
-							nwInterfaces += "Name: " + nic.getName() + ", int IP: " + nic.getNetworkIP();
-							isFirst = false;
-						} else {
-							nwInterfaces += "; Name: " + nic.getName() + ", int IP: " + nic.getNetworkIP();
-						}
-
-						if (nic.getAccessConfigs() != null && !nic.getAccessConfigs().isEmpty()) {
-							nwInterfaces += ", ext IP: " + nic.getAccessConfigs().get(0).getNatIP();
-						}
-					}
-					jsonGen.writeString(nwInterfaces);
-				}
-
-				// Tags
-				if (vm.getTags() != null && vm.getTags().getItems() != null && !vm.getTags().getItems().isEmpty()) {
-					String tags = "";
-					for (String tag : vm.getTags().getItems()) {
-						tags += tag + ",";
-					}
-
-					tags = tags.substring(0, tags.length() - 1);
-					jsonGen.writeString("Tags: " + tags);
-				}
-
-				// End the "details" array
-				jsonGen.writeEndArray();
-
-				// End the current VM node
-				jsonGen.writeEndObject();
-			}
-
-		} catch (Exception ex) {
-			logger.error("Error generating JSON content for list of VMs", ex);
-		}
-	}
-}
-
-// @Override
-// public void run() {
-//
-// logger.debug("Starting Background worker to import compute data from GCP for
-// project with ID " + projectId);
-//
-// try {
-// GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager();
-// boolean connected = computeManager.createComputeConnection(projectId,
-// authenticationFileName);
-//
-// if (!connected) {
-// String msg = "Won't be able to retrieve any data from Google Compute Engine
-// since no authentication/authorization/connection could be established";
-// logger.error(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// java.sql.Connection dbConn = DriverManager.getConnection(dbConnString,
-// dbUser, dbPassword);
-//
-// /* Zones */
-// List<Object> allZones = computeManager.retrieveAllZones(projectId);
-// if (allZones == null || allZones.isEmpty()) {
-// String msg = "Error retrieving zones from GCP - stopping any further
-// processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.Zone, allZones);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Zone, allZones);
-//// publishToRabbitMQ("Zone", allZones);
-//
-// /* Regions */
-// List<Object> allRegions = computeManager.retrieveAllRegions(projectId);
-// if (allZones == null || allZones.isEmpty()) {
-// String msg = "Error retrieving zones from GCP - stopping any further
-// processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.Region, allRegions);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Region, allRegions);
-//// publishToRabbitMQ("Region", allRegions);
-//
-// /* Instances */
-// if (allZones != null && !allZones.isEmpty()) {
-//
-// List<Object> allInstances = new ArrayList<Object>();
-//
-// for (Object zoneGeneric : allZones) {
-//
-// Zone zone = (Zone) zoneGeneric;
-// List<Object> instancesFromZone =
-// computeManager.retrieveInstancesForZone(projectId, zone.getName());
-// if (instancesFromZone == null) {
-// String msg = "Error retrieving instances from GCP zone " + zone.getName()
-// + " - stopping any further processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-//// logger.debug("Found " + instancesFromZone.size() + " instances from zone "
-// + zone);
-// allInstances.addAll(instancesFromZone);
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.VM, allInstances);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.VM, allInstances);
-// }
-//
-// /* Subnets */
-// if (allRegions != null && !allRegions.isEmpty()) {
-//
-// List<Object> allSubnets = new ArrayList<Object>();
-//
-// for (Object regionGeneric : allRegions) {
-//
-// Region region = (Region) regionGeneric;
-// List<Object> subnetsFromRegion =
-// computeManager.retrieveSubnetworksForRegion(projectId,
-// region.getName());
-// if (subnetsFromRegion == null) {
-// String msg = "Error retrieving subnets from GCP region " + region.getName()
-// + " - stopping any further processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// allSubnets.addAll(subnetsFromRegion);
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.Subnet, allSubnets);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Subnet, allSubnets);
-//// publishToRabbitMQ("Subnet", allSubnets);
-// }
-//
-// /* Firewalls */
-// List<Object> allFirewalls = computeManager.retrieveFirewalls(projectId, "",
-// false);
-// if (allFirewalls == null || allFirewalls.isEmpty()) {
-// String msg = "Error retrieving firewalls from GCP - stopping any further
-// processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.Firewall, allFirewalls);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Firewall, allFirewalls);
-//
-//
-// /* Networks */
-// List<Object> allNetworks = computeManager.retrieveAllNetworks(projectId);
-// if (allNetworks == null || allNetworks.isEmpty()) {
-// String msg = "Error retrieving networks from GCP - stopping any further
-// processing";
-// logger.warn(msg);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// msg.getBytes("UTF-8"));
-// return;
-// }
-//
-// writeToDb(dbConn, RESOURCE_TYPES.Network, allNetworks);
-// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Network, allNetworks);
-//
-//
-// logger.debug("Finished retrieving all resources from GCP project " +
-// projectId);
-//
-// } catch (Exception ex) {
-// logger.error(ex);
-// return;
-// }
-// }
-//
-//
-
-// /**
-// * Writes the given data (Subnets, VMs, etc.) to the DB
-// *
-// * @param dbConn Active DB connection
-// * @param resourceType Valid types: Subnet, VM,
-// * @param data Map of resource data. The values can contain any type of
-// * object (subnets, VMs, etc.) and will be written to JSON
-// * data and then stored in the DB
-// * @return
-// */
-// private boolean writeToDb(java.sql.Connection dbConn, RESOURCE_TYPES
-// resourceType, List<Object> data) {
-//
-// try {
-// String sqlInsertStmtSubnets = "INSERT INTO gcp (lastUpdated, projectId,
-// resourceType, resourceData) "
-// + "VALUES (NOW(), ?, ?, ?) " + "ON DUPLICATE KEY UPDATE lastUpdated=NOW(),
-// resourceData=?";
-//
-// PreparedStatement prepInsertStmtSubnets =
-// dbConn.prepareStatement(sqlInsertStmtSubnets);
-//
-// prepInsertStmtSubnets.setString(1, projectId);
-// prepInsertStmtSubnets.setString(2, resourceType.name());
-// prepInsertStmtSubnets.setString(3, jsonMapper.writeValueAsString(data));
-// prepInsertStmtSubnets.setString(4, jsonMapper.writeValueAsString(data));
-//
-// prepInsertStmtSubnets.executeUpdate();
-// return true;
-//
-// } catch (Exception ex) {
-// logger.error("Error trying to store resource data within the DB", ex);
-// return false;
-// }
-// }
-
-// private boolean publishToRabbitMQ(String resourceType, List<Object> data) {
-//
-// try {
-// ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-// JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream,
-// JsonEncoding.UTF8);
-//
-// jsonGen.writeStartObject();
-//
-// jsonGen.writeStringField("dataType", "resources");
-// jsonGen.writeStringField("sourceSystemType", "gcp");
-// jsonGen.writeStringField("sourceSystemProjectId", projectId);
-//
-// jsonGen.writeArrayFieldStart("data");
-//
-// Date now = new Date();
-//
-// jsonGen.writeStartObject();
-//
-// jsonGen.writeStringField("lastUpdated", dateFormatter.format(now));
-// jsonGen.writeStringField("resourceType", resourceType);
-// jsonGen.writeFieldName("resourceData");
-//
-// jsonGen.writeStartArray();
-// jsonGen.writeRawValue(jsonMapper.writeValueAsString(data));
-// jsonGen.writeEndArray();
-//
-// jsonGen.writeEndObject();
-//
-// jsonGen.writeEndArray();
-// jsonGen.writeEndObject();
-//
-// jsonGen.close();
-// outputStream.close();
-//
-// logger.debug("Forwarding updated list of " + resourceType + "s to the message
-// queue " + RABBIT_QUEUE_NAME);
-// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
-// outputStream.toString().getBytes("UTF-8"));
-//
-// return true;
-//
-// } catch (Exception ex) {
-// logger.error("Error trying to publish resource data to RabbitMQ", ex);
-// return false;
-// }
-//
-// }
+package com.extremenetworks.hcm.gcp.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.extremenetworks.hcm.gcp.AccountConfig;
+import com.extremenetworks.hcm.gcp.ApiTelemetry;
+import com.extremenetworks.hcm.gcp.ComputePager;
+import com.extremenetworks.hcm.gcp.GoogleClientRegistry;
+import com.extremenetworks.hcm.gcp.GoogleComputeEngineManager;
+import com.extremenetworks.hcm.gcp.Main;
+import com.extremenetworks.hcm.gcp.OperationThrottle;
+import com.extremenetworks.hcm.gcp.OperationWatcher;
+import com.extremenetworks.hcm.gcp.jobs.Job;
+import com.extremenetworks.hcm.gcp.utils.DataCodec;
+import com.extremenetworks.hcm.gcp.utils.DatastoreChunks;
+import com.extremenetworks.hcm.gcp.utils.DatastoreWriteBuffer;
+import com.extremenetworks.hcm.gcp.utils.RabbitChannelPool;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache;
+import com.extremenetworks.hcm.gcp.utils.ResourceSnapshotCache.ResourceTypeData;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.compute.model.Firewall;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Network;
+import com.google.api.services.compute.model.NetworkInterface;
+import com.google.api.services.compute.model.Region;
+import com.google.api.services.compute.model.Subnetwork;
+import com.google.api.services.compute.model.Zone;
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.ListValue;
+import com.google.cloud.datastore.PathElement;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Value;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+public class ResourcesWorker implements Runnable {
+
+	private static final Logger logger = LogManager.getLogger(ResourcesWorker.class);
+	private static ObjectMapper jsonMapper = new ObjectMapper();
+
+	// All config related to the GCP account
+	private AccountConfig accountConfig;
+
+	// Rabbit MQ config
+	private String RABBIT_QUEUE_NAME;
+	private RabbitChannelPool rabbitChannels;
+
+	// DB config
+	// private final String dbConnString =
+	// "jdbc:mysql://hcm-mysql:3306/Resources?useSSL=false";
+	// private final String dbUser = "root";
+	// private final String dbPassword = "password";
+
+	// Helpers / Utilities
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	private final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final String SRC_SYS_TYPE = "GCP";
+
+	private Datastore datastore;
+
+	// Collects the resource data of all resource types of this import, which is
+	// written with a single commit once all types have been retrieved
+	private DatastoreWriteBuffer writeBuffer;
+	private final List<ResourceBatch<?>> bufferedBatches = new ArrayList<ResourceBatch<?>>();
+	private final List<ResourceTypeData> bufferedResourceTypes = new ArrayList<ResourceTypeData>();
+	private final Map<String, Long> bufferedBytesByResourceType = new LinkedHashMap<String, Long>();
+
+	// Version of the chunks written per resource type, null if the resource type
+	// is small enough to be stored in a single entity
+	private final Map<String, String> chunkVersions = new HashMap<String, String>();
+
+	// Content hash per stored resource entity (by key name), read once per import
+	// to only write the resources that have changed. Null until read
+	private Map<String, String> storedContentHashes;
+
+	// The content hashes of a resource type are stored in up to this many values
+	// of DS_RESOURCE_DATA_CHUNK_SIZE, which keeps their entity below 1 MB
+	private static final int MAX_CONTENT_HASH_VALUES = 3;
+	private static final String PROPERTY_CONTENT_HASHES = "contentHashes";
+
+	// Runs the per-zone / per-region API calls of this import concurrently
+	private ExecutorService discoveryExecutor;
+	private final List<Future<?>> pendingFetches = new ArrayList<Future<?>>();
+
+	// Requests the next page of the paged list calls in the background
+	private ExecutorService prefetchExecutor;
+
+	// Shared cache of the GCP API clients
+	private GoogleClientRegistry clientRegistry;
+
+	// Shared watcher of the pending GCE operations
+	private OperationWatcher operationWatcher;
+
+	// Shared limit of the concurrent GCE operations per project
+	private OperationThrottle operationThrottle;
+
+	// Cached resource data served by ResourcesRes, refreshed on every write
+	private ResourceSnapshotCache resourceSnapshotCache;
+
+	// Progress of this import, one phase per resource type
+	private Job job;
+
+	private enum RESOURCE_TYPES {
+		VM, Firewall, Network, Subnet, Region, Zone
+	}
+
+	public ResourcesWorker(AccountConfig accountConfig, String RABBIT_QUEUE_NAME, RabbitChannelPool rabbitChannels,
+			Datastore datastore, ExecutorService discoveryExecutor, ExecutorService prefetchExecutor,
+			GoogleClientRegistry clientRegistry, OperationWatcher operationWatcher, OperationThrottle operationThrottle,
+			ResourceSnapshotCache resourceSnapshotCache, Job job) {
+
+		// Extreme Networks' GCP Datastore connection
+		this.datastore = datastore;
+		this.writeBuffer = new DatastoreWriteBuffer(datastore);
+		this.resourceSnapshotCache = resourceSnapshotCache;
+
+		// Shared, bounded pool for the individual GCP API calls
+		this.discoveryExecutor = discoveryExecutor;
+		this.prefetchExecutor = prefetchExecutor;
+		this.clientRegistry = clientRegistry;
+		this.operationWatcher = operationWatcher;
+		this.operationThrottle = operationThrottle;
+
+		// Customer tenant and customer GCP project id & corresponding credentials json
+		this.accountConfig = accountConfig;
+
+		// Rabbit MQ queue / channel
+		this.RABBIT_QUEUE_NAME = RABBIT_QUEUE_NAME;
+		this.rabbitChannels = rabbitChannels;
+
+		this.job = job;
+
+		// try {
+		// // load and register JDBC driver for MySQL
+		// Class.forName("com.mysql.jdbc.Driver");
+		// } catch (Exception ex) {
+		// logger.error("Error loading mysql jdbc driver within the worker class", ex);
+		// }
+	}
+
+	@Override
+	public void run() {
+
+		logger.debug("Running background worker to import resource data for tenant " + accountConfig.getTenantId()
+				+ " from GCP " + accountConfig.getProjectId());
+
+		try (ApiTelemetry.Run apiCalls = clientRegistry.getTelemetry().startRun("Resources import",
+				accountConfig.getProjectId())) {
+			job.setApiCalls(apiCalls);
+
+			String projectId = accountConfig.getProjectId();
+			String accountId = accountConfig.getAccountId();
+
+			GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager(clientRegistry, operationWatcher,
+					operationThrottle);
+			computeManager.setPrefetch(prefetchExecutor, Main.PREFETCH_DEPTH);
+			boolean connected = computeManager.createComputeConnection(projectId,
+					accountConfig.getCredentialsFileContent());
+
+			if (!connected) {
+				String msg = "Won't be able to retrieve any data from Google Compute Engine since no authentication/authorization/connection could be established";
+				logger.error(msg);
+				job.fail(msg);
+				rabbitChannels.publish(RABBIT_QUEUE_NAME, msg.getBytes("UTF-8"));
+				return;
+			}
+
+			/* Load the JSON credentials file content */
+			// GoogleCredentials gcpCredentials = null;
+
+			// try {
+			// InputStream credFileInputStream = new ByteArrayInputStream(
+			// authFileContent.getBytes(StandardCharsets.UTF_8));
+			// gcpCredentials = GoogleCredentials.fromStream(credFileInputStream);
+
+			// } catch (Exception ex) {
+			// logger.error("Error loading the credentials JSON file content for authorizing
+			// against the GCP project "
+			// + projectId, ex);
+			// return;
+			// }
+
+			// Datastore datastore;
+
+			// try {
+			// datastore =
+			// DatastoreOptions.newBuilder().setCredentials(gcpCredentials).setProjectId(projectId).build()
+			// .getService();
+
+			// } catch (Exception e) {
+			// logger.error("Error while trying to setup the 'compute engine' connection for
+			// project " + projectId, e);
+			// return;
+			// }
+
+			/*
+			 * Zones, regions, firewalls and networks don't depend on each other --> fetch
+			 * them all at the same time. Instances and subnets are fetched across all
+			 * zones / regions at once using the aggregated list calls. Each fetch streams
+			 * its resources page by page straight into their serialized JSON form, so only
+			 * a single page of resource objects per type is held in memory
+			 */
+			List<String> zoneNames = new ArrayList<String>();
+			List<String> regionNames = new ArrayList<String>();
+
+			Future<ResourceBatch<Zone>> zonesFuture = submitFetch(
+					() -> streamResources(RESOURCE_TYPES.Zone, computeManager.streamZones(projectId),
+							(jsonGen, zone, lastUpdate) -> {
+								zoneNames.add(zone.getName());
+								generateJsonForZone(jsonGen, zone, lastUpdate);
+							}));
+			Future<ResourceBatch<Region>> regionsFuture = submitFetch(
+					() -> streamResources(RESOURCE_TYPES.Region, computeManager.streamRegions(projectId),
+							(jsonGen, region, lastUpdate) -> {
+								regionNames.add(region.getName());
+								generateJsonForRegion(jsonGen, region, lastUpdate);
+							}));
+			Future<ResourceBatch<Instance>> instancesFuture = submitFetch(() -> streamResources(RESOURCE_TYPES.VM,
+					computeManager.streamAllInstances(projectId), this::generateJsonForVM));
+			Future<ResourceBatch<Subnetwork>> subnetsFuture = submitFetch(() -> streamResources(
+					RESOURCE_TYPES.Subnet, computeManager.streamAllSubnetworks(projectId), this::generateJsonForSubnet));
+			Future<ResourceBatch<Firewall>> firewallsFuture = submitFetch(() -> streamResources(
+					RESOURCE_TYPES.Firewall, computeManager.streamFirewalls(projectId, "", false),
+					this::generateJsonForFirewall));
+			Future<ResourceBatch<Network>> networksFuture = submitFetch(() -> streamResources(RESOURCE_TYPES.Network,
+					computeManager.streamNetworks(projectId), this::generateJsonForNetwork));
+
+			/* Zones */
+			ResourceBatch<Zone> allZones = zonesFuture.get();
+			if (allZones == null || allZones.isEmpty()) {
+				abort("Error retrieving zones from GCP - stopping any further processing");
+				return;
+			}
+
+			storeAndPublish(accountId, allZones);
+
+			/* Regions */
+			ResourceBatch<Region> allRegions = regionsFuture.get();
+			if (allRegions == null || allRegions.isEmpty()) {
+				abort("Error retrieving regions from GCP - stopping any further processing");
+				return;
+			}
+
+			storeAndPublish(accountId, allRegions);
+
+			/* Instances */
+			ResourceBatch<Instance> allInstances = instancesFuture.get();
+			if (allInstances == null) {
+				logger.info("Aggregated list of instances not available for project " + projectId
+						+ " - falling back to retrieving the instances zone by zone");
+
+				allInstances = retrieveInstancesPerZone(computeManager, projectId, zoneNames);
+				if (allInstances == null) {
+					return;
+				}
+			}
+
+			storeAndPublish(accountId, allInstances);
+
+			/* Subnets */
+			ResourceBatch<Subnetwork> allSubnets = subnetsFuture.get();
+			if (allSubnets == null) {
+				logger.info("Aggregated list of subnets not available for project " + projectId
+						+ " - falling back to retrieving the subnets region by region");
+
+				allSubnets = retrieveSubnetsPerRegion(computeManager, projectId, regionNames);
+				if (allSubnets == null) {
+					return;
+				}
+			}
+
+			storeAndPublish(accountId, allSubnets);
+
+			/* Firewalls */
+			ResourceBatch<Firewall> allFirewalls = firewallsFuture.get();
+			if (allFirewalls == null || allFirewalls.isEmpty()) {
+				abort("Error retrieving firewalls from GCP - stopping any further processing");
+				return;
+			}
+
+			storeAndPublish(accountId, allFirewalls);
+
+			/* Networks */
+			ResourceBatch<Network> allNetworks = networksFuture.get();
+			if (allNetworks == null || allNetworks.isEmpty()) {
+				abort("Error retrieving networks from GCP - stopping any further processing");
+				return;
+			}
+
+			storeAndPublish(accountId, allNetworks);
+
+			commitAndPublish(accountId);
+
+			logger.debug("Finished retrieving all resources from GCP project " + projectId);
+
+		} catch (Exception ex) {
+			logger.error(ex);
+			job.fail("Error importing resource data: " + ex);
+			cancelPendingFetches();
+			return;
+		}
+	}
+
+	/**
+	 * Consumes the given pager and serializes each resource as soon as it has
+	 * been retrieved.
+	 * 
+	 * @return The serialized resources or null if the pager is null or any page
+	 *         could not be retrieved
+	 */
+	private <T> ResourceBatch<T> streamResources(RESOURCE_TYPES resourceType, ComputePager<T> pager,
+			BasicDataWriter<T> basicDataWriter) throws IOException {
+
+		if (pager == null) {
+			return null;
+		}
+
+		ResourceBatch<T> batch = new ResourceBatch<T>(resourceType, basicDataWriter);
+		try {
+			for (T resource : pager) {
+				batch.add(resource);
+			}
+			batch.finish();
+
+		} finally {
+			// Stops outstanding page prefetches if the import got aborted
+			pager.close();
+		}
+
+		return pager.isFailed() ? null : batch;
+	}
+
+	/**
+	 * Retrieves the instances of all given zones with one (concurrent) list call
+	 * per zone. The results are merged in the same order as the zones are given.
+	 * 
+	 * @return The serialized instances or null on any error, in which case the
+	 *         import has already been aborted
+	 */
+	private ResourceBatch<Instance> retrieveInstancesPerZone(GoogleComputeEngineManager computeManager,
+			String projectId, List<String> zoneNames) throws Exception {
+
+		List<Future<List<Instance>>> instancesFutures = new ArrayList<Future<List<Instance>>>();
+		for (String zoneName : zoneNames) {
+			instancesFutures.add(submitFetch(() -> computeManager.retrieveInstancesForZone(projectId, zoneName)));
+		}
+
+		ResourceBatch<Instance> allInstances = new ResourceBatch<Instance>(RESOURCE_TYPES.VM, this::generateJsonForVM);
+
+		for (int zoneIdx = 0; zoneIdx < instancesFutures.size(); zoneIdx++) {
+
+			List<Instance> instancesFromZone = instancesFutures.get(zoneIdx).get();
+			if (instancesFromZone == null) {
+				abort("Error retrieving instances from GCP zone " + zoneNames.get(zoneIdx)
+						+ " - stopping any further processing");
+				return null;
+			}
+
+			for (Instance instance : instancesFromZone) {
+				allInstances.add(instance);
+			}
+		}
+
+		allInstances.finish();
+		return allInstances;
+	}
+
+	/**
+	 * Retrieves the subnets of all given regions with one (concurrent) list call
+	 * per region. The results are merged in the same order as the regions are
+	 * given.
+	 * 
+	 * @return The serialized subnets or null on any error, in which case the
+	 *         import has already been aborted
+	 */
+	private ResourceBatch<Subnetwork> retrieveSubnetsPerRegion(GoogleComputeEngineManager computeManager,
+			String projectId, List<String> regionNames) throws Exception {
+
+		List<Future<List<Subnetwork>>> subnetsFutures = new ArrayList<Future<List<Subnetwork>>>();
+		for (String regionName : regionNames) {
+			subnetsFutures.add(submitFetch(() -> computeManager.retrieveSubnetworksForRegion(projectId, regionName)));
+		}
+
+		ResourceBatch<Subnetwork> allSubnets = new ResourceBatch<Subnetwork>(RESOURCE_TYPES.Subnet,
+				this::generateJsonForSubnet);
+
+		for (int regionIdx = 0; regionIdx < subnetsFutures.size(); regionIdx++) {
+
+			List<Subnetwork> subnetsFromRegion = subnetsFutures.get(regionIdx).get();
+			if (subnetsFromRegion == null) {
+				abort("Error retrieving subnets from GCP region " + regionNames.get(regionIdx)
+						+ " - stopping any further processing");
+				return null;
+			}
+
+			for (Subnetwork subnet : subnetsFromRegion) {
+				allSubnets.add(subnet);
+			}
+		}
+
+		allSubnets.finish();
+		return allSubnets;
+	}
+
+	/**
+	 * Runs the given API call on the discovery executor and keeps track of it so
+	 * it can be cancelled if the import gets aborted
+	 */
+	private <T> Future<T> submitFetch(Callable<T> fetch) {
+
+		Future<T> future = discoveryExecutor.submit(ApiTelemetry.withCurrentRun(fetch));
+		pendingFetches.add(future);
+		return future;
+	}
+
+	/**
+	 * Stops the current import: cancels all fetches that are still queued or
+	 * running and forwards the given error message to the message queue
+	 */
+	private void abort(String msg) throws Exception {
+
+		logger.warn(msg);
+		job.fail(msg);
+		cancelPendingFetches();
+		rabbitChannels.publish(RABBIT_QUEUE_NAME, msg.getBytes("UTF-8"));
+	}
+
+	private void cancelPendingFetches() {
+
+		for (Future<?> pendingFetch : pendingFetches) {
+			pendingFetch.cancel(true);
+		}
+	}
+
+	/**
+	 * Adds the given resources to the commit of this import. They're forwarded to
+	 * the message queue once they have been written
+	 */
+	private void storeAndPublish(String accountId, ResourceBatch<?> batch) {
+
+		if (!writeToDb(batch.getResourceType(), accountId, batch.getResourceData())) {
+			job.addError("Error storing the " + batch.getResourceType() + " data within GCP Datastore");
+		}
+		if (Main.DS_RESOURCE_ENTITIES_ENABLED && !writeResourceEntitiesToDb(accountId, batch)) {
+			job.addError("Error storing the " + batch.getResourceType() + " entities within GCP Datastore");
+		}
+		bufferedBatches.add(batch);
+	}
+
+	/**
+	 * Writes the resource data of all resource types of this import to the DB at
+	 * once, then forwards the basic data of each type to the message queue. If
+	 * the commit fails, nothing is published and the job fails
+	 */
+	private void commitAndPublish(String accountId) {
+
+		int nrOfCalls;
+
+		try {
+			nrOfCalls = writeBuffer.commit();
+
+		} catch (Exception ex) {
+			/*
+			 * Non-transactional commits may have written part of the data. Readers that
+			 * are loading the account's data right now must not cache that mix
+			 */
+			resourceSnapshotCache.invalidate(accountConfig.getTenantId(), accountId);
+
+			String msg = "Error storing the resource data within GCP Datastore: " + ex.getMessage();
+			logger.error(msg, ex);
+			job.fail(msg);
+			return;
+		}
+
+		try {
+			logger.debug("Stored " + bufferedResourceTypes.size() + " resource types for account " + accountId
+					+ " within GCP Datastore with " + nrOfCalls + " call(s) - bytes per resource type: "
+					+ bufferedBytesByResourceType);
+
+			ResourceSnapshotCache.Snapshot snapshot = resourceSnapshotCache.update(accountConfig.getTenantId(),
+					accountId, bufferedResourceTypes);
+			if (snapshot != null) {
+				prebuildGzippedDocument(snapshot);
+			}
+
+			deleteStaleChunks(accountId);
+
+		} catch (Exception ex) {
+			logger.error("Error trying to update the cached resource data", ex);
+			job.addError("Error updating the cached resource data: " + ex.getMessage());
+		}
+
+		for (ResourceBatch<?> batch : bufferedBatches) {
+
+			if (!batch.isEmpty() && !publishBasicDataToRabbitMQ(batch)) {
+				job.addError("Error publishing the " + batch.getResourceType() + " data to RabbitMQ");
+			}
+			job.finishPhase(batch.getResourceType().name());
+		}
+	}
+
+	/**
+	 * Adds the given data (Subnets, VMs, etc.) to the commit of this import
+	 * 
+	 * @param resourceType Valid types: Subnet, VM, etc.
+	 * @param resourceData JSON array of all resources of that type (subnets, VMs,
+	 *                     etc.) that will be stored in the DB
+	 * @return
+	 */
+	private boolean writeToDb(RESOURCE_TYPES resourceType, String accountId, String resourceData) {
+
+		try {
+			// The name/ID for the new entity
+			String name = resourceType.name();
+
+			// The Cloud Datastore key for the new entity. Stored below the account
+			// config, where ResourcesRes reads the resource data of an account from
+			Key entityKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
+					.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCES)
+					.addAncestor(PathElement.of(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountId)).newKey(name);
+
+			Timestamp lastUpdated = Timestamp.now();
+
+			Entity.Builder dataEntity = Entity.newBuilder(entityKey).set("lastUpdated", lastUpdated)
+					.set("resourceType", resourceType.name()).set(DataCodec.PROPERTY_CODEC, Main.DS_DATA_CODEC);
+
+			long entitySize = 0;
+			String chunkVersion = null;
+
+			List<Value<?>> chunks = DataCodec.encode(resourceData, Main.DS_DATA_CODEC,
+					Main.DS_RESOURCE_DATA_CHUNK_SIZE);
+
+			if (chunks.size() == 1) {
+				dataEntity.set("resourceData", chunks.get(0));
+
+			} else {
+				/*
+				 * Too large for a single entity --> the entity only lists the chunks, which
+				 * are stored as its children. The entity is added to the commit as manifest,
+				 * so it's never written without its chunks
+				 */
+				chunkVersion = String.valueOf(lastUpdated.getSeconds() * 1000000L + lastUpdated.getNanos() / 1000);
+
+				for (int i = 0; i < chunks.size(); i++) {
+					entitySize += writeBuffer.add(Entity
+							.newBuilder(DatastoreChunks.chunkKey(entityKey, Main.DS_ENTITY_KIND_DATA_RESOURCES_CHUNK,
+									chunkVersion, i))
+							.set(DatastoreChunks.PROPERTY_DATA, chunks.get(i)).build());
+				}
+
+				dataEntity.set(DatastoreChunks.PROPERTY_CHUNK_COUNT, chunks.size()).set(
+						DatastoreChunks.PROPERTY_CHUNK_VERSION,
+						StringValue.newBuilder(chunkVersion).setExcludeFromIndexes(true).build());
+			}
+
+			entitySize += writeBuffer.addManifest(dataEntity.build());
+			bufferedResourceTypes.add(new ResourceTypeData(resourceType.name(), lastUpdated, resourceData));
+			bufferedBytesByResourceType.put(resourceType.name(), entitySize);
+			chunkVersions.put(resourceType.name(), chunkVersion);
+
+			logger.debug("Added the " + resourceType + " entity with " + resourceData.length()
+					+ " characters of resource data, stored as an estimated " + entitySize + " bytes ("
+					+ Main.DS_DATA_CODEC + (chunkVersion != null ? ", " + chunks.size() + " chunks" : "")
+					+ "), to the GCP datastore commit");
+
+			return true;
+
+		} catch (Exception ex) {
+			logger.error("Error trying to store resource data within GCP Datastore", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the entities of the given resources that are new or have changed since
+	 * the last import to the commit of this import, as well as the deletion of the
+	 * stored resources of that type that no longer exist
+	 */
+	private boolean writeResourceEntitiesToDb(String accountId, ResourceBatch<?> batch) {
+
+		try {
+			if (storedContentHashes == null) {
+				storedContentHashes = retrieveStoredContentHashes(accountId);
+			}
+
+			String tenantId = accountConfig.getTenantId();
+			String resourceType = batch.getResourceType().name();
+			Timestamp lastUpdated = Timestamp.now();
+
+			Map<String, String> contentHashes = new TreeMap<String, String>();
+			int nrOfChanged = 0;
+			int nrOfDeleted = 0;
+
+			for (ResourceItem item : batch.takeItems()) {
+
+				contentHashes.put(item.getKeyName(), item.getContentHash());
+
+				if (!item.getContentHash().equals(storedContentHashes.get(item.getKeyName()))) {
+					writeBuffer.add(item.toEntity(ResourceItem.entityKey(datastore, tenantId, accountId,
+							item.getKeyName()), accountId, lastUpdated, Main.DS_DATA_CODEC));
+					nrOfChanged++;
+				}
+			}
+
+			// The batch holds all resources of its type, anything else is gone
+			for (String keyName : storedContentHashes.keySet()) {
+				if (!contentHashes.containsKey(keyName) && resourceType.equals(ResourceItem.resourceTypeOf(keyName))) {
+					writeBuffer.delete(ResourceItem.entityKey(datastore, tenantId, accountId, keyName));
+					nrOfDeleted++;
+				}
+			}
+
+			writeContentHashes(accountId, resourceType, contentHashes);
+
+			logger.debug("Added " + nrOfChanged + " new or changed and " + nrOfDeleted + " deleted " + resourceType
+					+ " entities of " + contentHashes.size() + " to the GCP datastore commit");
+
+			return true;
+
+		} catch (Exception ex) {
+			logger.error("Error trying to store resource entities within GCP Datastore", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the content hashes of all resources of the given type to the commit,
+	 * as one entity below the account config that is written after the resource
+	 * entities. The next import reads these few entities instead of a projection
+	 * on the resource entities, which would require a composite index
+	 */
+	private void writeContentHashes(String accountId, String resourceType, Map<String, String> contentHashes)
+			throws IOException {
+
+		Key hashesKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
+				.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCE_HASHES)
+				.addAncestor(PathElement.of(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT, accountId)).newKey(resourceType);
+
+		// One "[key name] [hash]" line per resource
+		StringBuilder lines = new StringBuilder();
+		for (Map.Entry<String, String> contentHash : contentHashes.entrySet()) {
+			lines.append(contentHash.getKey()).append(' ').append(contentHash.getValue()).append('\n');
+		}
+
+		List<Value<?>> data = DataCodec.encode(lines.toString(), Main.DS_DATA_CODEC,
+				Main.DS_RESOURCE_DATA_CHUNK_SIZE);
+
+		if (data.size() > MAX_CONTENT_HASH_VALUES) {
+			// Outdated hashes could match a resource that has changed back, so they're
+			// removed as well
+			logger.warn("Too many " + resourceType + " resources of account " + accountId + " (" + contentHashes.size()
+					+ ") to store their content hashes - the next import writes all of them again");
+			writeBuffer.delete(hashesKey);
+			return;
+		}
+
+		writeBuffer.addManifest(Entity.newBuilder(hashesKey).set(DataCodec.PROPERTY_CODEC, Main.DS_DATA_CODEC)
+				.set(PROPERTY_CONTENT_HASHES, data.size() == 1 ? data.get(0) : ListValue.of(data)).build());
+	}
+
+	/**
+	 * Reads the key names of the stored resource entities of the account with a
+	 * keys-only query on their account ID and their content hashes from the
+	 * entities written by writeContentHashes(). Both are served without a
+	 * composite index. Resources without a stored hash are written again
+	 * 
+	 * @return Content hash per key name, null values if unknown
+	 */
+	private Map<String, String> retrieveStoredContentHashes(String accountId) throws IOException {
+
+		String tenantId = accountConfig.getTenantId();
+		Map<String, String> contentHashes = new HashMap<String, String>();
+
+		Query<Key> queryKeys = Query.newKeyQueryBuilder().setNamespace(tenantId)
+				.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCE)
+				.setFilter(PropertyFilter.eq(ResourceItem.PROPERTY_ACCOUNT_ID, accountId)).build();
+
+		QueryResults<Key> keys = datastore.run(queryKeys);
+		while (keys.hasNext()) {
+			contentHashes.put(ResourceItem.keyNameOf(keys.next()), null);
+		}
+
+		Key accountKey = datastore.newKeyFactory().setNamespace(tenantId).setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT)
+				.newKey(accountId);
+
+		Query<Entity> queryHashes = Query.newEntityQueryBuilder().setNamespace(tenantId)
+				.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCE_HASHES).setFilter(PropertyFilter.hasAncestor(accountKey))
+				.build();
+
+		int nrOfKnownHashes = 0;
+
+		QueryResults<Entity> hashes = datastore.run(queryHashes);
+		while (hashes.hasNext()) {
+
+			Entity hashesEntity = hashes.next();
+			Value<?> data = hashesEntity.getValue(PROPERTY_CONTENT_HASHES);
+
+			String lines = data instanceof ListValue
+					? DataCodec.decode(new ArrayList<Value<?>>(((ListValue) data).get()),
+							DataCodec.getCodec(hashesEntity))
+					: DataCodec.decode(hashesEntity, PROPERTY_CONTENT_HASHES);
+
+			for (String line : lines.split("\n")) {
+				int separator = line.indexOf(' ');
+				if (separator > 0 && contentHashes.containsKey(line.substring(0, separator))) {
+					contentHashes.put(line.substring(0, separator), line.substring(separator + 1));
+					nrOfKnownHashes++;
+				}
+			}
+		}
+
+		if (nrOfKnownHashes < contentHashes.size()) {
+			logger.warn("No content hash stored for " + (contentHashes.size() - nrOfKnownHashes) + " of the "
+					+ contentHashes.size() + " resource entities of account " + accountId + " - writing these again");
+		}
+
+		return contentHashes;
+	}
+
+	/**
+	 * Builds the compressed /resources/all document of the refreshed snapshot, so
+	 * readers accepting gzip don't have to
+	 */
+	private void prebuildGzippedDocument(ResourceSnapshotCache.Snapshot snapshot) {
+
+		try {
+			resourceSnapshotCache.setGzippedDocument(snapshot, ResourcesDocument.gzip(snapshot));
+
+		} catch (Exception ex) {
+			logger.error("Error trying to build the compressed resource data document", ex);
+		}
+	}
+
+	/**
+	 * Deletes the chunks of resource data written by previous imports, which are
+	 * no longer listed by the entities written by this import
+	 */
+	private void deleteStaleChunks(String accountId) {
+
+		try {
+			Key accountKey = datastore.newKeyFactory().setNamespace(accountConfig.getTenantId())
+					.setKind(Main.DS_ENTITY_KIND_CONFIG_ACCOUNT).newKey(accountId);
+
+			Query<Key> queryChunks = Query.newKeyQueryBuilder().setNamespace(accountConfig.getTenantId())
+					.setKind(Main.DS_ENTITY_KIND_DATA_RESOURCES_CHUNK).setFilter(PropertyFilter.hasAncestor(accountKey))
+					.build();
+
+			QueryResults<Key> chunkKeys = datastore.run(queryChunks);
+			List<Key> staleChunkKeys = new ArrayList<Key>();
+
+			while (chunkKeys.hasNext()) {
+
+				Key chunkKey = chunkKeys.next();
+				String resourceType = chunkKey.getParent().getName();
+
+				if (chunkVersions.containsKey(resourceType)
+						&& !DatastoreChunks.isChunkOf(chunkKey, chunkVersions.get(resourceType))) {
+					staleChunkKeys.add(chunkKey);
+				}
+			}
+
+			if (!staleChunkKeys.isEmpty()) {
+				logger.debug("Deleting " + staleChunkKeys.size() + " chunks of previous resource data of account "
+						+ accountId + " from GCP datastore");
+				DatastoreChunks.delete(datastore, staleChunkKeys);
+			}
+
+		} catch (Exception ex) {
+			logger.error("Error trying to delete previous resource data chunks from GCP Datastore", ex);
+		}
+	}
+
+	private boolean publishBasicDataToRabbitMQ(ResourceBatch<?> batch) {
+
+		if (batch.isEmpty()) {
+			return false;
+		}
+
+		try {
+			logger.debug("Forwarding updated list of " + batch.getNrOfResources() + " " + batch.getResourceType()
+					+ "s to the message queue " + RABBIT_QUEUE_NAME);
+			rabbitChannels.publish(RABBIT_QUEUE_NAME, batch.getBasicData());
+
+			return true;
+
+		} catch (Exception ex) {
+			logger.error("Error trying to publish resource data to RabbitMQ", ex);
+			return false;
+		}
+
+	}
+
+	/**
+	 * Writes the basic data (name, id, details) of a single resource as one JSON
+	 * object
+	 */
+	private interface BasicDataWriter<T> {
+
+		void write(JsonGenerator jsonGen, T resource, String lastUpdate);
+	}
+
+	/**
+	 * Serializes the resources of one type while they are being streamed from
+	 * GCE: the full resource objects into the JSON array that is stored in the
+	 * Datastore and the basic data into the JSON array that is published to Rabbit
+	 * MQ. Only the serialized output is kept, not the resource objects - if
+	 * resource entities are enabled, with each resource's JSON and filter fields.
+	 */
+	private class ResourceBatch<T> {
+
+		private final RESOURCE_TYPES resourceType;
+		private final BasicDataWriter<T> basicDataWriter;
+		private final String lastUpdate;
+
+		private final ByteArrayOutputStream resourceDataStream = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream basicDataStream = new ByteArrayOutputStream();
+		private final JsonGenerator resourceDataJsonGen;
+		private final JsonGenerator basicDataJsonGen;
+
+		private List<ResourceItem> items = new ArrayList<ResourceItem>();
+		private int nrOfResources = 0;
+
+		ResourceBatch(RESOURCE_TYPES resourceType, BasicDataWriter<T> basicDataWriter) throws IOException {
+
+			this.resourceType = resourceType;
+			this.basicDataWriter = basicDataWriter;
+
+			job.startPhase(resourceType.name());
+
+			synchronized (dateFormatter) {
+				this.lastUpdate = dateFormatter.format(new Date());
+			}
+
+			resourceDataJsonGen = jsonMapper.getFactory().createGenerator(resourceDataStream, JsonEncoding.UTF8);
+			basicDataJsonGen = jsonFactory.createGenerator(basicDataStream, JsonEncoding.UTF8);
+
+			resourceDataJsonGen.writeStartArray();
+			basicDataJsonGen.writeStartArray();
+		}
+
+		void add(T resource) throws IOException {
+
+			if (Main.DS_RESOURCE_ENTITIES_ENABLED) {
+				// Serialized once for both the JSON array and the resource's own entity
+				String resourceData = jsonMapper.writeValueAsString(resource);
+				resourceDataJsonGen.writeRawValue(resourceData);
+				items.add(ResourceItem.of(resourceType.name(), resource, resourceData));
+
+			} else {
+				resourceDataJsonGen.writeObject(resource);
+			}
+			basicDataWriter.write(basicDataJsonGen, resource, lastUpdate);
+			nrOfResources++;
+		}
+
+		void finish() throws IOException {
+
+			resourceDataJsonGen.writeEndArray();
+			basicDataJsonGen.writeEndArray();
+
+			resourceDataJsonGen.close();
+			basicDataJsonGen.close();
+
+			job.phaseRetrieved(resourceType.name(), nrOfResources);
+		}
+
+		RESOURCE_TYPES getResourceType() {
+			return resourceType;
+		}
+
+		int getNrOfResources() {
+			return nrOfResources;
+		}
+
+		boolean isEmpty() {
+			return nrOfResources == 0;
+		}
+
+		String getResourceData() {
+			return new String(resourceDataStream.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		byte[] getBasicData() {
+			return basicDataStream.toByteArray();
+		}
+
+		/**
+		 * @return The resources for their own entities. Released by the batch, which
+		 *         is kept until the import has been published
+		 */
+		List<ResourceItem> takeItems() {
+
+			List<ResourceItem> takenItems = items;
+			items = new ArrayList<ResourceItem>();
+			return takenItems;
+		}
+	}
+
+	private void generateJsonForRegion(JsonGenerator jsonGen, Region region, String lastUpdate) {
+
+		try {
+			jsonGen.writeStartObject();
+
+			// Extra Data field
+			// String region =
+			// zone.getRegion().substring(zone.getRegion().indexOf("/regions/") +
+			// "/regions/".length());
+			// String extraData = "Status: " + zone.getStatus() + ", Region: " + region;
+
+			jsonGen.writeStringField("name", region.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Region.name());
+			// jsonGen.writeStringField("extraData", extraData);
+			jsonGen.writeStringField("id", region.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			/*
+			 * Details
+			 */
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Status: " + region.getStatus());
+
+			// Create list of zones within this region
+			if (region.getZones() != null && !region.getZones().isEmpty()) {
+
+				String listOfZones = "Zones: ";
+
+				for (String zoneLongName : region.getZones()) {
+					String zone = zoneLongName.substring(zoneLongName.indexOf("/zones/") + "/zones/".length());
+					listOfZones += zone + ",";
+				}
+
+				listOfZones = listOfZones.substring(0, listOfZones.length() - 1);
+				jsonGen.writeString(listOfZones);
+			}
+
+			// End the "details" array
+			jsonGen.writeEndArray();
+
+			// End the current region node
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for region " + region.getName(), ex);
+		}
+	}
+
+	private void generateJsonForZone(JsonGenerator jsonGen, Zone zone, String lastUpdate) {
+
+		try {
+			jsonGen.writeStartObject();
+
+			// Extra Data field
+			String region = zone.getRegion()
+					.substring(zone.getRegion().indexOf("/regions/") + "/regions/".length());
+			// String extraData = "Status: " + zone.getStatus() + ", Region: " + region;
+
+			jsonGen.writeStringField("name", zone.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Zone.name());
+			// jsonGen.writeStringField("extraData", extraData);
+			jsonGen.writeStringField("id", zone.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			/*
+			 * Details
+			 */
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Region: " + region);
+			jsonGen.writeString("Status: " + zone.getStatus());
+
+			// End the "details" array
+			jsonGen.writeEndArray();
+
+			// End the current zone node
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for zone " + zone.getName(), ex);
+		}
+	}
+
+	private void generateJsonForNetwork(JsonGenerator jsonGen, Network network, String lastUpdate) {
+
+		try {
+			jsonGen.writeStartObject();
+
+			jsonGen.writeStringField("name", network.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Network.name());
+			jsonGen.writeStringField("id", network.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			/*
+			 * Details
+			 */
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Description: " + network.getDescription());
+
+			if (network.getRoutingConfig() != null) {
+				jsonGen.writeString("Routing Mode: " + network.getRoutingConfig().getRoutingMode());
+			}
+
+			// Create list of subnetworks within this network
+			if (network.getSubnetworks() != null && !network.getSubnetworks().isEmpty()) {
+
+				String listOfSubnets = "Subnets: ";
+
+				for (String subnetLongName : network.getSubnetworks()) {
+					String subnet = subnetLongName
+							.substring(subnetLongName.indexOf("/subnetworks/") + "/subnetworks/".length());
+					listOfSubnets += subnet + ",";
+				}
+
+				listOfSubnets = listOfSubnets.substring(0, listOfSubnets.length() - 1);
+				jsonGen.writeString(listOfSubnets);
+			}
+
+			// End the "details" array
+			jsonGen.writeEndArray();
+
+			// End the current network node
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for network " + network.getName(), ex);
+		}
+	}
+
+	private void generateJsonForSubnet(JsonGenerator jsonGen, Subnetwork subnet, String lastUpdate) {
+
+		try {
+			jsonGen.writeStartObject();
+
+			// Extra Data field
+			String region = subnet.getRegion()
+					.substring(subnet.getRegion().indexOf("/regions/") + "/regions/".length());
+			String network = subnet.getNetwork()
+					.substring(subnet.getNetwork().indexOf("/networks/") + "/networks/".length());
+			// String extraData = "Gateway: " + subnet.getGatewayAddress() + ", CIDR: " +
+			// subnet.getIpCidrRange() + ", Network: " + network + ", Region: " + region;
+
+			jsonGen.writeStringField("name", subnet.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Subnet.name());
+			// jsonGen.writeStringField("extraData", extraData);
+			jsonGen.writeStringField("id", subnet.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			/*
+			 * Details
+			 */
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Region: " + region);
+			jsonGen.writeString("Network: " + network);
+			jsonGen.writeString("Gateway Address: " + subnet.getGatewayAddress());
+			jsonGen.writeString("CIDR Range: " + subnet.getIpCidrRange());
+
+			// End the "details" array
+			jsonGen.writeEndArray();
+
+			// End the current subnet node
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for subnet " + subnet.getName(), ex);
+		}
+	}
+
+	private void generateJsonForFirewall(JsonGenerator jsonGen, Firewall fw, String lastUpdate) {
+
+		try {
+			jsonGen.writeStartObject();
+
+			// Extra Data field
+			String network = fw.getNetwork()
+					.substring(fw.getNetwork().indexOf("/networks/") + "/networks/".length());
+			// String extraData = "Description: " + fw.getDescription() + ", Network: " +
+			// network + ", Direction: " + fw.getDirection();
+
+			jsonGen.writeStringField("name", fw.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.Firewall.name());
+			// jsonGen.writeStringField("extraData", extraData);
+			jsonGen.writeStringField("id", fw.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Direction: " + fw.getDirection());
+
+			// Allowed or denied protocols and ports
+			if (fw.getAllowed() != null && !fw.getAllowed().isEmpty()) {
+
+				String allowed;
+
+				if (fw.getAllowed().get(0).getIPProtocol() != null) {
+					allowed = "Proto: " + fw.getAllowed().get(0).getIPProtocol();
+				} else {
+					allowed = "Proto: any";
+				}
+
+				if (fw.getAllowed().get(0).getPorts() != null && !fw.getAllowed().get(0).getPorts().isEmpty()) {
+					allowed += ", Ports: ";
+					for (String port : fw.getAllowed().get(0).getPorts()) {
+						allowed += port + ",";
+					}
+				} else {
+					allowed += ", Ports: any ";
+				}
+
+				allowed = allowed.substring(0, allowed.length() - 1);
+
+				jsonGen.writeString("Allowed: " + allowed);
+
+			} else {
+
+				String denied;
+
+				if (fw.getDenied().get(0).getIPProtocol() != null) {
+					denied = "Proto: " + fw.getDenied().get(0).getIPProtocol();
+				} else {
+					denied = "Proto: any";
+				}
+
+				if (fw.getDenied().get(0).getPorts() != null && !fw.getDenied().get(0).getPorts().isEmpty()) {
+					denied += ", Ports: ";
+					for (String port : fw.getDenied().get(0).getPorts()) {
+						denied += port + ",";
+					}
+				} else {
+					denied += ", Ports: any ";
+				}
+
+				denied = denied.substring(0, denied.length() - 1);
+
+				jsonGen.writeString("Denied: " + denied);
+			}
+
+			// Source Filters: IP Ranges
+			if (fw.getSourceRanges() != null && !fw.getSourceRanges().isEmpty()) {
+				String srcFilters = "";
+				for (String srcRange : fw.getSourceRanges()) {
+					srcFilters += srcRange + ",";
+				}
+
+				srcFilters = srcFilters.substring(0, srcFilters.length() - 1);
+				jsonGen.writeString("Source Filters: IP Ranges: " + srcFilters);
+			}
+
+			// Target Tag
+			if (fw.getTargetTags() != null && !fw.getTargetTags().isEmpty()) {
+				String targetTags = "";
+				for (String targetTag : fw.getTargetTags()) {
+					targetTags += targetTag + ",";
+				}
+
+				targetTags = targetTags.substring(0, targetTags.length() - 1);
+				jsonGen.writeString("Target Tags: " + targetTags);
+			}
+
+			jsonGen.writeString("Description: " + fw.getDescription());
+			jsonGen.writeString("Network: " + network);
+
+			jsonGen.writeEndArray();
+
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for firewall " + fw.getName(), ex);
+		}
+	}
+
+	private void generateJsonForVM(JsonGenerator jsonGen, Instance vm, String lastUpdate) {
+
+		try {
+
+
+			jsonGen.writeStartObject();
+
+			// Extra Data field
+			String machineType = vm.getMachineType()
+					.substring(vm.getMachineType().indexOf("/machineTypes/") + "/machineTypes/".length());
+			String zone = vm.getZone().substring(vm.getZone().indexOf("/zones/") + "/zones/".length());
+			// String extraData = "Type: " + machineType + ", Status: " + vm.getStatus() +
+			// ", Zone: " + zone;
+
+			jsonGen.writeStringField("name", vm.getName());
+			jsonGen.writeStringField("srcSysType", SRC_SYS_TYPE);
+			jsonGen.writeStringField("resourceType", RESOURCE_TYPES.VM.name());
+			// jsonGen.writeStringField("extraData", extraData);
+			jsonGen.writeStringField("id", vm.getId().toString());
+			jsonGen.writeStringField("lastUpdate", lastUpdate);
+
+			/*
+			 * Details
+			 */
+			jsonGen.writeArrayFieldStart("details");
+			jsonGen.writeString("Machine Type: " + machineType);
+			jsonGen.writeString("Zone: " + zone);
+			jsonGen.writeString("Status: " + vm.getStatus());
+
+			// Network Interfaces
+			if (vm.getNetworkInterfaces() != null && !vm.getNetworkInterfaces().isEmpty()) {
+
+				String nwInterfaces = "NW Interfaces: ";
+				boolean isFirst = true;
+
+				for (NetworkInterface nic : vm.getNetworkInterfaces()) {
+					if (isFirst) {
+						nwInterfaces += "Name: " + nic.getName() + ", int IP: " + nic.getNetworkIP();
+						isFirst = false;
+					} else {
+						nwInterfaces += "; Name: " + nic.getName() + ", int IP: " + nic.getNetworkIP();
+					}
+
+					if (nic.getAccessConfigs() != null && !nic.getAccessConfigs().isEmpty()) {
+						nwInterfaces += ", ext IP: " + nic.getAccessConfigs().get(0).getNatIP();
+					}
+				}
+				jsonGen.writeString(nwInterfaces);
+			}
+
+			// Tags
+			if (vm.getTags() != null && vm.getTags().getItems() != null && !vm.getTags().getItems().isEmpty()) {
+				String tags = "";
+				for (String tag : vm.getTags().getItems()) {
+					tags += tag + ",";
+				}
+
+				tags = tags.substring(0, tags.length() - 1);
+				jsonGen.writeString("Tags: " + tags);
+			}
+
+			// End the "details" array
+			jsonGen.writeEndArray();
+
+			// End the current VM node
+			jsonGen.writeEndObject();
+
+		} catch (Exception ex) {
+			logger.error("Error generating JSON content for VM " + vm.getName(), ex);
+		}
+	}
+}
+
+// @Override
+// public void run() {
+//
+// logger.debug("Starting Background worker to import compute data from GCP for
+// project with ID " + projectId);
+//
+// try {
+// GoogleComputeEngineManager computeManager = new GoogleComputeEngineManager();
+// boolean connected = computeManager.createComputeConnection(projectId,
+// authenticationFileName);
+//
+// if (!connected) {
+// String msg = "Won't be able to retrieve any data from Google Compute Engine
+// since no authentication/authorization/connection could be established";
+// logger.error(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// java.sql.Connection dbConn = DriverManager.getConnection(dbConnString,
+// dbUser, dbPassword);
+//
+// /* Zones */
+// List<Object> allZones = computeManager.retrieveAllZones(projectId);
+// if (allZones == null || allZones.isEmpty()) {
+// String msg = "Error retrieving zones from GCP - stopping any further
+// processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.Zone, allZones);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Zone, allZones);
+//// publishToRabbitMQ("Zone", allZones);
+//
+// /* Regions */
+// List<Object> allRegions = computeManager.retrieveAllRegions(projectId);
+// if (allZones == null || allZones.isEmpty()) {
+// String msg = "Error retrieving zones from GCP - stopping any further
+// processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.Region, allRegions);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Region, allRegions);
+//// publishToRabbitMQ("Region", allRegions);
+//
+// /* Instances */
+// if (allZones != null && !allZones.isEmpty()) {
+//
+// List<Object> allInstances = new ArrayList<Object>();
+//
+// for (Object zoneGeneric : allZones) {
+//
+// Zone zone = (Zone) zoneGeneric;
+// List<Object> instancesFromZone =
+// computeManager.retrieveInstancesForZone(projectId, zone.getName());
+// if (instancesFromZone == null) {
+// String msg = "Error retrieving instances from GCP zone " + zone.getName()
+// + " - stopping any further processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+//// logger.debug("Found " + instancesFromZone.size() + " instances from zone "
+// + zone);
+// allInstances.addAll(instancesFromZone);
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.VM, allInstances);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.VM, allInstances);
+// }
+//
+// /* Subnets */
+// if (allRegions != null && !allRegions.isEmpty()) {
+//
+// List<Object> allSubnets = new ArrayList<Object>();
+//
+// for (Object regionGeneric : allRegions) {
+//
+// Region region = (Region) regionGeneric;
+// List<Object> subnetsFromRegion =
+// computeManager.retrieveSubnetworksForRegion(projectId,
+// region.getName());
+// if (subnetsFromRegion == null) {
+// String msg = "Error retrieving subnets from GCP region " + region.getName()
+// + " - stopping any further processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// allSubnets.addAll(subnetsFromRegion);
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.Subnet, allSubnets);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Subnet, allSubnets);
+//// publishToRabbitMQ("Subnet", allSubnets);
+// }
+//
+// /* Firewalls */
+// List<Object> allFirewalls = computeManager.retrieveFirewalls(projectId, "",
+// false);
+// if (allFirewalls == null || allFirewalls.isEmpty()) {
+// String msg = "Error retrieving firewalls from GCP - stopping any further
+// processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.Firewall, allFirewalls);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Firewall, allFirewalls);
+//
+//
+// /* Networks */
+// List<Object> allNetworks = computeManager.retrieveAllNetworks(projectId);
+// if (allNetworks == null || allNetworks.isEmpty()) {
+// String msg = "Error retrieving networks from GCP - stopping any further
+// processing";
+// logger.warn(msg);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// msg.getBytes("UTF-8"));
+// return;
+// }
+//
+// writeToDb(dbConn, RESOURCE_TYPES.Network, allNetworks);
+// publishBasicDataToRabbitMQ(RESOURCE_TYPES.Network, allNetworks);
+//
+//
+// logger.debug("Finished retrieving all resources from GCP project " +
+// projectId);
+//
+// } catch (Exception ex) {
+// logger.error(ex);
+// return;
+// }
+// }
+//
+//
+
+// /**
+// * Writes the given data (Subnets, VMs, etc.) to the DB
+// *
+// * @param dbConn Active DB connection
+// * @param resourceType Valid types: Subnet, VM,
+// * @param data Map of resource data. The values can contain any type of
+// * object (subnets, VMs, etc.) and will be written to JSON
+// * data and then stored in the DB
+// * @return
+// */
+// private boolean writeToDb(java.sql.Connection dbConn, RESOURCE_TYPES
+// resourceType, List<Object> data) {
+//
+// try {
+// String sqlInsertStmtSubnets = "INSERT INTO gcp (lastUpdated, projectId,
+// resourceType, resourceData) "
+// + "VALUES (NOW(), ?, ?, ?) " + "ON DUPLICATE KEY UPDATE lastUpdated=NOW(),
+// resourceData=?";
+//
+// PreparedStatement prepInsertStmtSubnets =
+// dbConn.prepareStatement(sqlInsertStmtSubnets);
+//
+// prepInsertStmtSubnets.setString(1, projectId);
+// prepInsertStmtSubnets.setString(2, resourceType.name());
+// prepInsertStmtSubnets.setString(3, jsonMapper.writeValueAsString(data));
+// prepInsertStmtSubnets.setString(4, jsonMapper.writeValueAsString(data));
+//
+// prepInsertStmtSubnets.executeUpdate();
+// return true;
+//
+// } catch (Exception ex) {
+// logger.error("Error trying to store resource data within the DB", ex);
+// return false;
+// }
+// }
+
+// private boolean publishToRabbitMQ(String resourceType, List<Object> data) {
+//
+// try {
+// ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+// JsonGenerator jsonGen = jsonFactory.createGenerator(outputStream,
+// JsonEncoding.UTF8);
+//
+// jsonGen.writeStartObject();
+//
+// jsonGen.writeStringField("dataType", "resources");
+// jsonGen.writeStringField("sourceSystemType", "gcp");
+// jsonGen.writeStringField("sourceSystemProjectId", projectId);
+//
+// jsonGen.writeArrayFieldStart("data");
+//
+// Date now = new Date();
+//
+// jsonGen.writeStartObject();
+//
+// jsonGen.writeStringField("lastUpdated", dateFormatter.format(now));
+// jsonGen.writeStringField("resourceType", resourceType);
+// jsonGen.writeFieldName("resourceData");
+//
+// jsonGen.writeStartArray();
+// jsonGen.writeRawValue(jsonMapper.writeValueAsString(data));
+// jsonGen.writeEndArray();
+//
+// jsonGen.writeEndObject();
+//
+// jsonGen.writeEndArray();
+// jsonGen.writeEndObject();
+//
+// jsonGen.close();
+// outputStream.close();
+//
+// logger.debug("Forwarding updated list of " + resourceType + "s to the message
+// queue " + RABBIT_QUEUE_NAME);
+// rabbitChannel.basicPublish("", RABBIT_QUEUE_NAME, null,
+// outputStream.toString().getBytes("UTF-8"));
+//
+// return true;
+//
+// } catch (Exception ex) {
+// logger.error("Error trying to publish resource data to RabbitMQ", ex);
+// return false;
+// }
+//
+// }
@@ -0,0 +1,135 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.extremenetworks.hcm.gcp.AccountConfig;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded, in-memory cache of the account configs (GCP project id and
+ * credentials) per tenant and account, so not every REST call has to read the
+ * account config from Datastore again.
+ *
+ * Entries expire after the configured time to live, so config changes made by
+ * other services are picked up eventually. Use the invalidate methods to drop
+ * an entry right away. The least recently used entry is evicted once the cache
+ * is full.
+ */
+public class AccountConfigCache {
+
+	private static final Logger logger = LogManager.getLogger(AccountConfigCache.class);
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	// Access ordered --> the eldest entry is the least recently used one
+	private final LinkedHashMap<String, CachedAccountConfig> entries;
+
+	public AccountConfigCache(int maxEntries, long ttlMillis) {
+
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+
+		entries = new LinkedHashMap<String, CachedAccountConfig>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedAccountConfig> eldest) {
+				return size() > AccountConfigCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Copies the cached config for the given tenant and account into the provided
+	 * accountConfig object.
+	 *
+	 * @return True if a valid (not expired) config was found, false otherwise
+	 */
+	public synchronized boolean get(String tenantId, String accountId, AccountConfig accountConfig) {
+
+		String key = toKey(tenantId, accountId);
+		CachedAccountConfig cached = entries.get(key);
+
+		if (cached == null) {
+			return false;
+		}
+
+		if (System.currentTimeMillis() - cached.loadedAt > ttlMillis) {
+			entries.remove(key);
+			return false;
+		}
+
+		copy(cached.accountConfig, accountConfig);
+		return true;
+	}
+
+	/**
+	 * Adds or replaces the config of the tenant and account set in the given
+	 * accountConfig. A copy is stored, so later changes to the given object don't
+	 * affect the cache.
+	 */
+	public synchronized void put(AccountConfig accountConfig) {
+
+		AccountConfig copy = new AccountConfig();
+		copy(accountConfig, copy);
+
+		entries.put(toKey(accountConfig.getTenantId(), accountConfig.getAccountId()),
+				new CachedAccountConfig(copy, System.currentTimeMillis()));
+	}
+
+	public synchronized void invalidate(String tenantId, String accountId) {
+
+		if (entries.remove(toKey(tenantId, accountId)) != null) {
+			logger.debug("Invalidated cached config for tenant id " + tenantId + " and account id " + accountId);
+		}
+	}
+
+	public synchronized void invalidateTenant(String tenantId) {
+
+		Iterator<CachedAccountConfig> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (tenantId.equals(it.next().accountConfig.getTenantId())) {
+				it.remove();
+			}
+		}
+
+		logger.debug("Invalidated all cached account configs for tenant id " + tenantId);
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static String toKey(String tenantId, String accountId) {
+		return tenantId + "/" + accountId;
+	}
+
+	private static void copy(AccountConfig from, AccountConfig to) {
+
+		to.setTenantId(from.getTenantId());
+		to.setAccountId(from.getAccountId());
+		to.setProjectId(from.getProjectId());
+		to.setCredentialsFileContent(from.getCredentialsFileContent());
+	}
+
+	private static class CachedAccountConfig {
+
+		private final AccountConfig accountConfig;
+		private final long loadedAt;
+
+		CachedAccountConfig(AccountConfig accountConfig, long loadedAt) {
+			this.accountConfig = accountConfig;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
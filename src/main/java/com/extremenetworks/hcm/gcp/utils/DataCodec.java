@@ -0,0 +1,143 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.cloud.datastore.Blob;
+import com.google.cloud.datastore.BlobValue;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.Value;
+
+/**
+ * Encoding of the JSON documents (resource and billing data) stored in
+ * Datastore. Data is either stored as plain JSON string ("none") or as gzip
+ * compressed blob ("gzip"), which shrinks the verbose GCE JSON with its
+ * repeated self links to a fraction of its size. The codec is stored with the
+ * data in the "dataCodec" property - entities without it hold plain strings.
+ *
+ * Encoded data is split into values of a maximum size, to be stored in a
+ * single property or in chunks (see DatastoreChunks).
+ */
+public class DataCodec {
+
+	public static final String PROPERTY_CODEC = "dataCodec";
+
+	public static final String NONE = "none";
+	public static final String GZIP = "gzip";
+
+	private DataCodec() {
+	}
+
+	/**
+	 * @param codec   "none" or "gzip". Unknown codecs are treated like "none"
+	 * @param maxSize Max. nr. of characters (plain strings) or bytes (blobs) per
+	 *                value
+	 * @return The encoded data in one or more unindexed values, each no larger
+	 *         than the given size
+	 */
+	public static List<Value<?>> encode(String data, String codec, int maxSize) throws IOException {
+
+		List<Value<?>> values = new ArrayList<Value<?>>();
+
+		if (GZIP.equals(codec)) {
+			for (byte[] chunk : DatastoreChunks.split(gzip(data), maxSize)) {
+				values.add(BlobValue.newBuilder(Blob.copyFrom(chunk)).setExcludeFromIndexes(true).build());
+			}
+
+		} else {
+			for (String chunk : DatastoreChunks.split(data, maxSize)) {
+				values.add(StringValue.newBuilder(chunk).setExcludeFromIndexes(true).build());
+			}
+		}
+
+		// Empty data
+		if (values.isEmpty()) {
+			values.add(StringValue.newBuilder("").setExcludeFromIndexes(true).build());
+		}
+
+		return values;
+	}
+
+	/**
+	 * @return The codec the data of the given entity has been stored with
+	 */
+	public static String getCodec(FullEntity<?> entity) {
+		return entity.contains(PROPERTY_CODEC) ? entity.getString(PROPERTY_CODEC) : NONE;
+	}
+
+	/**
+	 * Reads the data of the given property, whatever codec it has been stored
+	 * with.
+	 *
+	 * @return The decoded data or null if the entity doesn't have the property
+	 */
+	public static String decode(FullEntity<?> entity, String property) throws IOException {
+
+		if (!entity.contains(property)) {
+			return null;
+		}
+
+		List<Value<?>> values = new ArrayList<Value<?>>();
+		values.add(entity.getValue(property));
+		return decode(values, getCodec(entity));
+	}
+
+	/**
+	 * Combines and decodes the given values, e.g. the values of all chunks of the
+	 * data.
+	 */
+	public static String decode(List<Value<?>> values, String codec) throws IOException {
+
+		// Plain strings - legacy data or data stored without codec
+		if (!(values.get(0) instanceof BlobValue)) {
+
+			StringBuilder data = new StringBuilder();
+			for (Value<?> value : values) {
+				data.append((String) value.get());
+			}
+			return data.toString();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (Value<?> value : values) {
+			bytes.write(((Blob) value.get()).toByteArray());
+		}
+
+		if (GZIP.equals(codec)) {
+			return gunzip(bytes.toByteArray());
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] gzip(String data) throws IOException {
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (OutputStream gzipStream = new GZIPOutputStream(compressed)) {
+			gzipStream.write(data.getBytes(StandardCharsets.UTF_8));
+		}
+		return compressed.toByteArray();
+	}
+
+	private static String gunzip(byte[] data) throws IOException {
+
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		try (InputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(data))) {
+
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = gzipStream.read(buffer)) > 0) {
+				decompressed.write(buffer, 0, length);
+			}
+		}
+		return new String(decompressed.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,203 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.BaseEntity;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.EntityQuery;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.ProjectionEntityQuery;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Version of the data entities (resources, billing) of an account, used to
+ * answer conditional GET requests with "304 Not Modified" as long as the data
+ * hasn't changed.
+ *
+ * The workers set the "lastUpdated" property whenever they write an entity, so
+ * the entity keys together with their "lastUpdated" timestamps identify the
+ * stored data. Those are read with a projection query, which doesn't transfer
+ * the (large) data properties. With an ancestor the projection requires a
+ * composite index (see index.yaml) - without it, the entities are read in full.
+ */
+public class DataVersion {
+
+	private static final Logger logger = LogManager.getLogger(DataVersion.class);
+
+	private static final String PROPERTY_LAST_UPDATED = "lastUpdated";
+
+	private final EntityTag entityTag;
+	private final Date lastModified;
+
+	private DataVersion(EntityTag entityTag, Date lastModified) {
+		this.entityTag = entityTag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads the current version of all entities of the given kind.
+	 *
+	 * @param namespace Namespace (tenant id) of the entities
+	 * @param kind      Kind of the entities
+	 * @param ancestor  Key of the account the entities belong to or null to read
+	 *                  all entities of the kind
+	 * @return The version or null if it could not be read. The data has to be
+	 *         returned without validators then
+	 */
+	public static DataVersion retrieve(Datastore datastore, String namespace, String kind, Key ancestor) {
+
+		try {
+			ProjectionEntityQuery.Builder queryBuilder = Query.newProjectionEntityQueryBuilder().setNamespace(namespace)
+					.setKind(kind).setProjection(PROPERTY_LAST_UPDATED);
+
+			if (ancestor != null) {
+				queryBuilder.setFilter(PropertyFilter.hasAncestor(ancestor));
+			}
+
+			return of(readLastUpdated(datastore.run(queryBuilder.build())));
+
+		} catch (Exception ex) {
+			logger.warn("Could not read the version of the " + kind + " entities in namespace " + namespace
+					+ " with a projection query - reading the entities in full. Has index.yaml been deployed?", ex);
+		}
+
+		try {
+			EntityQuery.Builder queryBuilder = Query.newEntityQueryBuilder().setNamespace(namespace).setKind(kind);
+
+			if (ancestor != null) {
+				queryBuilder.setFilter(PropertyFilter.hasAncestor(ancestor));
+			}
+
+			return of(readLastUpdated(datastore.run(queryBuilder.build())));
+
+		} catch (Exception ex) {
+			logger.warn("Could not read the version of the " + kind + " entities in namespace " + namespace
+					+ " - returning the data without validators", ex);
+			return null;
+		}
+	}
+
+	private static Map<String, Timestamp> readLastUpdated(QueryResults<? extends BaseEntity<Key>> results) {
+
+		Map<String, Timestamp> lastUpdatedByKey = new HashMap<String, Timestamp>();
+		while (results.hasNext()) {
+			BaseEntity<Key> entity = results.next();
+			lastUpdatedByKey.put(String.valueOf(entity.getKey().getNameOrId()),
+					entity.contains(PROPERTY_LAST_UPDATED) ? entity.getTimestamp(PROPERTY_LAST_UPDATED) : null);
+		}
+		return lastUpdatedByKey;
+	}
+
+	/**
+	 * Computes the version of the given entities, e.g. of entities that are
+	 * already held in memory.
+	 *
+	 * @param lastUpdatedByKey "lastUpdated" timestamp per entity key name
+	 */
+	public static DataVersion of(Map<String, Timestamp> lastUpdatedByKey) throws NoSuchAlgorithmException {
+
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		Timestamp lastModified = null;
+
+		// Sorted by key so the tag doesn't depend on the order of the entities
+		for (Map.Entry<String, Timestamp> entry : new TreeMap<String, Timestamp>(lastUpdatedByKey).entrySet()) {
+
+			digest.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+
+			Timestamp lastUpdated = entry.getValue();
+			if (lastUpdated != null && (lastModified == null || lastUpdated.compareTo(lastModified) > 0)) {
+				lastModified = lastUpdated;
+			}
+		}
+
+		StringBuilder tag = new StringBuilder();
+		for (byte b : digest.digest()) {
+			tag.append(String.format("%02x", b));
+		}
+
+		return new DataVersion(new EntityTag(tag.toString()), lastModified != null ? lastModified.toDate() : null);
+	}
+
+	/**
+	 * @param contentEncoding E.g. "gzip"
+	 * @return This version of the data in the given content encoding. Each
+	 *         encoding gets its own strong entity tag, since the bytes differ
+	 */
+	public DataVersion forEncoding(String contentEncoding) {
+		return new DataVersion(new EntityTag(entityTag.getValue() + "-" + contentEncoding), lastModified);
+	}
+
+	/**
+	 * Evaluates the If-None-Match and If-Modified-Since headers of the given
+	 * request against this version.
+	 *
+	 * @return A "304 Not Modified" response if the client's copy is up to date,
+	 *         otherwise null
+	 */
+	public Response evaluatePreconditions(Request request) {
+
+		ResponseBuilder notModified = lastModified != null ? request.evaluatePreconditions(lastModified, entityTag)
+				: request.evaluatePreconditions(entityTag);
+
+		return notModified != null ? notModified.cacheControl(getCacheControl()).build() : null;
+	}
+
+	/**
+	 * Adds the validators of this version to the given response.
+	 */
+	public ResponseBuilder addValidators(ResponseBuilder response) {
+
+		response.tag(entityTag).cacheControl(getCacheControl());
+		if (lastModified != null) {
+			response.lastModified(lastModified);
+		}
+		return response;
+	}
+
+	/**
+	 * Clients may keep the data but have to revalidate it on every request -
+	 * without this, clients may consider the data fresh for some time based on
+	 * Last-Modified alone.
+	 */
+	private static CacheControl getCacheControl() {
+
+		CacheControl cacheControl = new CacheControl();
+		cacheControl.setNoCache(true);
+		cacheControl.setNoTransform(false);
+		return cacheControl;
+	}
+
+	/**
+	 * @return Strong entity tag that changes whenever an entity is written,
+	 *         added or deleted
+	 */
+	public EntityTag getEntityTag() {
+		return entityTag;
+	}
+
+	/**
+	 * @return Latest "lastUpdated" timestamp of the entities or null if there are
+	 *         none
+	 */
+	public Date getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,149 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.PathElement;
+import com.google.cloud.datastore.Value;
+
+/**
+ * Storage of data that is too large for a single Datastore entity (~1 MB): the
+ * data is split into chunks, each stored in a child entity of a manifest
+ * entity. The manifest holds the nr. of chunks and their version, which is part
+ * of the chunk names, so readers never combine chunks of different writes.
+ *
+ * Chunk entities are named "[version]-[index]" and hold their part of the data
+ * in the "data" property - a part of a string or blob as encoded by DataCodec.
+ */
+public class DatastoreChunks {
+
+	// Manifest properties
+	public static final String PROPERTY_CHUNK_COUNT = "chunkCount";
+	public static final String PROPERTY_CHUNK_VERSION = "chunkVersion";
+
+	// Chunk property
+	public static final String PROPERTY_DATA = "data";
+
+	// Max. nr. of keys per lookup and per delete
+	private static final int MAX_KEYS_PER_FETCH = 1000;
+	private static final int MAX_KEYS_PER_DELETE = 500;
+
+	private DatastoreChunks() {
+	}
+
+	/**
+	 * Splits the given data into chunks of at most the given nr. of characters.
+	 * Surrogate pairs are never split.
+	 */
+	public static List<String> split(String data, int maxChars) {
+
+		List<String> chunks = new ArrayList<String>();
+
+		int from = 0;
+		while (from < data.length()) {
+
+			int to = Math.min(from + maxChars, data.length());
+			if (to < data.length() && to - from > 1 && Character.isHighSurrogate(data.charAt(to - 1))) {
+				to--;
+			}
+
+			chunks.add(data.substring(from, to));
+			from = to;
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Splits the given data into chunks of at most the given nr. of bytes.
+	 */
+	public static List<byte[]> split(byte[] data, int maxBytes) {
+
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		for (int from = 0; from < data.length; from += maxBytes) {
+			chunks.add(Arrays.copyOfRange(data, from, Math.min(from + maxBytes, data.length)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * @param manifestKey Key of the manifest entity the chunks belong to
+	 * @param chunkKind   Kind of the chunk entities
+	 * @param version     Version of the chunks, as stored in the manifest
+	 * @return The keys of all chunks of the given manifest, in order
+	 */
+	public static List<Key> chunkKeys(Key manifestKey, String chunkKind, String version, int nrOfChunks) {
+
+		List<Key> chunkKeys = new ArrayList<Key>();
+		for (int i = 0; i < nrOfChunks; i++) {
+			chunkKeys.add(chunkKey(manifestKey, chunkKind, version, i));
+		}
+		return chunkKeys;
+	}
+
+	public static Key chunkKey(Key manifestKey, String chunkKind, String version, int index) {
+
+		return Key.newBuilder(manifestKey.getProjectId(), chunkKind, version + "-" + index)
+				.setNamespace(manifestKey.getNamespace()).addAncestors(manifestKey.getAncestors())
+				.addAncestor(PathElement.of(manifestKey.getKind(), manifestKey.getName())).build();
+	}
+
+	/**
+	 * @return True if the given chunk key belongs to the given version
+	 */
+	public static boolean isChunkOf(Key chunkKey, String version) {
+		return version != null && chunkKey.getName() != null && chunkKey.getName().startsWith(version + "-");
+	}
+
+	/**
+	 * Looks up the given chunks, with as few calls as possible. Datastore serves
+	 * the keys of a lookup in parallel.
+	 *
+	 * @return The chunk entities in the order of the given keys, null for the ones
+	 *         that don't exist
+	 */
+	public static List<Entity> fetch(Datastore datastore, List<Key> chunkKeys) {
+
+		List<Entity> chunks = new ArrayList<Entity>(chunkKeys.size());
+
+		for (int from = 0; from < chunkKeys.size(); from += MAX_KEYS_PER_FETCH) {
+			List<Key> keys = chunkKeys.subList(from, Math.min(from + MAX_KEYS_PER_FETCH, chunkKeys.size()));
+			chunks.addAll(datastore.fetch(keys.toArray(new Key[keys.size()])));
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Deletes the given chunks, e.g. the ones of a previous version, with as few
+	 * calls as possible.
+	 */
+	public static void delete(Datastore datastore, List<Key> chunkKeys) {
+
+		for (int from = 0; from < chunkKeys.size(); from += MAX_KEYS_PER_DELETE) {
+			List<Key> keys = chunkKeys.subList(from, Math.min(from + MAX_KEYS_PER_DELETE, chunkKeys.size()));
+			datastore.delete(keys.toArray(new Key[keys.size()]));
+		}
+	}
+
+	/**
+	 * @return The data values of the given chunks, in order, or null if any of
+	 *         them is missing (e.g. it has been replaced by a newer version
+	 *         meanwhile)
+	 */
+	public static List<Value<?>> getData(List<Entity> chunks) {
+
+		List<Value<?>> data = new ArrayList<Value<?>>();
+		for (Entity chunk : chunks) {
+			if (chunk == null) {
+				return null;
+			}
+			data.add(chunk.getValue(PROPERTY_DATA));
+		}
+		return data;
+	}
+}
@@ -0,0 +1,297 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.PathElement;
+import com.google.cloud.datastore.Transaction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects the entities a background worker writes during one run and writes
+ * them to Datastore once the run is complete, instead of with one call per
+ * entity. Saves the round trips and keeps the writes of a run from competing
+ * for the write rate of their entity group.
+ *
+ * A buffer of up to 500 puts and deletes, 10 MiB and 25 entity groups is
+ * committed in a single transaction, so readers see either all or none of the changes of the run.
+ * Larger buffers are written with as few non-transactional calls as possible,
+ * in this order: the entities added via add(), then the manifests added via
+ * addManifest() and then the deletes. Readers then may see a mix of old and new
+ * entities while the commit is running, but a manifest is never visible before
+ * the entities it lists, and deleted entities are only removed once the
+ * manifests no longer refer to them.
+ */
+public class DatastoreWriteBuffer {
+
+	private static final Logger logger = LogManager.getLogger(DatastoreWriteBuffer.class);
+
+	private static final int MAX_ENTITIES_PER_PUT = 500;
+	private static final int MAX_KEYS_PER_DELETE = 500;
+	private static final int MAX_MUTATIONS_PER_TRANSACTION = 500;
+	private static final int MAX_ENTITY_GROUPS_PER_TRANSACTION = 25;
+
+	// Below the 10 MiB limit, leaving room for the keys and request overhead
+	private static final long MAX_BYTES_PER_PUT = 9L * 1024 * 1024;
+
+	private final Datastore datastore;
+
+	private final List<FullEntity<?>> entities = new ArrayList<FullEntity<?>>();
+	private final List<Long> entitySizes = new ArrayList<Long>();
+	private long bytes = 0;
+
+	// Written after all other entities
+	private final List<FullEntity<?>> manifests = new ArrayList<FullEntity<?>>();
+	private final List<Long> manifestSizes = new ArrayList<Long>();
+
+	private final List<Key> deletedKeys = new ArrayList<Key>();
+
+	public DatastoreWriteBuffer(Datastore datastore) {
+		this.datastore = datastore;
+	}
+
+	/**
+	 * Adds the given entity to the next commit.
+	 *
+	 * @return Estimated size of the entity in bytes
+	 */
+	public synchronized long add(FullEntity<?> entity) {
+
+		long entitySize = InstrumentedDatastore.estimateEntitySize(entity);
+
+		entities.add(entity);
+		entitySizes.add(entitySize);
+		bytes += entitySize;
+
+		return entitySize;
+	}
+
+	/**
+	 * Adds an entity that refers to other entities of the commit, e.g. the entity
+	 * listing the chunks of a value. Written after the entities added via add().
+	 *
+	 * @return Estimated size of the entity in bytes
+	 */
+	public synchronized long addManifest(FullEntity<?> entity) {
+
+		long entitySize = InstrumentedDatastore.estimateEntitySize(entity);
+
+		manifests.add(entity);
+		manifestSizes.add(entitySize);
+		bytes += entitySize;
+
+		return entitySize;
+	}
+
+	/**
+	 * Adds the deletion of the given entity to the next commit.
+	 */
+	public synchronized void delete(Key key) {
+		deletedKeys.add(key);
+	}
+
+	public synchronized int size() {
+		return entities.size() + manifests.size();
+	}
+
+	/**
+	 * @return Estimated size of all buffered entities in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return Estimated size in bytes per buffered entity, by the name (or id) of
+	 *         its key. Entities with incomplete keys are listed as "(new)"
+	 */
+	public synchronized Map<String, Long> getEntitySizes() {
+
+		Map<String, Long> sizesByName = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < entities.size(); i++) {
+			sizesByName.merge(toName(entities.get(i)), entitySizes.get(i), Long::sum);
+		}
+		for (int i = 0; i < manifests.size(); i++) {
+			sizesByName.merge(toName(manifests.get(i)), manifestSizes.get(i), Long::sum);
+		}
+		return sizesByName;
+	}
+
+	/**
+	 * @return Nr. of buffered deletes
+	 */
+	public synchronized int getNrOfDeletes() {
+		return deletedKeys.size();
+	}
+
+	/**
+	 * Writes all buffered entities, deletes the buffered keys and empties the
+	 * buffer - in a single transaction if the buffer fits into one, see above. If
+	 * a call fails, the buffer is left unchanged. Without a transaction the
+	 * changes of the calls that succeeded before stay written.
+	 *
+	 * @return Nr. of put, delete and commit calls made
+	 * @throws com.google.cloud.datastore.DatastoreException If a call failed
+	 */
+	public synchronized int commit() {
+
+		if (entities.isEmpty() && manifests.isEmpty() && deletedKeys.isEmpty()) {
+			return 0;
+		}
+
+		long startedAt = System.currentTimeMillis();
+		int nrOfCalls;
+
+		int nrOfMutations = entities.size() + manifests.size() + deletedKeys.size();
+		boolean transactional = nrOfMutations <= MAX_MUTATIONS_PER_TRANSACTION && bytes <= MAX_BYTES_PER_PUT
+				&& countEntityGroups() <= MAX_ENTITY_GROUPS_PER_TRANSACTION;
+
+		if (transactional) {
+			commitInTransaction();
+			nrOfCalls = 1;
+
+		} else {
+			// Manifests last, so they never list entities that haven't been written yet
+			nrOfCalls = put(entities, entitySizes) + put(manifests, manifestSizes);
+
+			for (int fromKey = 0; fromKey < deletedKeys.size(); fromKey += MAX_KEYS_PER_DELETE) {
+				List<Key> keys = deletedKeys.subList(fromKey,
+						Math.min(fromKey + MAX_KEYS_PER_DELETE, deletedKeys.size()));
+				datastore.delete(keys.toArray(new Key[keys.size()]));
+				nrOfCalls++;
+			}
+		}
+
+		logger.debug("Committed " + (entities.size() + manifests.size()) + " entities with an estimated " + bytes
+				+ " bytes and " + deletedKeys.size() + " deletes in " + nrOfCalls
+				+ (transactional ? " transactional" : " non-transactional") + " call(s) within "
+				+ (System.currentTimeMillis() - startedAt) + " ms - bytes per kind: " + getBytesByKind());
+
+		entities.clear();
+		entitySizes.clear();
+		manifests.clear();
+		manifestSizes.clear();
+		bytes = 0;
+		deletedKeys.clear();
+
+		return nrOfCalls;
+	}
+
+	private void commitInTransaction() {
+
+		Transaction transaction = datastore.newTransaction();
+
+		try {
+			List<FullEntity<?>> allEntities = new ArrayList<FullEntity<?>>(entities);
+			allEntities.addAll(manifests);
+
+			if (!allEntities.isEmpty()) {
+				transaction.put(allEntities.toArray(new FullEntity<?>[allEntities.size()]));
+			}
+			if (!deletedKeys.isEmpty()) {
+				transaction.delete(deletedKeys.toArray(new Key[deletedKeys.size()]));
+			}
+			transaction.commit();
+
+		} finally {
+			if (transaction.isActive()) {
+				transaction.rollback();
+			}
+		}
+	}
+
+	/**
+	 * @return Nr. of entity groups the buffered puts and deletes belong to
+	 */
+	private int countEntityGroups() {
+
+		List<IncompleteKey> keys = new ArrayList<IncompleteKey>(deletedKeys);
+		for (FullEntity<?> entity : entities) {
+			keys.add(entity.getKey());
+		}
+		for (FullEntity<?> manifest : manifests) {
+			keys.add(manifest.getKey());
+		}
+
+		Set<String> entityGroups = new HashSet<String>();
+		int nrOfNewRoots = 0;
+
+		for (IncompleteKey key : keys) {
+			if (!key.getAncestors().isEmpty()) {
+				PathElement root = key.getAncestors().get(0);
+				entityGroups.add(key.getNamespace() + "/" + root.getKind() + "/" + root.getNameOrId());
+			} else if (key instanceof Key) {
+				entityGroups.add(key.getNamespace() + "/" + key.getKind() + "/" + ((Key) key).getNameOrId());
+			} else {
+				// Each new root entity forms a group of its own
+				nrOfNewRoots++;
+			}
+		}
+		return entityGroups.size() + nrOfNewRoots;
+	}
+
+	/**
+	 * Writes the given entities with as few put calls as the limits allow.
+	 *
+	 * @return Nr. of put calls made
+	 */
+	private int put(List<FullEntity<?>> entities, List<Long> entitySizes) {
+
+		int nrOfPuts = 0;
+
+		int from = 0;
+		while (from < entities.size()) {
+
+			int to = from;
+			long putBytes = 0;
+
+			// At least one entity per put, even if it exceeds the limit on its own
+			while (to < entities.size() && to - from < MAX_ENTITIES_PER_PUT
+					&& (to == from || putBytes + entitySizes.get(to) <= MAX_BYTES_PER_PUT)) {
+				putBytes += entitySizes.get(to);
+				to++;
+			}
+
+			datastore.put(entities.subList(from, to).toArray(new FullEntity<?>[to - from]));
+			nrOfPuts++;
+			from = to;
+		}
+
+		return nrOfPuts;
+	}
+
+	/**
+	 * @return Estimated size in bytes of all buffered entities per kind - unlike
+	 *         the sizes per entity, short enough to be logged for any nr. of
+	 *         entities
+	 */
+	private Map<String, Long> getBytesByKind() {
+
+		Map<String, Long> bytesByKind = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < entities.size(); i++) {
+			bytesByKind.merge(entities.get(i).getKey().getKind(), entitySizes.get(i), Long::sum);
+		}
+		for (int i = 0; i < manifests.size(); i++) {
+			bytesByKind.merge(manifests.get(i).getKey().getKind(), manifestSizes.get(i), Long::sum);
+		}
+		return bytesByKind;
+	}
+
+	private static String toName(FullEntity<?> entity) {
+
+		if (!(entity.getKey() instanceof Key)) {
+			return "(new)";
+		}
+		return String.valueOf(((Key) entity.getKey()).getNameOrId());
+	}
+}
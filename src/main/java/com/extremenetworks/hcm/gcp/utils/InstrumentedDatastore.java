@@ -0,0 +1,160 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.cloud.datastore.Blob;
+import com.google.cloud.datastore.BlobValue;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.EntityValue;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.ListValue;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.Transaction;
+import com.google.cloud.datastore.Value;
+
+/**
+ * Wraps a Datastore client so the latency of all reads and writes and the
+ * estimated size of the entities read or written are recorded in the
+ * ServiceMetrics, without changing the callers.
+ *
+ * Query results are read lazily in batches - only the first batch, which is
+ * requested when the query is run, is included in the latency of "run".
+ * Transactions are wrapped as well: their puts and deletes are only sent with
+ * the "commit", which is recorded without a size.
+ */
+public class InstrumentedDatastore implements InvocationHandler {
+
+	// Datastore client methods that result in a call to Datastore
+	private static final Set<String> INSTRUMENTED_METHODS = new HashSet<String>(
+			Arrays.asList("get", "fetch", "run", "put", "add", "update", "delete", "allocateId"));
+
+	// Transaction methods that result in a call to Datastore
+	private static final Set<String> INSTRUMENTED_TRANSACTION_METHODS = new HashSet<String>(
+			Arrays.asList("get", "fetch", "run", "commit", "rollback"));
+
+	private final Object target;
+	private final Set<String> instrumentedMethods;
+	private final ServiceMetrics metrics;
+
+	private InstrumentedDatastore(Object target, Set<String> instrumentedMethods, ServiceMetrics metrics) {
+		this.target = target;
+		this.instrumentedMethods = instrumentedMethods;
+		this.metrics = metrics;
+	}
+
+	public static Datastore wrap(Datastore datastore, ServiceMetrics metrics) {
+
+		return (Datastore) Proxy.newProxyInstance(Datastore.class.getClassLoader(), new Class<?>[] { Datastore.class },
+				new InstrumentedDatastore(datastore, INSTRUMENTED_METHODS, metrics));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+		if (method.getName().equals("newTransaction") && target instanceof Datastore) {
+			return Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[] { Transaction.class },
+					new InstrumentedDatastore(invokeTarget(method, args), INSTRUMENTED_TRANSACTION_METHODS, metrics));
+		}
+
+		if (!instrumentedMethods.contains(method.getName())) {
+			return invokeTarget(method, args);
+		}
+
+		long startedAt = System.nanoTime();
+		boolean success = false;
+		Object result = null;
+
+		try {
+			result = invokeTarget(method, args);
+			success = true;
+			return result;
+
+		} finally {
+			long bytes = method.getName().equals("get") || method.getName().equals("fetch") ? estimateSize(result)
+					: estimateSize(args);
+			metrics.observeDatastore(method.getName(), success, System.nanoTime() - startedAt, success ? bytes : -1);
+		}
+	}
+
+	private Object invokeTarget(Method method, Object[] args) throws Throwable {
+
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * @return Estimated size of the entities among the given arguments or results
+	 *         (single entities, arrays and lists of entities) or -1 if there are
+	 *         none, e.g. for iterators that are read lazily
+	 */
+	private static long estimateSize(Object object) {
+
+		if (object instanceof FullEntity) {
+			return estimateEntitySize((FullEntity<?>) object);
+		}
+
+		Iterable<?> items = null;
+		if (object instanceof Object[]) {
+			items = Arrays.asList((Object[]) object);
+		} else if (object instanceof List) {
+			items = (Iterable<?>) object;
+		}
+
+		if (items == null) {
+			return -1;
+		}
+
+		long size = -1;
+		for (Object item : items) {
+			long itemSize = estimateSize(item);
+			if (itemSize >= 0) {
+				size = Math.max(size, 0) + itemSize;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Sums up the sizes of the entity's string and blob properties, which make up
+	 * nearly all of the data this service stores. Strings are counted by their
+	 * length to not encode large JSON documents once more just for the metrics,
+	 * other properties with 8 bytes each. Lists, e.g. of the chunks of a large
+	 * value, and embedded entities are counted by their elements.
+	 */
+	public static long estimateEntitySize(FullEntity<?> entity) {
+
+		long size = 0;
+		for (String name : entity.getNames()) {
+			size += name.length() + estimateValueSize(entity.getValue(name));
+		}
+		return size;
+	}
+
+	private static long estimateValueSize(Value<?> value) {
+
+		if (value instanceof StringValue) {
+			return ((StringValue) value).get().length();
+		} else if (value instanceof BlobValue) {
+			return ((Blob) value.get()).getLength();
+		} else if (value instanceof ListValue) {
+			long size = 0;
+			for (Value<?> element : ((ListValue) value).get()) {
+				size += estimateValueSize(element);
+			}
+			return size;
+		} else if (value instanceof EntityValue) {
+			return estimateEntitySize(((EntityValue) value).get());
+		}
+		return 8;
+	}
+}
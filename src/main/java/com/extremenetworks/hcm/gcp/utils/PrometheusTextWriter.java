@@ -0,0 +1,117 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4):
+ * a "# HELP" and "# TYPE" line per metric, followed by one line per sample,
+ * e.g.
+ *
+ * <pre>
+ * hcm_gcp_executor_queue_size{executor="hcm-worker"} 3
+ * </pre>
+ */
+public class PrometheusTextWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final StringBuilder output = new StringBuilder();
+
+	public void writeHeader(String name, String type, String help) {
+
+		output.append("# HELP ").append(name).append(' ').append(escapeHelp(help)).append('\n');
+		output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	public void writeSample(String name, double value) {
+		writeSample(name, null, null, null, null, value);
+	}
+
+	public void writeSample(String name, String labelName, String labelValue, double value) {
+		writeSample(name, new String[] { labelName }, new String[] { labelValue }, value);
+	}
+
+	public void writeSample(String name, String[] labelNames, String[] labelValues, double value) {
+		writeSample(name, labelNames, labelValues, null, null, value);
+	}
+
+	/**
+	 * @param extraLabelName  Additional label, e.g. "le" of a histogram bucket, or
+	 *                        null
+	 * @param extraLabelValue Value of the additional label
+	 */
+	public void writeSample(String name, String[] labelNames, String[] labelValues, String extraLabelName,
+			String extraLabelValue, double value) {
+
+		output.append(name);
+
+		boolean hasLabels = labelNames != null && labelNames.length > 0;
+		if (hasLabels || extraLabelName != null) {
+
+			output.append('{');
+			boolean first = true;
+
+			if (hasLabels) {
+				for (int i = 0; i < labelNames.length; i++) {
+					if (!first) {
+						output.append(',');
+					}
+					appendLabel(labelNames[i], labelValues[i]);
+					first = false;
+				}
+			}
+			if (extraLabelName != null) {
+				if (!first) {
+					output.append(',');
+				}
+				appendLabel(extraLabelName, extraLabelValue);
+			}
+
+			output.append('}');
+		}
+
+		output.append(' ').append(formatValue(value)).append('\n');
+	}
+
+	public static String formatValue(double value) {
+
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	@Override
+	public String toString() {
+		return output.toString();
+	}
+
+	private void appendLabel(String name, String value) {
+
+		output.append(name).append("=\"");
+
+		String labelValue = String.valueOf(value);
+		for (int i = 0; i < labelValue.length(); i++) {
+			char c = labelValue.charAt(i);
+			if (c == '\\') {
+				output.append("\\\\");
+			} else if (c == '"') {
+				output.append("\\\"");
+			} else if (c == '\n') {
+				output.append("\\n");
+			} else {
+				output.append(c);
+			}
+		}
+
+		output.append('"');
+	}
+
+	private static String escapeHelp(String help) {
+		return help.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+}
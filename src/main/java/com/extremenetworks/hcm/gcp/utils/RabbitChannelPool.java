@@ -0,0 +1,222 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds a single RabbitMQ connection for the whole service and hands out a
+ * bounded number of channels on top of it. RabbitMQ channels must not be used
+ * by more than one thread at a time, so every publish borrows a channel from
+ * the pool and returns it once done.
+ *
+ * The connection is established lazily on first use and re-established if the
+ * broker closed it, so a RabbitMQ server that isn't reachable yet while this
+ * service starts up doesn't leave the service without a connection for good.
+ * Queues declared through the pool are declared again on a new connection, on
+ * their first use - non-durable queues are gone after a broker restart.
+ */
+public class RabbitChannelPool {
+
+	private static final Logger logger = LogManager.getLogger(RabbitChannelPool.class);
+
+	private final ConnectionFactory factory;
+	private Connection connection;
+
+	// Idle channels ready to be reused and the permits limiting the total nr. of
+	// channels (idle + in use)
+	private final BlockingQueue<Channel> idleChannels;
+	private final Semaphore channelPermits;
+
+	// Queues to declare (name, durable) and the ones already declared on the
+	// current connection
+	private final Map<String, Boolean> queues = new ConcurrentHashMap<String, Boolean>();
+	private final Set<String> declaredQueues = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean closed = false;
+
+	// Publish latency and message sizes, may be null
+	private final ServiceMetrics metrics;
+
+	public RabbitChannelPool(String rabbitServer, int maxChannels, ServiceMetrics metrics) {
+
+		this.metrics = metrics;
+
+		factory = new ConnectionFactory();
+		factory.setHost(rabbitServer);
+
+		idleChannels = new LinkedBlockingQueue<Channel>(maxChannels);
+		channelPermits = new Semaphore(maxChannels, true);
+	}
+
+	/**
+	 * Declares the given (non-exclusive, non auto-delete) queue on the broker
+	 * unless it has already been declared on the current connection.
+	 *
+	 * @param queueName Name of the queue to declare
+	 * @param durable   True if the queue should survive a broker restart
+	 */
+	public void declareQueue(String queueName, boolean durable) throws Exception {
+
+		queues.put(queueName, durable);
+
+		if (declaredQueues.contains(queueName)) {
+			return;
+		}
+
+		Channel channel = borrowChannel();
+		boolean healthy = false;
+
+		try {
+			declare(channel, queueName);
+			healthy = true;
+
+		} finally {
+			returnChannel(channel, healthy);
+		}
+	}
+
+	/**
+	 * Publishes the given message to the given queue using the default exchange.
+	 * The time it takes, including waiting for a channel, is recorded in the
+	 * service metrics.
+	 *
+	 * @param queueName Name of the queue to publish to
+	 * @param body      The message content
+	 */
+	public void publish(String queueName, byte[] body) throws Exception {
+
+		long startedAt = System.nanoTime();
+		boolean healthy = false;
+
+		try {
+			Channel channel = borrowChannel();
+
+			try {
+				// The default exchange drops messages to queues that don't exist
+				if (!declaredQueues.contains(queueName) && queues.containsKey(queueName)) {
+					declare(channel, queueName);
+				}
+				channel.basicPublish("", queueName, null, body);
+				healthy = true;
+
+			} finally {
+				returnChannel(channel, healthy);
+			}
+
+		} finally {
+			if (metrics != null) {
+				metrics.observeRabbitPublish(healthy, System.nanoTime() - startedAt, body != null ? body.length : 0);
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle channels and the underlying connection. Channels that are
+	 * currently borrowed will be closed together with the connection.
+	 */
+	public void close() {
+
+		closed = true;
+
+		Channel channel;
+		while ((channel = idleChannels.poll()) != null) {
+			closeQuietly(channel);
+		}
+
+		synchronized (this) {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Exception ex) {
+					logger.warn("Error closing the Rabbit MQ connection", ex);
+				}
+				connection = null;
+			}
+		}
+	}
+
+	private Channel borrowChannel() throws Exception {
+
+		if (closed) {
+			throw new IllegalStateException("The Rabbit MQ channel pool has already been closed");
+		}
+
+		channelPermits.acquire();
+
+		try {
+			Channel channel;
+			while ((channel = idleChannels.poll()) != null) {
+				if (channel.isOpen()) {
+					return channel;
+				}
+			}
+
+			return getConnection().createChannel();
+
+		} catch (Exception ex) {
+			channelPermits.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @param healthy False if the last operation on this channel failed. The
+	 *                channel will be closed instead of being reused in that case
+	 */
+	private void returnChannel(Channel channel, boolean healthy) {
+
+		try {
+			if (!closed && healthy && channel.isOpen() && idleChannels.offer(channel)) {
+				return;
+			}
+			closeQuietly(channel);
+
+		} finally {
+			channelPermits.release();
+		}
+	}
+
+	private void declare(Channel channel, String queueName) throws IOException {
+
+		logger.info("Declaring Rabbit MQ queue name: " + queueName);
+		channel.queueDeclare(queueName, queues.get(queueName), false, false, null);
+		declaredQueues.add(queueName);
+	}
+
+	private synchronized Connection getConnection() throws IOException, TimeoutException {
+
+		if (connection == null || !connection.isOpen()) {
+			logger.info("Opening new connection to Rabbit MQ server " + factory.getHost());
+			connection = factory.newConnection();
+
+			// The broker may have been restarted in the meantime
+			declaredQueues.clear();
+		}
+
+		return connection;
+	}
+
+	private void closeQuietly(Channel channel) {
+
+		try {
+			if (channel.isOpen()) {
+				channel.close();
+			}
+		} catch (Exception ex) {
+			logger.debug("Error closing Rabbit MQ channel", ex);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.cloud.Timestamp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded, in-memory cache of the resource data (VMs, subnets, networks, etc.)
+ * of an account as stored in Datastore, so /resources/all can be answered
+ * without querying Datastore again.
+ *
+ * Snapshots are loaded by the readers on a cache miss and refreshed by the
+ * resources workers whenever they write a resource type to Datastore. The size
+ * of the cache is bounded by the estimated memory of the snapshots, in total
+ * and per tenant. The least recently used snapshot is evicted once a bound is
+ * exceeded. Snapshots also expire after the configured time to live, in case
+ * the data has been written by another instance of this service.
+ *
+ * Along with a snapshot, its gzip compressed response document can be cached,
+ * so clients accepting gzip get the same bytes without the document being
+ * built and compressed for every request.
+ */
+public class ResourceSnapshotCache {
+
+	private static final Logger logger = LogManager.getLogger(ResourceSnapshotCache.class);
+
+	private final long maxBytes;
+	private final long maxBytesPerTenant;
+	private final long ttlMillis;
+
+	// Access ordered --> the eldest entry is the least recently used one
+	private final LinkedHashMap<String, Snapshot> entries = new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+	private final Map<String, Long> bytesPerTenant = new HashMap<String, Long>();
+	private long bytes = 0;
+
+	// Incremented on every write to Datastore. Loads that were started before a
+	// write are not cached since they might miss that write
+	private long generation = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public ResourceSnapshotCache(long maxBytes, long maxBytesPerTenant, long ttlMillis) {
+		this.maxBytes = maxBytes;
+		this.maxBytesPerTenant = maxBytesPerTenant;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @return The cached snapshot of the given account or null if it isn't cached
+	 *         or has expired
+	 */
+	public synchronized Snapshot get(String tenantId, String accountId) {
+
+		String key = toKey(tenantId, accountId);
+		Snapshot snapshot = entries.get(key);
+
+		if (snapshot != null && System.currentTimeMillis() - snapshot.loadedAt > ttlMillis) {
+			remove(key);
+			snapshot = null;
+		}
+
+		if (snapshot == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return snapshot;
+	}
+
+	/**
+	 * Must be called before reading the data of a snapshot from Datastore and
+	 * passed to put() afterwards.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds a snapshot that has been read from Datastore, unless the data has been
+	 * written in the meantime or the snapshot is larger than a tenant may use.
+	 *
+	 * @param generation The generation at the time the read started
+	 * @return True if the snapshot has been cached
+	 */
+	public synchronized boolean put(Snapshot snapshot, long generation) {
+
+		if (generation != this.generation) {
+			logger.debug("Not caching the resource data of tenant id " + snapshot.tenantId + " and account id "
+					+ snapshot.accountId + " since resource data has been written while it was read");
+			return false;
+		}
+
+		return store(snapshot);
+	}
+
+	/**
+	 * @param bytes Estimated memory of a snapshot, see ResourceTypeData.getBytes()
+	 * @return True if a snapshot of that size can be cached at all. Readers only
+	 *         keep the data they read for the cache as long as it fits
+	 */
+	public boolean fits(long bytes) {
+		return bytes <= maxBytesPerTenant && bytes <= maxBytes;
+	}
+
+	/**
+	 * Refreshes the cached snapshot of the given account after resource types
+	 * have been written to Datastore, all at once. Accounts without a cached
+	 * snapshot are left alone - their snapshot is loaded on the next read.
+	 *
+	 * @param updatedResourceTypes The data of the written resource types
+	 * @return The refreshed snapshot or null if the account's snapshot isn't
+	 *         cached
+	 */
+	public synchronized Snapshot update(String tenantId, String accountId,
+			Collection<ResourceTypeData> updatedResourceTypes) {
+
+		generation++;
+
+		Snapshot snapshot = entries.get(toKey(tenantId, accountId));
+		if (snapshot == null) {
+			return null;
+		}
+
+		Map<String, ResourceTypeData> resourceTypes = new TreeMap<String, ResourceTypeData>(snapshot.resourceTypes);
+		for (ResourceTypeData resourceType : updatedResourceTypes) {
+			resourceTypes.put(resourceType.resourceType, resourceType);
+		}
+
+		Snapshot refreshedSnapshot = new Snapshot(tenantId, accountId, resourceTypes);
+		return store(refreshedSnapshot) ? refreshedSnapshot : null;
+	}
+
+	/**
+	 * @return The gzip compressed response document of the given snapshot or null
+	 *         if it hasn't been built yet
+	 */
+	public synchronized byte[] getGzippedDocument(Snapshot snapshot) {
+		return snapshot.gzippedDocument;
+	}
+
+	/**
+	 * Keeps the gzip compressed response document with the given snapshot, if
+	 * the snapshot is cached. Its size counts towards the cache limits - the
+	 * snapshot stays cached without the document if both don't fit.
+	 */
+	public synchronized void setGzippedDocument(Snapshot snapshot, byte[] gzippedDocument) {
+
+		String key = toKey(snapshot.tenantId, snapshot.accountId);
+
+		// Documents of snapshots that aren't cached would be thrown away with them
+		if (snapshot.gzippedDocument != null || entries.get(key) != snapshot) {
+			return;
+		}
+
+		// Accounted again, including the document
+		remove(key);
+		snapshot.gzippedDocument = gzippedDocument;
+
+		if (!store(snapshot)) {
+			snapshot.gzippedDocument = null;
+			store(snapshot);
+		}
+	}
+
+	public synchronized void invalidate(String tenantId, String accountId) {
+
+		generation++;
+		remove(toKey(tenantId, accountId));
+	}
+
+	public synchronized void invalidateAll() {
+
+		generation++;
+		entries.clear();
+		bytesPerTenant.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Estimated memory used by all cached snapshots, in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/* Callers must hold the lock of this cache */
+	private boolean store(Snapshot snapshot) {
+
+		String key = toKey(snapshot.tenantId, snapshot.accountId);
+		remove(key);
+
+		long snapshotBytes = snapshot.getBytes();
+
+		if (snapshotBytes > maxBytesPerTenant || snapshotBytes > maxBytes) {
+			logger.debug("Not caching the resource data of tenant id " + snapshot.tenantId + " and account id "
+					+ snapshot.accountId + " since its " + snapshotBytes + " bytes exceed the cache limits");
+			return false;
+		}
+
+		// Least recently used snapshots of the same tenant first, then of any tenant
+		evict(snapshot.tenantId, maxBytesPerTenant - snapshotBytes);
+		evict(null, maxBytes - snapshotBytes);
+
+		entries.put(key, snapshot);
+		bytesPerTenant.merge(snapshot.tenantId, snapshotBytes, Long::sum);
+		bytes += snapshotBytes;
+
+		return true;
+	}
+
+	/**
+	 * Evicts the least recently used snapshots (of the given tenant or, if null,
+	 * of all tenants) until they use no more than the given nr. of bytes.
+	 */
+	private void evict(String tenantId, long maxRemainingBytes) {
+
+		Iterator<Snapshot> it = entries.values().iterator();
+
+		while (it.hasNext() && getBytes(tenantId) > maxRemainingBytes) {
+
+			Snapshot eldest = it.next();
+			if (tenantId != null && !tenantId.equals(eldest.tenantId)) {
+				continue;
+			}
+
+			it.remove();
+			subtract(eldest);
+			evictions++;
+
+			logger.debug("Evicted the cached resource data of tenant id " + eldest.tenantId + " and account id "
+					+ eldest.accountId);
+		}
+	}
+
+	private long getBytes(String tenantId) {
+		return tenantId != null ? bytesPerTenant.getOrDefault(tenantId, 0L) : bytes;
+	}
+
+	private void remove(String key) {
+
+		Snapshot removed = entries.remove(key);
+		if (removed != null) {
+			subtract(removed);
+		}
+	}
+
+	private void subtract(Snapshot snapshot) {
+
+		bytes -= snapshot.getBytes();
+		if (bytesPerTenant.merge(snapshot.tenantId, -snapshot.getBytes(), Long::sum) <= 0) {
+			bytesPerTenant.remove(snapshot.tenantId);
+		}
+	}
+
+	private static String toKey(String tenantId, String accountId) {
+		return tenantId + "/" + accountId;
+	}
+
+	/**
+	 * All resource data of an account, per resource type. Immutable - updates
+	 * replace the whole snapshot. Only the compressed response document is added
+	 * once it has been built.
+	 */
+	public static class Snapshot {
+
+		private final String tenantId;
+		private final String accountId;
+		private final Map<String, ResourceTypeData> resourceTypes;
+		private final long bytes;
+		private final long loadedAt = System.currentTimeMillis();
+
+		// Guarded by the lock of the cache
+		private byte[] gzippedDocument;
+
+		/**
+		 * @param resourceTypes Resource data per resource type
+		 */
+		public Snapshot(String tenantId, String accountId, Map<String, ResourceTypeData> resourceTypes) {
+
+			this.tenantId = tenantId;
+			this.accountId = accountId;
+			this.resourceTypes = Collections.unmodifiableMap(new TreeMap<String, ResourceTypeData>(resourceTypes));
+
+			long estimatedBytes = 0;
+			for (ResourceTypeData resourceType : resourceTypes.values()) {
+				estimatedBytes += resourceType.getBytes();
+			}
+			this.bytes = estimatedBytes;
+		}
+
+		public String getTenantId() {
+			return tenantId;
+		}
+
+		public String getAccountId() {
+			return accountId;
+		}
+
+		/**
+		 * @return Estimated memory used by the snapshot, in bytes, including the
+		 *         compressed response document if it has been built
+		 */
+		long getBytes() {
+			return bytes + (gzippedDocument != null ? gzippedDocument.length : 0);
+		}
+
+		public Collection<ResourceTypeData> getResourceTypes() {
+			return resourceTypes.values();
+		}
+
+		/**
+		 * @return "lastUpdated" timestamp per resource type, which is the name of the
+		 *         Datastore entity the data is stored in
+		 */
+		public Map<String, Timestamp> getLastUpdatedByResourceType() {
+
+			Map<String, Timestamp> lastUpdatedByResourceType = new HashMap<String, Timestamp>();
+			for (ResourceTypeData resourceType : resourceTypes.values()) {
+				lastUpdatedByResourceType.put(resourceType.resourceType, resourceType.lastUpdated);
+			}
+			return lastUpdatedByResourceType;
+		}
+	}
+
+	/**
+	 * The data of one resource type of an account, as stored in one Datastore
+	 * entity.
+	 */
+	public static class ResourceTypeData {
+
+		// Rough overhead of the objects holding the data of a resource type
+		private static final long OVERHEAD_BYTES = 128;
+
+		private final String resourceType;
+		private final Timestamp lastUpdated;
+		private final String resourceData;
+
+		/**
+		 * @param resourceData JSON array of all resources of that type
+		 */
+		public ResourceTypeData(String resourceType, Timestamp lastUpdated, String resourceData) {
+			this.resourceType = resourceType;
+			this.lastUpdated = lastUpdated;
+			this.resourceData = resourceData;
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public Timestamp getLastUpdated() {
+			return lastUpdated;
+		}
+
+		public String getResourceData() {
+			return resourceData;
+		}
+
+		/**
+		 * @return Estimated memory used by the data, in bytes
+		 */
+		public long getBytes() {
+
+			// Java strings use (up to) 2 bytes per character
+			return OVERHEAD_BYTES + 2L * resourceType.length() + 2L * (resourceData != null ? resourceData.length() : 0);
+		}
+	}
+}
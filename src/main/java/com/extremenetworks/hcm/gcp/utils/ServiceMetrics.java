@@ -0,0 +1,168 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process metrics of this service: latency of the REST requests it serves
+ * and of its calls to Rabbit MQ and Datastore, and the size of the data it
+ * sends there. Rendered in the Prometheus text exposition format by the admin
+ * resource.
+ *
+ * Latencies are passed in nanoseconds and exposed in seconds, as Prometheus
+ * expects it.
+ */
+public class ServiceMetrics {
+
+	/* Upper bounds of the latency histogram buckets, in seconds */
+	public static final double[] LATENCY_BUCKETS_SECONDS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5,
+			10, 30 };
+
+	/* Upper bounds of the payload size histogram buckets, in bytes */
+	public static final double[] SIZE_BUCKETS_BYTES = { 1024, 8192, 65536, 262144, 1048576, 4194304, 16777216 };
+
+	private final Histogram httpRequestDuration = new Histogram("hcm_gcp_http_request_duration_seconds",
+			"Time to serve a REST request, per resource method and response status", LATENCY_BUCKETS_SECONDS,
+			"resource", "method", "status");
+
+	private final Histogram rabbitPublishDuration = new Histogram("hcm_gcp_rabbitmq_publish_duration_seconds",
+			"Time to publish a message to Rabbit MQ, including borrowing a channel", LATENCY_BUCKETS_SECONDS,
+			"result");
+
+	private final Histogram rabbitPublishBytes = new Histogram("hcm_gcp_rabbitmq_publish_bytes",
+			"Size of the messages published to Rabbit MQ", SIZE_BUCKETS_BYTES, "result");
+
+	private final Histogram datastoreDuration = new Histogram("hcm_gcp_datastore_request_duration_seconds",
+			"Time of a Datastore call, per operation", LATENCY_BUCKETS_SECONDS, "operation", "result");
+
+	private final Histogram datastoreBytes = new Histogram("hcm_gcp_datastore_payload_bytes",
+			"Estimated size of the entities written to or read from Datastore, per operation", SIZE_BUCKETS_BYTES,
+			"operation");
+
+	/**
+	 * @param resource Resource class and method that served the request, e.g.
+	 *                 "ResourcesRes.getAll"
+	 * @param method   HTTP method
+	 * @param status   HTTP status of the response
+	 */
+	public void observeHttpRequest(String resource, String method, int status, long durationNanos) {
+		httpRequestDuration.observe(toSeconds(durationNanos), resource, method, String.valueOf(status));
+	}
+
+	public void observeRabbitPublish(boolean success, long durationNanos, long bytes) {
+
+		String result = success ? "success" : "error";
+		rabbitPublishDuration.observe(toSeconds(durationNanos), result);
+		rabbitPublishBytes.observe(bytes, result);
+	}
+
+	/**
+	 * @param operation Datastore client method, e.g. "get" or "put"
+	 * @param bytes     Estimated payload size or -1 if not known, e.g. for lazily
+	 *                  read query results
+	 */
+	public void observeDatastore(String operation, boolean success, long durationNanos, long bytes) {
+
+		datastoreDuration.observe(toSeconds(durationNanos), operation, success ? "success" : "error");
+		if (bytes >= 0) {
+			datastoreBytes.observe(bytes, operation);
+		}
+	}
+
+	/**
+	 * Appends all histograms in the Prometheus text format.
+	 */
+	public void writeTo(PrometheusTextWriter writer) {
+
+		httpRequestDuration.writeTo(writer);
+		rabbitPublishDuration.writeTo(writer);
+		rabbitPublishBytes.writeTo(writer);
+		datastoreDuration.writeTo(writer);
+		datastoreBytes.writeTo(writer);
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	/**
+	 * Prometheus histogram with a fixed set of label names. Each combination of
+	 * label values has its own bucket counts, sum and count.
+	 */
+	public static class Histogram {
+
+		private final String name;
+		private final String help;
+		private final double[] buckets;
+		private final String[] labelNames;
+
+		private final Map<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+		public Histogram(String name, String help, double[] buckets, String... labelNames) {
+			this.name = name;
+			this.help = help;
+			this.buckets = buckets;
+			this.labelNames = labelNames;
+		}
+
+		public void observe(double value, String... labelValues) {
+
+			String key = Arrays.toString(labelValues);
+			series.computeIfAbsent(key, k -> new Series(labelValues.clone())).observe(value);
+		}
+
+		public void writeTo(PrometheusTextWriter writer) {
+
+			writer.writeHeader(name, "histogram", help);
+
+			// Sorted by label values for a stable output
+			Map<String, Series> sortedSeries = new TreeMap<String, Series>(series);
+
+			for (Series labelSeries : sortedSeries.values()) {
+
+				long[] counts;
+				double sum;
+				synchronized (labelSeries) {
+					counts = labelSeries.counts.clone();
+					sum = labelSeries.sum;
+				}
+
+				long cumulativeCount = 0;
+				for (int i = 0; i < buckets.length; i++) {
+					cumulativeCount += counts[i];
+					writer.writeSample(name + "_bucket", labelNames, labelSeries.labelValues, "le",
+							PrometheusTextWriter.formatValue(buckets[i]), cumulativeCount);
+				}
+				cumulativeCount += counts[buckets.length];
+				writer.writeSample(name + "_bucket", labelNames, labelSeries.labelValues, "le", "+Inf",
+						cumulativeCount);
+
+				writer.writeSample(name + "_sum", labelNames, labelSeries.labelValues, sum);
+				writer.writeSample(name + "_count", labelNames, labelSeries.labelValues, cumulativeCount);
+			}
+		}
+
+		private class Series {
+
+			private final String[] labelValues;
+			private final long[] counts = new long[buckets.length + 1];
+			private double sum = 0;
+
+			Series(String[] labelValues) {
+				this.labelValues = labelValues;
+			}
+
+			synchronized void observe(double value) {
+
+				int bucket = 0;
+				while (bucket < buckets.length && value > buckets[bucket]) {
+					bucket++;
+				}
+				counts[bucket]++;
+				sum += value;
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.extremenetworks.hcm.gcp.utils;
+
+import com.extremenetworks.hcm.gcp.UpdateCoalescer;
+import com.extremenetworks.hcm.gcp.jobs.Job;
+
+/**
+ * Response of the triggerUpdate calls. Tells the caller whether the trigger
+ * started a new update or was coalesced with an update of the same account
+ * that is already running, and returns the id of the job whose progress can
+ * be followed at /jobs/{id}.
+ */
+public class TriggerResponse extends WebResponse {
+
+	private boolean coalesced;
+	private String jobId;
+
+	public TriggerResponse(int code, String message, boolean coalesced, String jobId) {
+		super(code, message);
+		this.coalesced = coalesced;
+		this.jobId = jobId;
+	}
+
+	/**
+	 * @param data What is updated, e.g. "resource data"
+	 */
+	public static TriggerResponse forResult(UpdateCoalescer.Result result, String data) {
+
+		Job job = result.getJob();
+
+		switch (result.getOutcome()) {
+		case QUEUED:
+			return new TriggerResponse(0, "An update of all " + data
+					+ " is already running - queued another update to start once it is done", true, job.getId());
+		case COALESCED:
+			return new TriggerResponse(0, "An update of all " + data
+					+ " is already running and another one is queued - merged this trigger into the queued update",
+					true, job.getId());
+		default:
+			return new TriggerResponse(0, "Successfully triggered an update of all " + data, false, job.getId());
+		}
+	}
+
+	public boolean isCoalesced() {
+		return coalesced;
+	}
+
+	public void setCoalesced(boolean coalesced) {
+		this.coalesced = coalesced;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+}
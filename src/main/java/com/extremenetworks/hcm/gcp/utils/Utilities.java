@@ -4,8 +4,7 @@ import com.extremenetworks.hcm.gcp.AccountConfig;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Query;
-import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.Key;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,19 +15,24 @@ public class Utilities {
     private static ObjectMapper jsonMapper = new ObjectMapper();
 
     /**
-     * Retrieves the account config for the given tenant and account from Datastore.
-     * Stores the matching account config in the provided accountConfig parameter.
-     * Also validates the given tenantId and accountId params.
+     * Retrieves the account config for the given tenant and account from the
+     * cache or, if not cached, from Datastore. Stores the matching account config
+     * in the provided accountConfig parameter. Also validates the given tenantId
+     * and accountId params.
      * 
-     * @param tenantId      Extreme Networks configured tenant id
-     * @param accountId     Extreme Networks configured account id
-     * @param accountConfig Empty, instantiated AccountConfig object that will be
-     *                      populated with the account config if found in Datastore
+     * @param tenantId           Extreme Networks configured tenant id
+     * @param accountId          Extreme Networks configured account id
+     * @param accountConfig      Empty, instantiated AccountConfig object that will
+     *                           be populated with the account config if found in
+     *                           Datastore
+     * @param accountConfigCache Cache for the account configs read from
+     *                           Datastore. Can be null to always read from
+     *                           Datastore
      * @return An empty string if no error occured. If there was a problem, it
      *         returns a JSON-configured string that can be used as an HTTP reponse.
      */
     public static String retrieveAccountConfigFromDb(String tenantId, String accountId, AccountConfig accountConfig,
-            Datastore datastore, String dsEntityKind) {
+            Datastore datastore, String dsEntityKind, AccountConfigCache accountConfigCache) {
 
         try {
             if (tenantId == null || tenantId.isEmpty()) {
@@ -45,43 +49,43 @@ public class Utilities {
                 return jsonMapper.writeValueAsString(new WebResponse(2, msg));
             }
 
-            // Retrieve all configured GCP source systems for this tenant
-            logger.debug("Retrieving config for tenant id " + tenantId + " and account id " + accountId);
-
-            Query<Entity> query = Query.newEntityQueryBuilder().setNamespace(tenantId).setKind(dsEntityKind).build();
-
-            QueryResults<Entity> queryResults = datastore.run(query);
+            if (accountConfigCache != null && accountConfigCache.get(tenantId, accountId, accountConfig)) {
+                logger.debug("Using cached config for tenant id " + tenantId + " and account id " + accountId);
+                return "";
+            }
 
-            while (queryResults.hasNext()) {
+            // The configured account is stored with the account id as key name
+            logger.debug("Retrieving config for tenant id " + tenantId + " and account id " + accountId);
 
-                Entity srcSysEntity = queryResults.next();
-                String srcSysAccountId = srcSysEntity.getKey().getName();
+            Key accountKey = datastore.newKeyFactory().setNamespace(tenantId).setKind(dsEntityKind).newKey(accountId);
+            Entity srcSysEntity = datastore.get(accountKey);
 
-                // Try to match the given account id with the configured account (Entity key
-                // name == accountId)
-                if (accountId.equals(srcSysAccountId)) {
+            if (srcSysEntity != null) {
 
-                    if (srcSysEntity.isNull("projectId") || srcSysEntity.isNull("credentialsFileContent")) {
-                        String msg = "Found account config but it is missing property projectId and/or credentialsFileContent";
-                        logger.warn(msg);
-                        return jsonMapper.writeValueAsString(new WebResponse(3, msg));
-                    }
+                if (srcSysEntity.isNull("projectId") || srcSysEntity.isNull("credentialsFileContent")) {
+                    String msg = "Found account config but it is missing property projectId and/or credentialsFileContent";
+                    logger.warn(msg);
+                    return jsonMapper.writeValueAsString(new WebResponse(3, msg));
+                }
 
-                    if (srcSysEntity.getString("projectId").isEmpty()
-                            || srcSysEntity.getString("credentialsFileContent").isEmpty()) {
-                        String msg = "Found account config but property projectId and/or credentialsFileContent is empty";
-                        logger.warn(msg);
-                        return jsonMapper.writeValueAsString(new WebResponse(4, msg));
-                    }
+                if (srcSysEntity.getString("projectId").isEmpty()
+                        || srcSysEntity.getString("credentialsFileContent").isEmpty()) {
+                    String msg = "Found account config but property projectId and/or credentialsFileContent is empty";
+                    logger.warn(msg);
+                    return jsonMapper.writeValueAsString(new WebResponse(4, msg));
+                }
 
-                    accountConfig.setTenantId(tenantId);
-                    accountConfig.setAccountId(accountId);
-                    accountConfig.setProjectId(srcSysEntity.getString("projectId"));
-                    accountConfig.setCredentialsFileContent(srcSysEntity.getString("credentialsFileContent"));
+                accountConfig.setTenantId(tenantId);
+                accountConfig.setAccountId(accountId);
+                accountConfig.setProjectId(srcSysEntity.getString("projectId"));
+                accountConfig.setCredentialsFileContent(srcSysEntity.getString("credentialsFileContent"));
 
-                    logger.debug("Found configured source system: " + accountConfig.toString());
-                    return "";
+                if (accountConfigCache != null) {
+                    accountConfigCache.put(accountConfig);
                 }
+
+                logger.debug("Found configured source system: " + accountConfig.toString());
+                return "";
             }
 
             String msg = "Could not find a configured source system for tenant id " + tenantId + ", account id "
@@ -1,30 +1,30 @@
-package com.extremenetworks.hcm.gcp.utils;
-
-public class WebResponse {
-
-	private int code;
-	private String message;
-
-	public WebResponse(int code, String message) {
-		super();
-		this.code = code;
-		this.message = message;
-	}
-
-	public int getCode() {
-		return code;
-	}
-
-	public void setCode(int code) {
-		this.code = code;
-	}
-
-	public String getMessage() {
-		return message;
-	}
-
-	public void setMessage(String message) {
-		this.message = message;
-	}
-
-}
+package com.extremenetworks.hcm.gcp.utils;
+
+public class WebResponse {
+
+	private int code;
+	private String message;
+
+	public WebResponse(int code, String message) {
+		super();
+		this.code = code;
+		this.message = message;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public void setCode(int code) {
+		this.code = code;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+}